@@ -0,0 +1,16 @@
+package com.wilco375.onetwoauthenticate;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks test classes that only time code on a device and log the results. They are left out of
+ * the default test run and are run with {@code ./gradlew connectedAndroidTest -PdeviceBenchmarks}.
+ * Benchmarks of otp-core belong in its JMH harness instead.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface DeviceBenchmark {
+}
@@ -27,7 +27,7 @@ import android.view.View;
 import com.wilco375.onetwoauthenticate.R;
 import com.wilco375.onetwoauthenticate.TestUtilities;
 import com.wilco375.onetwoauthenticate.database.AccountDb;
-import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
 import com.wilco375.onetwoauthenticate.activity.AuthenticatorActivity;
 import com.wilco375.onetwoauthenticate.testability.DependencyInjector;
 import com.wilco375.onetwoauthenticate.util.Utilities;
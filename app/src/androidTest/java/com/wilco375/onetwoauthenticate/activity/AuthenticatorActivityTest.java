@@ -21,13 +21,13 @@ import android.content.ActivityNotFoundException;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.support.v7.widget.RecyclerView;
 import android.test.ActivityInstrumentationTestCase2;
 import android.test.ViewAsserts;
 import android.content.ClipboardManager;
 import android.view.KeyEvent;
 import android.view.View;
 import android.widget.Button;
-import android.widget.ListView;
 import android.widget.TextView;
 
 import com.github.clans.fab.FloatingActionButton;
@@ -35,7 +35,7 @@ import com.github.clans.fab.FloatingActionMenu;
 import com.wilco375.onetwoauthenticate.R;
 import com.wilco375.onetwoauthenticate.TestUtilities;
 import com.wilco375.onetwoauthenticate.database.AccountDb;
-import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
 import com.wilco375.onetwoauthenticate.activity.AuthenticatorActivity;
 import com.wilco375.onetwoauthenticate.activity.CheckCodeActivity;
 import com.wilco375.onetwoauthenticate.testability.DependencyInjector;
@@ -94,7 +94,7 @@ public class AuthenticatorActivityTest extends
 
     public void testNoAccountUi() {
         getActivity();
-        ListView userList = getActivity().findViewById(R.id.user_list);
+        RecyclerView userList = getActivity().findViewById(R.id.user_list);
         TextView enterPinPrompt = getActivity().findViewById(R.id.enter_pin_prompt);
         FloatingActionMenu addAccountButton = getActivity().findViewById(R.id.add_account_fab);
         View contentWhenNoAccounts = getActivity().findViewById(R.id.content_no_accounts);
@@ -116,7 +116,7 @@ public class AuthenticatorActivityTest extends
     public void testGetOtpWithOneTotpAccount() {
         mAccountDb.update(
                 "johndoeTotp@gmail.com", "7777777777777777", "johndoeTotp@gmail.com", OtpType.TOTP, null);
-        ListView userList = getActivity().findViewById(R.id.user_list);
+        RecyclerView userList = getActivity().findViewById(R.id.user_list);
         assertEquals(1, userList.getChildCount());
         View listEntry = userList.getChildAt(0);
         String user = ((TextView) listEntry.findViewById(R.id.current_user)).getText().toString();
@@ -131,7 +131,7 @@ public class AuthenticatorActivityTest extends
     public void testGetOtpWithOneHotpAccount() {
         mAccountDb.update(
                 "johndoeHotp@gmail.com", "7777777777777777", "johndoeHotp@gmail.com", OtpType.HOTP, null);
-        ListView userList = getActivity().findViewById(R.id.user_list);
+        RecyclerView userList = getActivity().findViewById(R.id.user_list);
         assertEquals(1, userList.getChildCount());
         View listEntry = userList.getChildAt(0);
         String user = ((TextView) listEntry.findViewById(R.id.current_user)).getText().toString();
@@ -154,7 +154,7 @@ public class AuthenticatorActivityTest extends
                 "johndoeTotp1@gmail.com", "2222222222222222", "johndoeTotp1@gmail.com", OtpType.TOTP, null);
         mAccountDb.update(
                 "johndoeTotp2@gmail.com", "3333333333333333", "johndoeTotp2@gmail.com", OtpType.TOTP, null);
-        ListView userList = getActivity().findViewById(R.id.user_list);
+        RecyclerView userList = getActivity().findViewById(R.id.user_list);
         assertEquals(3, userList.getChildCount());
 
         // check hotp account
@@ -196,7 +196,7 @@ public class AuthenticatorActivityTest extends
     public void testContextMenuCheckCode() {
         mAccountDb.update(
                 "johndoeHotp@gmail.com", "7777777777777777", "johndoeHotp@gmail.com", OtpType.HOTP, null);
-        ListView userList = getActivity().findViewById(R.id.user_list);
+        RecyclerView userList = getActivity().findViewById(R.id.user_list);
         View listEntry0 = userList.getChildAt(0);
         TestUtilities.openContextMenuAndInvokeItem(
                 getInstrumentation(),
@@ -214,7 +214,7 @@ public class AuthenticatorActivityTest extends
     public void testContextMenuRemove() throws Exception {
         mAccountDb.update(
                 "johndoeHotp@gmail.com", "7777777777777777", "johndoeHotp@gmail.com", OtpType.HOTP, null);
-        ListView userList = getActivity().findViewById(R.id.user_list);
+        RecyclerView userList = getActivity().findViewById(R.id.user_list);
         View listEntry0 = userList.getChildAt(0);
         TestUtilities.openContextMenuAndInvokeItem(
                 getInstrumentation(),
@@ -235,7 +235,7 @@ public class AuthenticatorActivityTest extends
     public void testContextMenuRename() throws Exception {
         mAccountDb.update(
                 "johndoeHotp@gmail.com", "7777777777777777", "johndoeHotp@gmail.com", OtpType.HOTP, null);
-        ListView userList = getActivity().findViewById(R.id.user_list);
+        RecyclerView userList = getActivity().findViewById(R.id.user_list);
         View listEntry0 = userList.getChildAt(0);
         TestUtilities.openContextMenuAndInvokeItem(
                 getInstrumentation(),
@@ -261,7 +261,7 @@ public class AuthenticatorActivityTest extends
         // use HOTP to avoid any timing issues when "current" pin is compared with clip board text.
         mAccountDb.update(
                 "johndoeHotp@gmail.com", "7777777777777777", "johndoeHotp@gmail.com", OtpType.HOTP, null);
-        ListView userList = getActivity().findViewById(R.id.user_list);
+        RecyclerView userList = getActivity().findViewById(R.id.user_list);
         // find and click next otp button.
         View buttonView = getActivity().findViewById(R.id.next_otp);
         TestUtilities.clickView(getInstrumentation(), buttonView);
@@ -27,7 +27,7 @@ import android.widget.TextView;
 import com.wilco375.onetwoauthenticate.R;
 import com.wilco375.onetwoauthenticate.TestUtilities;
 import com.wilco375.onetwoauthenticate.database.AccountDb;
-import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
 import com.wilco375.onetwoauthenticate.activity.CheckCodeActivity;
 import com.wilco375.onetwoauthenticate.testability.DependencyInjector;
 
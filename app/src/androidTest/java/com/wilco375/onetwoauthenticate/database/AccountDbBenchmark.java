@@ -0,0 +1,182 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.wilco375.onetwoauthenticate.DeviceBenchmark;
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
+import com.wilco375.onetwoauthenticate.testability.DependencyInjector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timings of {@link AccountDb} on a device. These only log and are not part of the default test
+ * run, see {@link DeviceBenchmark}.
+ */
+@DeviceBenchmark
+public class AccountDbBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = "AccountDbBenchmark";
+    private static final String SECRET = "7777777777777777"; // 16 sevens
+
+    private AccountDb accountDb;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        DependencyInjector.resetForIntegrationTesting(getContext());
+        accountDb = DependencyInjector.getAccountDb();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DependencyInjector.close();
+
+        super.tearDown();
+    }
+
+    /**
+     * Reorders 1000 accounts, before and after moving the first one to the end, and moves some of
+     * them one at a time, and logs the time taken by each.
+     */
+    public void testReorder() {
+        int count = 1000;
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = "user" + i + "@example.com";
+            accountDb.update(names[i], SECRET, names[i], OtpType.TOTP, null);
+        }
+
+        long start = System.nanoTime();
+        accountDb.reorder(names);
+        long reorderNanos = System.nanoTime() - start;
+
+        String first = names[0];
+        System.arraycopy(names, 1, names, 0, count - 1);
+        names[count - 1] = first;
+        start = System.nanoTime();
+        accountDb.reorder(names);
+        long reorderRotatedNanos = System.nanoTime() - start;
+
+        int moves = 100;
+        start = System.nanoTime();
+        for (int i = 0; i < moves; i++) {
+            accountDb.move(names[i], count / 2);
+        }
+        long moveNanos = (System.nanoTime() - start) / moves;
+
+        Log.i(LOG_TAG, count + " accounts: reorder " + (reorderNanos / 1000000) + " ms, "
+                + "reorder after moving the first to the end " + (reorderRotatedNanos / 1000000)
+                + " ms, move " + (moveNanos / 1000) + " us");
+    }
+
+    /**
+     * Imports 5000 accounts with {@link AccountDb#bulkUpsert} and logs the time taken compared to
+     * saving a part of them one at a time.
+     */
+    public void testBulkUpsert() {
+        int count = 5000;
+        List<Account> accounts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            accounts.add(new Account("user" + i + "@example.com", SECRET, OtpType.TOTP, 0, null,
+                    Algorithm.SHA1, AccountDb.DEFAULT_DIGITS, AccountDb.DEFAULT_PERIOD));
+        }
+        // Load the accounts, so that each write updates them like in the app
+        accountDb.getAllAccounts();
+
+        int single = 200;
+        long start = System.nanoTime();
+        for (Account account : accounts.subList(0, single)) {
+            accountDb.update(account.getName(), account.getSecret(), account.getName(),
+                    account.getType(), account.getCounter(), null, null, account.getAlgorithm(),
+                    account.getDigits(), account.getPeriod());
+        }
+        long singleNanos = (System.nanoTime() - start) / single;
+        accountDb.deleteAllData();
+
+        start = System.nanoTime();
+        assertEquals(count, accountDb.bulkUpsert(accounts, null));
+        long insertNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        assertEquals(0, accountDb.bulkUpsert(accounts, null));
+        long updateNanos = System.nanoTime() - start;
+
+        assertEquals(count, accountDb.getAllAccounts().size());
+        Log.i(LOG_TAG, count + " accounts: bulk insert " + (insertNanos / 1000000) + " ms, "
+                + "bulk update " + (updateNanos / 1000000) + " ms, one at a time "
+                + (singleNanos / 1000) + " us per account");
+    }
+
+    /**
+     * Reads the attributes needed to display and export 500 accounts with the per-attribute
+     * getters, with {@link AccountDb#getAccount(String)} and with
+     * {@link AccountDb#getAllAccounts()}, and logs the time taken by each and by the single query
+     * that loads the accounts.
+     */
+    public void testGetAccount() {
+        int count = 500;
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = "user" + i + "@example.com";
+            accountDb.update(names[i], SECRET, names[i], OtpType.TOTP, null);
+        }
+
+        // Written accounts are not loaded until the first read
+        accountDb = new AccountDb(getContext());
+        DependencyInjector.setAccountDb(accountDb);
+        long start = System.nanoTime();
+        accountDb.getAllAccounts();
+        long loadNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (String name : names) {
+            assertEquals(SECRET, accountDb.getSecret(name));
+            accountDb.getType(name);
+            accountDb.getCounter(name);
+            accountDb.getColor(name);
+            accountDb.getAlgorithm(name);
+            accountDb.getDigits(name);
+            accountDb.getPeriod(name);
+        }
+        long perAttributeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (String name : names) {
+            assertEquals(SECRET, accountDb.getAccount(name).getSecret());
+        }
+        long perAccountNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        assertEquals(count, accountDb.getAllAccounts().size());
+        long allAccountsNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, count + " accounts: loading " + (loadNanos / 1000) + " us, per attribute "
+                + (perAttributeNanos / 1000) + " us, getAccount " + (perAccountNanos / 1000)
+                + " us, getAllAccounts " + (allAccountsNanos / 1000) + " us");
+    }
+
+    /**
+     * Opens an existing database and loads its 50 accounts many times and logs the average time
+     * taken, i.e. the cost of opening the database at startup.
+     */
+    public void testOpen() {
+        int count = 50;
+        for (int i = 0; i < count; i++) {
+            String name = "user" + i + "@example.com";
+            accountDb.update(name, SECRET, name, OtpType.TOTP, null);
+        }
+
+        int runs = 100;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            AccountDb opened = new AccountDb(getContext());
+            assertEquals(count, opened.getAllAccounts().size());
+            opened.close();
+        }
+        long nanos = System.nanoTime() - start;
+        Log.i(LOG_TAG, "Open and load " + count + " accounts: " + (nanos / runs / 1000) + " us");
+    }
+}
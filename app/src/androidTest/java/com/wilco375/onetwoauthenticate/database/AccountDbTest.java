@@ -18,17 +18,26 @@
 package com.wilco375.onetwoauthenticate.database;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 import android.test.MoreAsserts;
 
-import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
 import com.wilco375.onetwoauthenticate.util.Base32String;
 import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.Signer;
 import com.wilco375.onetwoauthenticate.testability.DependencyInjector;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Unit tests for {@link AccountDb}.
@@ -105,6 +114,53 @@ public class AccountDbTest extends AndroidTestCase {
         assertEquals(0, (int) accountDb.getCounter("amywinehouse@aol.com"));  // TOTP record
     }
 
+    public void testIncrementCounterReturnsNewValue() {
+        addSomeRecords();
+        assertEquals(1, (int) accountDb.incrementCounter("maryweiss@yahoo.com"));
+        assertEquals(2, (int) accountDb.incrementCounter("maryweiss@yahoo.com"));
+        assertEquals(2, (int) accountDb.getCounter("maryweiss@yahoo.com"));
+        assertNull(accountDb.incrementCounter("marywinehouse@yahoo.com")); // non-existent record.
+
+        // Accounts saved without a counter start counting from 0
+        accountDb.update("a@b.c", SECRET, "a@b.c", OtpType.HOTP, null);
+        assertEquals(1, (int) accountDb.incrementCounter("a@b.c"));
+    }
+
+    public void testIncrementCounterConcurrently() throws Exception {
+        addSomeRecords();
+        final int threadCount = 8;
+        final int incrementsPerThread = 50;
+        final Set<Integer> counters = Collections.synchronizedSet(new HashSet<Integer>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < incrementsPerThread; j++) {
+                    if (!counters.add(accountDb.incrementCounter("maryweiss@yahoo.com"))) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, duplicates.get());
+        assertEquals(threadCount * incrementsPerThread, counters.size());
+        assertEquals(threadCount * incrementsPerThread,
+                (int) accountDb.getCounter("maryweiss@yahoo.com"));
+    }
+
     public void testGetAndSetType() {
         addSomeRecords();
         assertTrue(accountDb.getType("johndoe@gmail.com").equals(OtpType.TOTP));
@@ -164,6 +220,321 @@ public class AccountDbTest extends AndroidTestCase {
                 "johndoe@gmail.com", "amywinehouse@aol.com", "maryweiss@yahoo.com");
     }
 
+    public void testGetAllAccounts() {
+        addSomeRecords();
+        accountDb.update("maryweiss@yahoo.com", SECRET, "maryweiss@yahoo.com", OtpType.HOTP, 5, null,
+                0xFF0000FF);
+        accountDb.reorder(
+                new String[]{"amywinehouse@aol.com", "maryweiss@yahoo.com", "johndoe@gmail.com"});
+
+        List<Account> accounts = accountDb.getAllAccounts();
+        assertEquals(3, accounts.size());
+
+        assertEquals("amywinehouse@aol.com", accounts.get(0).getName());
+        assertEquals(SECRET2, accounts.get(0).getSecret());
+        assertEquals(OtpType.TOTP, accounts.get(0).getType());
+        assertNull(accounts.get(0).getColor());
+
+        assertEquals("maryweiss@yahoo.com", accounts.get(1).getName());
+        assertEquals(SECRET, accounts.get(1).getSecret());
+        assertEquals(OtpType.HOTP, accounts.get(1).getType());
+        assertEquals(5, accounts.get(1).getCounter());
+        assertEquals(0xFF0000FF, (int) accounts.get(1).getColor());
+
+        assertEquals("johndoe@gmail.com", accounts.get(2).getName());
+    }
+
+    public void testGetAccount() {
+        addSomeRecords();
+        accountDb.update("maryweiss@yahoo.com", SECRET, "maryweiss@yahoo.com", OtpType.HOTP, 5, true,
+                0xFF0000FF, Algorithm.SHA256, 8, 60);
+
+        Account account = accountDb.getAccount("maryweiss@yahoo.com");
+        assertEquals("maryweiss@yahoo.com", account.getName());
+        assertEquals(SECRET, account.getSecret());
+        assertEquals(OtpType.HOTP, account.getType());
+        assertEquals(5, account.getCounter());
+        assertEquals(0xFF0000FF, (int) account.getColor());
+        assertEquals(Algorithm.SHA256, account.getAlgorithm());
+        assertEquals(8, account.getDigits());
+        assertEquals(60, account.getPeriod());
+        assertTrue(account.isGoogleAccount());
+
+        account = accountDb.getAccount("amywinehouse@aol.com");
+        assertEquals(SECRET2, account.getSecret());
+        assertEquals(OtpType.TOTP, account.getType());
+        assertNull(account.getColor());
+        assertFalse(account.isGoogleAccount());
+
+        assertNull(accountDb.getAccount("non-existent account"));
+    }
+
+    public void testWritesUpdateLoadedAccounts() {
+        addSomeRecords();
+        // Load the accounts before writing
+        assertEquals(3, accountDb.getAllAccounts().size());
+
+        accountDb.incrementCounter("maryweiss@yahoo.com");
+        assertEquals(1, accountDb.getAccount("maryweiss@yahoo.com").getCounter());
+
+        accountDb.setType("johndoe@gmail.com", OtpType.HOTP);
+        assertEquals(OtpType.HOTP, accountDb.getAccount("johndoe@gmail.com").getType());
+
+        accountDb.update("amy@aol.com", SECRET, "amywinehouse@aol.com", OtpType.TOTP, null, null,
+                0xFF00FF00);
+        assertNull(accountDb.getAccount("amywinehouse@aol.com"));
+        assertEquals(0xFF00FF00, (int) accountDb.getAccount("amy@aol.com").getColor());
+
+        accountDb.reorder(new String[]{"amy@aol.com", "maryweiss@yahoo.com", "johndoe@gmail.com"});
+        accountDb.update("new@example.com", SECRET2, null, OtpType.TOTP, null);
+        accountDb.delete("maryweiss@yahoo.com");
+        List<String> names = new ArrayList<>();
+        for (Account account : accountDb.getAllAccounts()) {
+            names.add(account.getName());
+        }
+        MoreAsserts.assertContentsInOrder(names, "new@example.com", "amy@aol.com",
+                "johndoe@gmail.com");
+        assertFalse(accountDb.nameExists("maryweiss@yahoo.com"));
+
+        accountDb.deleteAllData();
+        MoreAsserts.assertEmpty(accountDb.getAllAccounts());
+        assertNull(accountDb.getAccount("amy@aol.com"));
+    }
+
+    private List<String> getNamesInOrder(AccountDb db) {
+        List<String> names = new ArrayList<>();
+        for (Account account : db.getAllAccounts()) {
+            names.add(account.getName());
+        }
+        return names;
+    }
+
+    public void testMove() {
+        addSomeRecords();
+        accountDb.reorder(
+                new String[]{"johndoe@gmail.com", "amywinehouse@aol.com", "maryweiss@yahoo.com"});
+
+        assertTrue(accountDb.move("maryweiss@yahoo.com", 0));
+        MoreAsserts.assertContentsInOrder(getNamesInOrder(accountDb),
+                "maryweiss@yahoo.com", "johndoe@gmail.com", "amywinehouse@aol.com");
+        accountDb.move("maryweiss@yahoo.com", 1);
+        MoreAsserts.assertContentsInOrder(getNamesInOrder(accountDb),
+                "johndoe@gmail.com", "maryweiss@yahoo.com", "amywinehouse@aol.com");
+        accountDb.move("johndoe@gmail.com", 2);
+        MoreAsserts.assertContentsInOrder(getNamesInOrder(accountDb),
+                "maryweiss@yahoo.com", "amywinehouse@aol.com", "johndoe@gmail.com");
+        assertFalse(accountDb.move("non-existent account", 0));
+
+        // The order is stored in the database
+        AccountDb reopened = new AccountDb(getContext());
+        try {
+            MoreAsserts.assertContentsInOrder(getNamesInOrder(reopened),
+                    "maryweiss@yahoo.com", "amywinehouse@aol.com", "johndoe@gmail.com");
+        } finally {
+            reopened.close();
+        }
+    }
+
+    public void testGetIdIsStable() {
+        addSomeRecords();
+        Long id = accountDb.getId("johndoe@gmail.com");
+        assertNotNull(id);
+        assertFalse(id.equals(accountDb.getId("amywinehouse@aol.com")));
+        assertNull(accountDb.getId("non-existent account"));
+
+        // Renaming and moving the account keep its ID
+        accountDb.update("johndoenew@gmail.com", SECRET, "johndoe@gmail.com", OtpType.TOTP, null);
+        assertNull(accountDb.getId("johndoe@gmail.com"));
+        assertEquals(id, accountDb.getId("johndoenew@gmail.com"));
+        accountDb.move("johndoenew@gmail.com", 2);
+        assertEquals(id, accountDb.getId("johndoenew@gmail.com"));
+
+        AccountDb reopened = new AccountDb(getContext());
+        try {
+            assertEquals(id, reopened.getId("johndoenew@gmail.com"));
+        } finally {
+            reopened.close();
+        }
+
+        accountDb.delete("johndoenew@gmail.com");
+        assertNull(accountDb.getId("johndoenew@gmail.com"));
+        MoreAsserts.assertContentsInAnyOrder(accountDb.getIds(),
+                accountDb.getId("amywinehouse@aol.com"), accountDb.getId("maryweiss@yahoo.com"));
+
+        // IDs of removed accounts are not given out again, not even that of the last one added
+        Long lastId = accountDb.getId("maryweiss@yahoo.com");
+        accountDb.delete("maryweiss@yahoo.com");
+        accountDb.update("new@example.com", SECRET, "new@example.com", OtpType.TOTP, null);
+        assertTrue(accountDb.getId("new@example.com") > lastId);
+    }
+
+    public void testMoveWithoutFreeSortKeys() {
+        // Accounts that were never ordered don't have sort keys
+        addSomeRecords();
+        accountDb.move("johndoe@gmail.com", 2);
+        assertEquals("johndoe@gmail.com", getNamesInOrder(accountDb).get(2));
+
+        // Moving between the same two accounts halves the free keys between them each time
+        for (int i = 0; i < 40; i++) {
+            String last = getNamesInOrder(accountDb).get(2);
+            accountDb.move(last, 1);
+            assertEquals(last, getNamesInOrder(accountDb).get(1));
+        }
+
+        AccountDb reopened = new AccountDb(getContext());
+        try {
+            assertEquals(getNamesInOrder(accountDb), getNamesInOrder(reopened));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    /**
+     * Orders 1,000 accounts with {@link AccountDb#reorder(String[])}, which writes every account
+     * whose sort key changes, and moves an account with {@link AccountDb#move(String, int)}, which
+     * writes only that account, and logs the time taken by each.
+     */
+    public void testAccountEvents() {
+        addSomeRecords();
+        List<String> events = new ArrayList<>();
+        accountDb.addAccountEventListener(new AccountDb.AccountEventListener() {
+            @Override
+            public void onAccountInserted(String email) {
+                events.add("inserted " + email);
+            }
+
+            @Override
+            public void onAccountUpdated(String oldEmail, String email) {
+                events.add("updated " + oldEmail + " " + email);
+            }
+
+            @Override
+            public void onAccountDeleted(String email) {
+                events.add("deleted " + email);
+            }
+
+            @Override
+            public void onAccountMoved(String email) {
+                // The account is already at its new position
+                events.add("moved " + email + " " + accountDb.getAllAccounts().indexOf(
+                        accountDb.getAccount(email)));
+            }
+
+            @Override
+            public void onAccountsReloaded() {
+                events.add("reloaded");
+            }
+        });
+
+        accountDb.update("new@example.com", SECRET, "new@example.com", OtpType.TOTP, null);
+        accountDb.update("johndoe@gmail.com", SECRET, "johndoe@gmail.com", OtpType.TOTP, null,
+                null, 0xFF00FF00);
+        accountDb.update("john@example.com", SECRET, "johndoe@gmail.com", OtpType.TOTP, null);
+        accountDb.move("new@example.com", 0);
+        accountDb.incrementCounter("maryweiss@yahoo.com");
+        accountDb.delete("maryweiss@yahoo.com");
+        accountDb.delete("maryweiss@yahoo.com");
+        accountDb.bulkUpsert(new ArrayList<Account>(), null);
+
+        MoreAsserts.assertContentsInOrder(events,
+                "inserted new@example.com",
+                "updated johndoe@gmail.com johndoe@gmail.com",
+                "updated johndoe@gmail.com john@example.com",
+                "moved new@example.com 0",
+                "deleted maryweiss@yahoo.com",
+                "reloaded");
+    }
+
+    public void testBulkUpsert() {
+        addSomeRecords();
+        accountDb.update("johndoe@gmail.com", SECRET, "johndoe@gmail.com", OtpType.TOTP, null,
+                null, 0xFF00FF00);
+        // Load the accounts before writing
+        assertEquals(3, accountDb.getAllAccounts().size());
+        List<String> changes = new ArrayList<>();
+        accountDb.addAccountChangeListener(changes::add);
+        List<Integer> progress = new ArrayList<>();
+
+        List<Account> accounts = new ArrayList<>();
+        accounts.add(new Account("johndoe@gmail.com", SECRET2, OtpType.HOTP, 5, null,
+                Algorithm.SHA256, 8, 60));
+        accounts.add(new Account("new@example.com", SECRET, OtpType.TOTP, 0, null,
+                Algorithm.SHA512, 7, 30));
+        accounts.add(new Account("new@example.com", SECRET2, OtpType.TOTP, 0, null,
+                Algorithm.SHA512, 7, 30));
+        assertEquals(1, accountDb.bulkUpsert(accounts, (done, total) -> {
+            assertEquals(3, total);
+            progress.add(done);
+        }));
+
+        MoreAsserts.assertContentsInOrder(progress, 1, 2, 3);
+        MoreAsserts.assertContentsInOrder(changes, (String) null);
+        assertEquals(4, accountDb.getAllAccounts().size());
+
+        Account updated = accountDb.getAccount("johndoe@gmail.com");
+        assertEquals(SECRET2, updated.getSecret());
+        assertEquals(OtpType.HOTP, updated.getType());
+        assertEquals(5, updated.getCounter());
+        assertEquals(Algorithm.SHA256, updated.getAlgorithm());
+        assertEquals(8, updated.getDigits());
+        assertEquals(60, updated.getPeriod());
+        assertEquals(0xFF00FF00, (int) updated.getColor());
+
+        Account inserted = accountDb.getAccount("new@example.com");
+        assertEquals(SECRET2, inserted.getSecret());
+        assertEquals(Algorithm.SHA512, inserted.getAlgorithm());
+        assertEquals(7, inserted.getDigits());
+    }
+
+    public void testGetAllAccountsIsUnmodifiable() {
+        addSomeRecords();
+        try {
+            accountDb.getAllAccounts().clear();
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+        assertEquals(3, accountDb.getAllAccounts().size());
+    }
+
+    public void testGetAndSetAlgorithmDigitsAndPeriod() {
+        addSomeRecords();
+        assertEquals(Algorithm.SHA1, accountDb.getAlgorithm("johndoe@gmail.com"));
+        assertEquals(AccountDb.DEFAULT_DIGITS, (int) accountDb.getDigits("johndoe@gmail.com"));
+        assertEquals(AccountDb.DEFAULT_PERIOD, (int) accountDb.getPeriod("johndoe@gmail.com"));
+
+        accountDb.update("johndoe@gmail.com", SECRET, "johndoe@gmail.com", OtpType.TOTP, null,
+                null, null, Algorithm.SHA512, 8, 60);
+        assertEquals(Algorithm.SHA512, accountDb.getAlgorithm("johndoe@gmail.com"));
+        assertEquals(8, (int) accountDb.getDigits("johndoe@gmail.com"));
+        assertEquals(60, (int) accountDb.getPeriod("johndoe@gmail.com"));
+
+        // Updates that don't specify the attributes preserve them
+        accountDb.update("johndoe@gmail.com", SECRET2, "johndoe@gmail.com", OtpType.TOTP, null);
+        accountDb.reorder(
+                new String[]{"johndoe@gmail.com", "amywinehouse@aol.com", "maryweiss@yahoo.com"});
+        Account account = accountDb.getAllAccounts().get(0);
+        assertEquals("johndoe@gmail.com", account.getName());
+        assertEquals(Algorithm.SHA512, account.getAlgorithm());
+        assertEquals(8, account.getDigits());
+        assertEquals(60, account.getPeriod());
+
+        assertNull(accountDb.getAlgorithm("non-existent account"));
+        assertNull(accountDb.getDigits("non-existent account"));
+        assertNull(accountDb.getPeriod("non-existent account"));
+    }
+
+    public void testAlgorithmFromName() {
+        assertEquals(Algorithm.SHA1, Algorithm.fromName("SHA1"));
+        assertEquals(Algorithm.SHA256, Algorithm.fromName("sha256"));
+        assertEquals(Algorithm.SHA512, Algorithm.fromName("Sha512"));
+        assertNull(Algorithm.fromName("MD5"));
+        assertNull(Algorithm.fromName(null));
+    }
+
+    public void testGetAllAccountsNoRecords() {
+        MoreAsserts.assertEmpty(accountDb.getAllAccounts());
+    }
+
     public void testIsGoogleAccount() {
         accountDb.update("1@b.c", SECRET, "1@b.c", OtpType.TOTP, null, true);
         accountDb.update("2@gmail.com", SECRET, "2@gmail.com", OtpType.TOTP, null);
@@ -214,7 +585,80 @@ public class AccountDbTest extends AndroidTestCase {
         accountDb = DependencyInjector.getAccountDb();
         MoreAsserts.assertContentsInAnyOrder(
                 AccountDb.listTableColumnNamesLowerCase(accountDb.mDatabase, AccountDb.TABLE_NAME),
-                "first", AccountDb.PROVIDER_COLUMN, AccountDb.COLOR_COLUMN, AccountDb.ORDER_COLUMN);
+                "first", AccountDb.PROVIDER_COLUMN, AccountDb.COLOR_COLUMN, AccountDb.ORDER_COLUMN,
+                AccountDb.ALGORITHM_COLUMN, AccountDb.DIGITS_COLUMN, AccountDb.PERIOD_COLUMN);
+    }
+
+    public void testConstruct_whenDatabaseWithoutAlgorithmDigitsAndPeriodColumn() {
+        deleteAccountDb();
+        SQLiteDatabase database =
+                DependencyInjector.getContext().openOrCreateDatabase(
+                        AccountDb.PATH, Context.MODE_PRIVATE, null);
+        database.execSQL("CREATE TABLE " + AccountDb.TABLE_NAME
+                + " (_id INTEGER PRIMARY KEY, email TEXT NOT NULL, secret TEXT NOT NULL,"
+                + " counter INTEGER DEFAULT 0, type INTEGER)");
+        database.execSQL("INSERT INTO " + AccountDb.TABLE_NAME
+                + " (email, secret, counter, type) VALUES ('johndoe@gmail.com', '" + SECRET
+                + "', 0, 0)");
+        database.close();
+        database = null;
+
+        // Existing accounts get the defaults of RFC 6238
+        accountDb = DependencyInjector.getAccountDb();
+        assertEquals(Algorithm.SHA1, accountDb.getAlgorithm("johndoe@gmail.com"));
+        assertEquals(AccountDb.DEFAULT_DIGITS, (int) accountDb.getDigits("johndoe@gmail.com"));
+        assertEquals(AccountDb.DEFAULT_PERIOD, (int) accountDb.getPeriod("johndoe@gmail.com"));
+    }
+
+    public void testConstruct_whenDatabaseWithReusedIds() {
+        deleteAccountDb();
+        SQLiteDatabase database =
+                DependencyInjector.getContext().openOrCreateDatabase(
+                        AccountDb.PATH, Context.MODE_PRIVATE, null);
+        database.execSQL("CREATE TABLE " + AccountDb.TABLE_NAME
+                + " (_id INTEGER PRIMARY KEY, email TEXT NOT NULL, secret TEXT NOT NULL,"
+                + " counter INTEGER DEFAULT 0, type INTEGER)");
+        database.execSQL("INSERT INTO " + AccountDb.TABLE_NAME
+                + " (_id, email, secret, counter, type) VALUES (5, 'johndoe@gmail.com', '"
+                + SECRET + "', 0, 0)");
+        database.close();
+        database = null;
+
+        // Existing accounts keep their ID
+        accountDb = DependencyInjector.getAccountDb();
+        assertEquals(5L, (long) accountDb.getId("johndoe@gmail.com"));
+        assertEquals(SECRET, accountDb.getSecret("johndoe@gmail.com"));
+
+        accountDb.delete("johndoe@gmail.com");
+        accountDb.update("new@example.com", SECRET, "new@example.com", OtpType.TOTP, null);
+        assertTrue(accountDb.getId("new@example.com") > 5);
+    }
+
+    public void testConstruct_versionsSchemaAndEnablesWriteAheadLogging() {
+        deleteAccountDb();
+        SQLiteDatabase database =
+                DependencyInjector.getContext().openOrCreateDatabase(
+                        AccountDb.PATH, Context.MODE_PRIVATE, null);
+        database.execSQL("CREATE TABLE " + AccountDb.TABLE_NAME + " (first INTEGER)");
+        // Databases created before the schema was versioned
+        assertEquals(0, database.getVersion());
+        database.close();
+        database = null;
+
+        accountDb = DependencyInjector.getAccountDb();
+        int version = accountDb.mDatabase.getVersion();
+        assertTrue(version > 0);
+        assertEquals("wal", DatabaseUtils.stringForQuery(
+                accountDb.mDatabase, "PRAGMA journal_mode", null).toLowerCase(Locale.US));
+
+        // Reopening keeps the migrated schema and its version
+        accountDb = new AccountDb(getContext());
+        DependencyInjector.setAccountDb(accountDb);
+        assertEquals(version, accountDb.mDatabase.getVersion());
+        MoreAsserts.assertContentsInAnyOrder(
+                AccountDb.listTableColumnNamesLowerCase(accountDb.mDatabase, AccountDb.TABLE_NAME),
+                "first", AccountDb.PROVIDER_COLUMN, AccountDb.COLOR_COLUMN, AccountDb.ORDER_COLUMN,
+                AccountDb.ALGORITHM_COLUMN, AccountDb.DIGITS_COLUMN, AccountDb.PERIOD_COLUMN);
     }
 
     private void deleteAccountDb() {
@@ -0,0 +1,124 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Unit tests for {@link AsyncAccountDb}.
+ */
+public class AsyncAccountDbTest extends TestCase {
+
+    /**
+     * Executor which runs its tasks only when {@link #runAll()} is called.
+     */
+    private static class QueueExecutor implements Executor {
+        private final Queue<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            mTasks.add(task);
+        }
+
+        int size() {
+            return mTasks.size();
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private QueueExecutor mBackgroundExecutor;
+    private QueueExecutor mCallbackExecutor;
+    private int mFactoryCalls;
+    private AsyncAccountDb mAsyncAccountDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBackgroundExecutor = new QueueExecutor();
+        mCallbackExecutor = new QueueExecutor();
+        mAsyncAccountDb = new AsyncAccountDb(() -> {
+            mFactoryCalls++;
+            return null;
+        }, mBackgroundExecutor, mCallbackExecutor);
+    }
+
+    public void testSubmitDeliversResultOnCallbackExecutor() {
+        List<String> results = new ArrayList<>();
+        mAsyncAccountDb.submit(accountDb -> "result", results::add);
+        // Nothing runs on the calling thread, not even opening the database
+        assertEquals(0, mFactoryCalls);
+        assertTrue(results.isEmpty());
+
+        mBackgroundExecutor.runAll();
+        assertEquals(1, mFactoryCalls);
+        assertTrue(results.isEmpty());
+
+        mCallbackExecutor.runAll();
+        assertEquals(1, results.size());
+        assertEquals("result", results.get(0));
+    }
+
+    public void testSubmitRunsOperationsInOrder() {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int index = i;
+            mAsyncAccountDb.execute(accountDb -> order.add(index));
+        }
+        mBackgroundExecutor.runAll();
+        assertEquals(5, order.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+        // No results are delivered for executed operations
+        assertEquals(0, mCallbackExecutor.size());
+    }
+
+    public void testSubmitDeliversException() {
+        List<Object> results = new ArrayList<>();
+        List<Exception> errors = new ArrayList<>();
+        Exception exception = new Exception("failed");
+        mAsyncAccountDb.submit(accountDb -> {
+            throw exception;
+        }, results::add, errors::add);
+        mBackgroundExecutor.runAll();
+        mCallbackExecutor.runAll();
+
+        assertTrue(results.isEmpty());
+        assertEquals(1, errors.size());
+        assertSame(exception, errors.get(0));
+    }
+
+    public void testSubmitWithoutErrorCallback() {
+        mAsyncAccountDb.submit(accountDb -> {
+            throw new Exception("failed");
+        }, result -> fail());
+        mBackgroundExecutor.runAll();
+        // The exception is only logged
+        assertEquals(0, mCallbackExecutor.size());
+    }
+
+    public void testAfterPendingOperations() {
+        List<String> events = new ArrayList<>();
+        mAsyncAccountDb.execute(accountDb -> events.add("write"));
+        mAsyncAccountDb.afterPendingOperations(() -> events.add("callback"));
+        assertTrue(events.isEmpty());
+
+        mBackgroundExecutor.runAll();
+        assertEquals(1, events.size());
+        assertEquals("write", events.get(0));
+
+        mCallbackExecutor.runAll();
+        assertEquals(2, events.size());
+        assertEquals("callback", events.get(1));
+    }
+}
@@ -21,7 +21,7 @@ import android.test.AndroidTestCase;
 import android.test.MoreAsserts;
 
 import com.wilco375.onetwoauthenticate.database.AccountDb;
-import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
 import com.wilco375.onetwoauthenticate.otp.OtpProvider;
 import com.wilco375.onetwoauthenticate.otp.totp.TotpClock;
 import com.wilco375.onetwoauthenticate.util.Utilities;
@@ -43,6 +43,12 @@ import static org.mockito.MockitoAnnotations.initMocks;
 public class OtpProviderTest extends AndroidTestCase {
     private static final String SECRET = "7777777777777777"; // 16 sevens
     private static final String SECRET2 = "2222222222222222"; // 16 twos
+    // Base32 encoded ASCII secrets of the SHA256 and SHA512 test vectors of RFC 6238
+    private static final String SECRET_SHA256 =
+            "GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQGEZA";
+    private static final String SECRET_SHA512 =
+            "GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ"
+                    + "GEZDGNBVGY3TQOJQGEZDGNA";
 
     private Collection<String> result = new ArrayList<>();
     private OtpProvider otpProvider;
@@ -108,6 +114,137 @@ public class OtpProviderTest extends AndroidTestCase {
         assertEquals("817746", otpProvider.getNextCode("amywinehouse@aol.com"));
     }
 
+    public void testGetNextCodeAfterSecretChanged() throws Exception {
+        addSomeRecords();
+        withTotpClockCurrentTimeSeconds(OtpProvider.DEFAULT_INTERVAL * 1234567890L);
+        assertEquals("817746", otpProvider.getNextCode("amywinehouse@aol.com"));
+
+        // The signer cached for the account must not outlive its secret
+        accountDb.update("amywinehouse@aol.com", SECRET, "amywinehouse@aol.com", OtpType.TOTP, null);
+        withTotpClockCurrentTimeSeconds(OtpProvider.DEFAULT_INTERVAL * 1);
+        assertEquals("683298", otpProvider.getNextCode("amywinehouse@aol.com"));
+    }
+
+    public void testComputeCodes() throws Exception {
+        addSomeRecords();
+        accountDb.update("amywinehouse@aol.com", SECRET2, "amywinehouse@aol.com", OtpType.TOTP, null,
+                null, 0xFF00FF00);
+        accountDb.reorder(
+                new String[]{"maryweiss@yahoo.com", "johndoe@gmail.com", "amywinehouse@aol.com"});
+
+        long time = OtpProvider.DEFAULT_INTERVAL * 1234567890L;
+        CodeBatch codes = otpProvider.computeCodes(time);
+        assertTrue(codes.isValidAt(time));
+        assertTrue(codes.isValidAt(time + OtpProvider.DEFAULT_INTERVAL - 1));
+        assertFalse(codes.isValidAt(time + OtpProvider.DEFAULT_INTERVAL));
+        assertFalse(codes.isValidAt(time - 1));
+        assertEquals(3, codes.size());
+
+        // HOTP codes are not computed, so the counter must not advance
+        assertEquals("maryweiss@yahoo.com", codes.getName(0));
+        assertEquals(OtpType.HOTP, codes.getType(0));
+        assertNull(codes.getCode(0));
+        assertEquals(0, (int) accountDb.getCounter("maryweiss@yahoo.com"));
+
+        assertEquals("johndoe@gmail.com", codes.getName(1));
+        assertEquals(OtpType.TOTP, codes.getType(1));
+        assertNull(codes.getColor(1));
+
+        assertEquals("amywinehouse@aol.com", codes.getName(2));
+        assertEquals("817746", codes.getCode(2));
+        assertEquals(0xFF00FF00, (int) codes.getColor(2));
+
+        // Same codes as the per-account API
+        withTotpClockCurrentTimeSeconds(time);
+        assertEquals(otpProvider.getNextCode("johndoe@gmail.com"), codes.getCode(1));
+    }
+
+    public void testComputeCodesWithDifferentPeriods() throws Exception {
+        addSomeRecords();
+        accountDb.update("amywinehouse@aol.com", SECRET2, "amywinehouse@aol.com", OtpType.TOTP,
+                null, null, null, AccountDb.Algorithm.SHA1, AccountDb.DEFAULT_DIGITS, 60);
+        accountDb.reorder(
+                new String[]{"johndoe@gmail.com", "amywinehouse@aol.com", "maryweiss@yahoo.com"});
+
+        // Second half of a 60 second time step, the codes expire with the 30 second one
+        long time = 60 * 1234567890L + 45;
+        CodeBatch codes = otpProvider.computeCodes(time);
+        assertEquals(OtpProvider.DEFAULT_INTERVAL, codes.getPeriod(0));
+        assertEquals(60, codes.getPeriod(1));
+        assertTrue(codes.isValidAt(60 * 1234567890L + 30));
+        assertFalse(codes.isValidAt(60 * 1234567890L + 29));
+        assertFalse(codes.isValidAt(60 * 1234567891L));
+
+        assertEquals(new PasscodeGenerator(AccountDb.getSigningOracle(SECRET2))
+                .generateResponseCode(1234567890L), codes.getCode(1));
+        withTotpClockCurrentTimeSeconds(time);
+        assertEquals(codes.getCode(0), otpProvider.getNextCode("johndoe@gmail.com"));
+        assertEquals(codes.getCode(1), otpProvider.getNextCode("amywinehouse@aol.com"));
+    }
+
+    public void testComputeCodesNoRecords() {
+        assertEquals(0, otpProvider.computeCodes(30).size());
+    }
+
+    public void testPrecomputeCodes() throws Exception {
+        addSomeRecords();
+        accountDb.reorder(
+                new String[]{"amywinehouse@aol.com", "johndoe@gmail.com", "maryweiss@yahoo.com"});
+        long time = OtpProvider.DEFAULT_INTERVAL * 1234567890L;
+        otpProvider.precomputeCodes(time);
+
+        CodeBatch codes = otpProvider.computeCodes(time);
+        assertSame(codes, otpProvider.computeCodes(time + OtpProvider.DEFAULT_INTERVAL - 1));
+        assertEquals("817746", codes.getCode(0));
+
+        // Precomputed codes are only used for the time step they were computed for
+        assertNotSame(codes, otpProvider.computeCodes(time + OtpProvider.DEFAULT_INTERVAL));
+    }
+
+    public void testPrecomputeCodesStaleAfterAccountChanged() throws Exception {
+        addSomeRecords();
+        otpProvider.precomputeCodes(30);
+        CodeBatch codes = otpProvider.computeCodes(30);
+
+        accountDb.delete("johndoe@gmail.com");
+        CodeBatch newCodes = otpProvider.computeCodes(30);
+        assertNotSame(codes, newCodes);
+        assertEquals(2, newCodes.size());
+    }
+
+    public void testGetNextCodeRfc6238() throws Exception {
+        accountDb.update("sha256", SECRET_SHA256, "sha256", OtpType.TOTP, null, null, null,
+                AccountDb.Algorithm.SHA256, 8, 30);
+        accountDb.update("sha512", SECRET_SHA512, "sha512", OtpType.TOTP, null, null, null,
+                AccountDb.Algorithm.SHA512, 8, 30);
+
+        withTotpClockCurrentTimeSeconds(59);
+        assertEquals("46119246", otpProvider.getNextCode("sha256"));
+        assertEquals("90693936", otpProvider.getNextCode("sha512"));
+        withTotpClockCurrentTimeSeconds(1234567890L);
+        assertEquals("91819424", otpProvider.getNextCode("sha256"));
+        assertEquals("93441116", otpProvider.getNextCode("sha512"));
+    }
+
+    public void testGetNextCodeAfterAlgorithmChanged() throws Exception {
+        accountDb.update("sha256", SECRET_SHA256, "sha256", OtpType.TOTP, null, null, null,
+                AccountDb.Algorithm.SHA256, 8, 30);
+        withTotpClockCurrentTimeSeconds(59);
+        assertEquals("46119246", otpProvider.getNextCode("sha256"));
+
+        // The signer cached for the account must not outlive its algorithm
+        accountDb.update("sha256", SECRET_SHA256, "sha256", OtpType.TOTP, null, null, null,
+                AccountDb.Algorithm.SHA1, 6, null);
+        assertEquals(new PasscodeGenerator(AccountDb.getSigningOracle(SECRET_SHA256))
+                .generateResponseCode(1), otpProvider.getNextCode("sha256"));
+    }
+
+    public void testGetTotpCounter() {
+        assertSame(otpProvider.getTotpCounter(), otpProvider.getTotpCounter(30));
+        assertSame(otpProvider.getTotpCounter(60), otpProvider.getTotpCounter(60));
+        assertEquals(60, otpProvider.getTotpCounter(60).getTimeStep());
+    }
+
     public void testGetNextCodeWithEmptyAccountName() throws Exception {
         accountDb.update("", SECRET, "", OtpType.HOTP, null);
         // HOTP, counter at 0, check getNextcode response.
@@ -0,0 +1,68 @@
+package com.wilco375.onetwoauthenticate.util;
+
+import android.util.Log;
+
+import com.wilco375.onetwoauthenticate.DeviceBenchmark;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+import static com.wilco375.onetwoauthenticate.util.EncryptedBackupTest.CHUNK_SIZE;
+import static com.wilco375.onetwoauthenticate.util.EncryptedBackupTest.PASSWORD;
+import static com.wilco375.onetwoauthenticate.util.EncryptedBackupTest.decrypt;
+import static com.wilco375.onetwoauthenticate.util.EncryptedBackupTest.encrypt;
+import static com.wilco375.onetwoauthenticate.util.EncryptedBackupTest.randomBytes;
+
+/**
+ * Timings of {@link EncryptedBackup} on a device. These only log and are not part of the default
+ * test run, see {@link DeviceBenchmark}.
+ */
+@DeviceBenchmark
+public class EncryptedBackupBenchmark extends TestCase {
+    private static final String LOG_TAG = "EncryptedBackupBenchmark";
+
+    /**
+     * Logs the time taken to derive a key with various numbers of iterations.
+     */
+    public void testKeyDerivation() throws Exception {
+        byte[] password = PASSWORD.getBytes("UTF-8");
+        byte[] salt = randomBytes(16);
+        // Warm up
+        EncryptedBackup.pbkdf2(password, salt, 10000);
+
+        for (int iterations : new int[]{10000, EncryptedBackup.DEFAULT_ITERATIONS,
+                3 * EncryptedBackup.DEFAULT_ITERATIONS}) {
+            long start = System.nanoTime();
+            EncryptedBackup.pbkdf2(password, salt, iterations);
+            long nanos = System.nanoTime() - start;
+            Log.i(LOG_TAG, iterations + " PBKDF2 iterations: " + (nanos / 1000000) + " ms");
+        }
+    }
+
+    /**
+     * Encrypts and decrypts 16 MB with various chunk sizes and logs the throughput.
+     */
+    public void testThroughput() throws Exception {
+        int megabytes = 16;
+        byte[] plaintext = randomBytes(megabytes * 1024 * 1024);
+        // Warm up
+        decrypt(encrypt(Arrays.copyOf(plaintext, 1024 * 1024), PASSWORD, CHUNK_SIZE), PASSWORD);
+
+        for (int chunkSize : new int[]{4 * 1024, EncryptedBackup.DEFAULT_CHUNK_SIZE, 1024 * 1024}) {
+            long start = System.nanoTime();
+            byte[] backup = encrypt(plaintext, PASSWORD, chunkSize);
+            long encryptNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            byte[] decrypted = decrypt(backup, PASSWORD);
+            long decryptNanos = System.nanoTime() - start;
+            assertEquals(plaintext.length, decrypted.length);
+
+            Log.i(LOG_TAG, (chunkSize / 1024) + " KiB chunks: encrypt "
+                    + String.format("%.1f", megabytes * 1e9 / encryptNanos) + " MB/s, decrypt "
+                    + String.format("%.1f", megabytes * 1e9 / decryptNanos) + " MB/s, overhead "
+                    + (backup.length - plaintext.length) + " bytes");
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.wilco375.onetwoauthenticate.util;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link EncryptedBackup}.
+ */
+public class EncryptedBackupTest extends TestCase {
+    static final String PASSWORD = "CorrectKey";
+    private static final int ITERATIONS = 10;
+    static final int CHUNK_SIZE = 100;
+
+    static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    static byte[] encrypt(byte[] plaintext, String password, int chunkSize)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream encrypting = EncryptedBackup.encrypt(out, password, ITERATIONS, chunkSize);
+        // Write in parts of varying lengths
+        Random random = new Random(0);
+        for (int offset = 0; offset < plaintext.length; ) {
+            int length = Math.min(random.nextInt(3 * chunkSize), plaintext.length - offset);
+            encrypting.write(plaintext, offset, length);
+            offset += length;
+        }
+        encrypting.close();
+        return out.toByteArray();
+    }
+
+    static byte[] decrypt(byte[] backup, String password) throws IOException {
+        try (InputStream in = EncryptedBackup.decrypt(new ByteArrayInputStream(backup), password)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[77];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void assertDecryptFails(byte[] backup) {
+        try {
+            decrypt(backup, PASSWORD);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testPbkdf2() throws Exception {
+        // Test vectors of PBKDF2-HMAC-SHA256 from RFC 7914 and the draft of RFC 6070 for SHA-256
+        assertEquals("120fb6cffcf8b32c43e7225256c4f837a86548c92ccc35480805987cb70be17b",
+                HexEncoding.encode(EncryptedBackup.pbkdf2(
+                        "password".getBytes("UTF-8"), "salt".getBytes("UTF-8"), 1)));
+        assertEquals("ae4d0c95af6b46d32d0adff928f06dd02a303f8ef3c251dfd6e2d85a95474c43",
+                HexEncoding.encode(EncryptedBackup.pbkdf2(
+                        "password".getBytes("UTF-8"), "salt".getBytes("UTF-8"), 2)));
+        assertEquals("c5e478d59288c841aa530db6845c4c8d962893a001ce4e11a4963873aa98134a",
+                HexEncoding.encode(EncryptedBackup.pbkdf2(
+                        "password".getBytes("UTF-8"), "salt".getBytes("UTF-8"), 4096)));
+    }
+
+    public void testEncryptAndDecrypt() throws Exception {
+        for (int length : new int[]{0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1,
+                3 * CHUNK_SIZE, 10 * CHUNK_SIZE + 7}) {
+            byte[] plaintext = randomBytes(length);
+            byte[] backup = encrypt(plaintext, PASSWORD, CHUNK_SIZE);
+            assertTrue("Length " + length, Arrays.equals(plaintext, decrypt(backup, PASSWORD)));
+        }
+    }
+
+    public void testEncryptTwiceDiffers() throws Exception {
+        byte[] plaintext = randomBytes(CHUNK_SIZE);
+        assertFalse(Arrays.equals(encrypt(plaintext, PASSWORD, CHUNK_SIZE),
+                encrypt(plaintext, PASSWORD, CHUNK_SIZE)));
+    }
+
+    public void testDecryptWithWrongPassword() throws Exception {
+        byte[] backup = encrypt(randomBytes(CHUNK_SIZE), PASSWORD, CHUNK_SIZE);
+        try {
+            decrypt(backup, "WrongKey");
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testDecryptModifiedBackup() throws Exception {
+        byte[] backup = encrypt(randomBytes(3 * CHUNK_SIZE + 10), PASSWORD, CHUNK_SIZE);
+        int chunk = CHUNK_SIZE + 16;
+        int headerLength = backup.length - 3 * chunk - (10 + 16);
+
+        // Any modified byte
+        for (int i = 0; i < backup.length; i++) {
+            byte[] modified = backup.clone();
+            modified[i] ^= 1;
+            assertDecryptFails(modified);
+        }
+        // Truncated in a chunk, at the end of a full chunk, or with the last chunk missing
+        assertDecryptFails(Arrays.copyOf(backup, backup.length - 1));
+        assertDecryptFails(Arrays.copyOf(backup, headerLength + 2 * chunk));
+        assertDecryptFails(Arrays.copyOf(backup, headerLength + 3 * chunk));
+        // Extended
+        assertDecryptFails(Arrays.copyOf(backup, backup.length + 1));
+        // Chunks swapped
+        byte[] swapped = backup.clone();
+        System.arraycopy(backup, headerLength, swapped, headerLength + chunk, chunk);
+        System.arraycopy(backup, headerLength + chunk, swapped, headerLength, chunk);
+        assertDecryptFails(swapped);
+    }
+
+    public void testDecryptInvalidHeader() throws Exception {
+        assertDecryptFails(new byte[0]);
+        assertDecryptFails("[{\"email\":\"a\"}]".getBytes("UTF-8"));
+        byte[] backup = encrypt(randomBytes(10), PASSWORD, CHUNK_SIZE);
+        // Unsupported version
+        backup[EncryptedBackup.MAGIC.length] = 2;
+        assertDecryptFails(backup);
+    }
+
+    public void testEncryptionUtilitiesDecryptsBothFormats() throws Exception {
+        String plaintext = "Hello world!";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream encrypting = EncryptionUtilities.encrypt(out, PASSWORD)) {
+            encrypting.write(plaintext.getBytes("UTF-8"));
+        }
+        @SuppressWarnings("deprecation")
+        byte[] legacy = EncryptionUtilities.encrypt(plaintext, PASSWORD);
+
+        for (byte[] backup : new byte[][]{out.toByteArray(), legacy}) {
+            InputStream in = EncryptionUtilities.decrypt(new ByteArrayInputStream(backup), PASSWORD);
+            byte[] decrypted = new byte[plaintext.length() + 1];
+            int length = 0;
+            int count;
+            while ((count = in.read(decrypted, length, decrypted.length - length)) > 0) {
+                length += count;
+            }
+            assertEquals(plaintext, new String(decrypted, 0, length, "UTF-8"));
+        }
+    }
+}
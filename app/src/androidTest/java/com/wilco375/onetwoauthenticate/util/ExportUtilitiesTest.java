@@ -0,0 +1,109 @@
+package com.wilco375.onetwoauthenticate.util;
+
+import com.wilco375.onetwoauthenticate.database.Account;
+import com.wilco375.onetwoauthenticate.database.AccountDb;
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ExportUtilities}.
+ */
+public class ExportUtilitiesTest extends TestCase {
+    private static final String SECRET = "7777777777777777"; // 16 sevens
+    private static final String SECRET2 = "2222222222222222"; // 16 twos
+    private static final String KEY = "CorrectKey";
+
+    /**
+     * Export written by older versions, which built it with {@code JSONArray}.
+     */
+    private static final String OLD_EXPORT = "[{\"email\":\"johndoe@gmail.com\","
+            + "\"secret\":\"7777777777777777\",\"counter\":0,\"type\":\"TOTP\",\"color\":-16711936,"
+            + "\"algorithm\":\"SHA256\",\"digits\":8,\"period\":60},"
+            + "{\"email\":\"maryweiss@yahoo.com\",\"secret\":\"2222222222222222\",\"counter\":3,"
+            + "\"type\":\"HOTP\"}]";
+
+    private static final List<Account> ACCOUNTS = Arrays.asList(
+            new Account("johndoe@gmail.com", SECRET, OtpType.TOTP, 0, 0xFF00FF00,
+                    Algorithm.SHA256, 8, 60),
+            new Account("maryweiss@yahoo.com", SECRET2, OtpType.HOTP, 3, null,
+                    Algorithm.SHA1, AccountDb.DEFAULT_DIGITS, AccountDb.DEFAULT_PERIOD),
+            new Account("\u00e9\u00e8 \"quoted\"", SECRET, OtpType.TOTP, 0, null,
+                    Algorithm.SHA512, 6, 30));
+
+    private static byte[] write(List<Account> accounts, String password) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExportUtilities.writeAccounts(accounts, out, password);
+        return out.toByteArray();
+    }
+
+    private static List<Account> read(byte[] export, String password) throws IOException {
+        return ExportUtilities.readAccounts(new ByteArrayInputStream(export), password);
+    }
+
+    private static void assertAccountsEqual(List<Account> expected, List<Account> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Account e = expected.get(i);
+            Account a = actual.get(i);
+            assertEquals(e.getName(), a.getName());
+            assertEquals(e.getSecret(), a.getSecret());
+            assertEquals(e.getType(), a.getType());
+            assertEquals(e.getCounter(), a.getCounter());
+            assertEquals(e.getAlgorithm(), a.getAlgorithm());
+            assertEquals(e.getDigits(), a.getDigits());
+            assertEquals(e.getPeriod(), a.getPeriod());
+            // Colors are not imported
+            assertNull(a.getColor());
+        }
+    }
+
+    public void testWriteAndRead() throws Exception {
+        assertAccountsEqual(ACCOUNTS, read(write(ACCOUNTS, ""), ""));
+    }
+
+    public void testWriteAndReadEncrypted() throws Exception {
+        byte[] export = write(ACCOUNTS, KEY);
+        assertFalse(new String(export, "UTF-8").contains(SECRET));
+        assertAccountsEqual(ACCOUNTS, read(export, KEY));
+    }
+
+    public void testWriteAndReadNoAccounts() throws Exception {
+        assertEquals("[]", new String(write(new ArrayList<Account>(), ""), "UTF-8"));
+        assertTrue(read(write(new ArrayList<Account>(), KEY), KEY).isEmpty());
+    }
+
+    public void testReadOldExport() throws Exception {
+        assertAccountsEqual(ACCOUNTS.subList(0, 2), read(OLD_EXPORT.getBytes("UTF-8"), ""));
+        assertAccountsEqual(ACCOUNTS.subList(0, 2),
+                read(EncryptionUtilities.encrypt(OLD_EXPORT, KEY), KEY));
+    }
+
+    public void testReadWithWrongPassword() throws Exception {
+        try {
+            read(write(ACCOUNTS, KEY), "WrongKey");
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testReadInvalidExport() throws Exception {
+        for (String export : new String[]{"", "{}", "[{\"email\":\"a\"}]",
+                "[{\"email\":\"a\",\"secret\":\"b\",\"counter\":0,\"type\":\"XOTP\"}]",
+                "[{\"email\":\"a\",\"secret\":\"b\",\"counter\":\"c\",\"type\":\"TOTP\"}]"}) {
+            try {
+                read(export.getBytes("UTF-8"), "");
+                fail(export);
+            } catch (IOException expected) {
+            }
+        }
+    }
+}
@@ -17,6 +17,8 @@
 
 package com.wilco375.onetwoauthenticate.util;
 
+import android.content.Context;
+import android.graphics.Bitmap;
 import android.os.Build;
 import android.test.AndroidTestCase;
 
@@ -24,7 +26,9 @@ import com.wilco375.onetwoauthenticate.util.FileUtilities;
 import com.wilco375.onetwoauthenticate.util.Utilities;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Collections;
 
 /**
  * Unit tests for {@link Utilities}.
@@ -36,4 +40,93 @@ public class FileUtilitiesTest extends AndroidTestCase {
     public void testMD5() {
         assertEquals("0fd3dbec9730101bff92acc820befc34", FileUtilities.getMD5("Test string"));
     }
+
+    public void testSaveIconByAccountId() {
+        long accountId = Long.MAX_VALUE;
+        try {
+            assertNull(FileUtilities.getIcon(getContext(), accountId,
+                    FileUtilities.IconVariant.LIST));
+
+            FileUtilities.saveIcon(getContext(), accountId, FileUtilities.IconVariant.LIST,
+                    Bitmap.createBitmap(70, 35, Bitmap.Config.ARGB_8888));
+            FileUtilities.saveIcon(getContext(), accountId, FileUtilities.IconVariant.SHORTCUT,
+                    Bitmap.createBitmap(FileUtilities.SHORTCUT_ICON_SIZE,
+                            FileUtilities.SHORTCUT_ICON_SIZE, Bitmap.Config.ARGB_8888));
+            // Variants are read at the size they were stored at
+            Bitmap icon = FileUtilities.getIcon(getContext(), accountId,
+                    FileUtilities.IconVariant.LIST);
+            assertEquals(70, icon.getWidth());
+            assertEquals(35, icon.getHeight());
+            icon = FileUtilities.getIcon(getContext(), accountId,
+                    FileUtilities.IconVariant.SHORTCUT);
+            assertEquals(FileUtilities.SHORTCUT_ICON_SIZE, icon.getWidth());
+            // Stored icons are not mistaken for icons of earlier versions
+            assertFalse(FileUtilities.hasLegacyBitmaps(getContext()));
+        } finally {
+            FileUtilities.deleteIconsExcept(getContext(), Collections.<Long>emptySet());
+        }
+        assertNull(FileUtilities.getIcon(getContext(), accountId,
+                FileUtilities.IconVariant.LIST));
+        assertNull(FileUtilities.getIcon(getContext(), accountId,
+                FileUtilities.IconVariant.SHORTCUT));
+    }
+
+    public void testDeleteIconsExcept() {
+        long removedAccountId = 1;
+        long accountId = 2;
+        try {
+            Bitmap icon = Bitmap.createBitmap(70, 70, Bitmap.Config.ARGB_8888);
+            for (FileUtilities.IconVariant variant : FileUtilities.IconVariant.values()) {
+                FileUtilities.saveIcon(getContext(), removedAccountId, variant, icon);
+                FileUtilities.saveIcon(getContext(), accountId, variant, icon);
+            }
+
+            FileUtilities.deleteIconsExcept(getContext(), Collections.singleton(accountId));
+            for (FileUtilities.IconVariant variant : FileUtilities.IconVariant.values()) {
+                assertNull(FileUtilities.getIcon(getContext(), removedAccountId, variant));
+                assertNotNull(FileUtilities.getIcon(getContext(), accountId, variant));
+            }
+        } finally {
+            FileUtilities.deleteIconsExcept(getContext(), Collections.<Long>emptySet());
+        }
+    }
+
+    public void testScaleToFit() {
+        Bitmap bitmap = Bitmap.createBitmap(200, 100, Bitmap.Config.ARGB_8888);
+        Bitmap scaled = FileUtilities.scaleToFit(bitmap, 70);
+        assertEquals(70, scaled.getWidth());
+        assertEquals(35, scaled.getHeight());
+        // Bitmaps that already fit are not scaled up
+        assertSame(bitmap, FileUtilities.scaleToFit(bitmap, 400));
+    }
+
+    public void testGetLegacyBitmapScaledWhileDecoding() throws IOException {
+        String name = "icon-test@example.com";
+        File file = new File(getContext().getDir("icons", Context.MODE_PRIVATE),
+                FileUtilities.getMD5(name) + ".png");
+        try {
+            assertNull(FileUtilities.getLegacyBitmap(getContext(), name, 70));
+
+            // Earlier versions stored the icon as picked, under the MD5 of the name
+            try (FileOutputStream stream = new FileOutputStream(file)) {
+                Bitmap.createBitmap(200, 100, Bitmap.Config.ARGB_8888)
+                        .compress(Bitmap.CompressFormat.PNG, 80, stream);
+            }
+            assertTrue(FileUtilities.hasLegacyBitmaps(getContext()));
+            Bitmap icon = FileUtilities.getLegacyBitmap(getContext(), name, 70);
+            assertEquals(70, icon.getWidth());
+            assertEquals(35, icon.getHeight());
+
+            // Icons that already fit are not scaled up
+            icon = FileUtilities.getLegacyBitmap(getContext(), name, 400);
+            assertEquals(200, icon.getWidth());
+            assertEquals(100, icon.getHeight());
+
+            FileUtilities.deleteLegacyBitmaps(getContext());
+            assertFalse(file.exists());
+            assertFalse(FileUtilities.hasLegacyBitmaps(getContext()));
+        } finally {
+            file.delete();
+        }
+    }
 }
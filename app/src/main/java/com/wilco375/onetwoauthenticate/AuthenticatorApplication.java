@@ -19,6 +19,7 @@ package com.wilco375.onetwoauthenticate;
 
 import android.app.Application;
 import android.os.Build;
+import android.os.StrictMode;
 import android.system.ErrnoException;
 
 import com.wilco375.onetwoauthenticate.testability.DependencyInjector;
@@ -54,6 +55,16 @@ public class AuthenticatorApplication extends Application {
             e.printStackTrace();
         }
 
+        if (BuildConfig.DEBUG) {
+            // Database I/O runs in the background, see AsyncAccountDb. Log any disk access that is
+            // still done on the main thread.
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .build());
+        }
+
         // During test runs the injector may have been configured already. Thus we take care to avoid
         // overwriting any existing configuration here.
         DependencyInjector.configureForProductionIfNotConfigured(getApplicationContext());
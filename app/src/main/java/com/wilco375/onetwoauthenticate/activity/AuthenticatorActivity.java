@@ -50,6 +50,12 @@ import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AlertDialog;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SimpleItemAnimator;
+import android.support.v7.widget.helper.ItemTouchHelper;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
@@ -58,14 +64,13 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
-import android.view.View.OnClickListener;
 import android.view.ViewGroup;
 import android.widget.AdapterView.AdapterContextMenuInfo;
-import android.widget.ArrayAdapter;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import com.andrognito.flashbar.Flashbar;
@@ -74,34 +79,44 @@ import com.pes.androidmaterialcolorpickerdialog.ColorPicker;
 import com.wilco375.onetwoauthenticate.BuildConfig;
 import com.wilco375.onetwoauthenticate.R;
 import com.wilco375.onetwoauthenticate.Snackbar;
+import com.wilco375.onetwoauthenticate.database.Account;
 import com.wilco375.onetwoauthenticate.database.AccountDb;
-import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
+import com.wilco375.onetwoauthenticate.database.AsyncAccountDb;
 import com.wilco375.onetwoauthenticate.licensing.License;
+import com.wilco375.onetwoauthenticate.otp.CodeBatch;
 import com.wilco375.onetwoauthenticate.otp.OtpSource;
 import com.wilco375.onetwoauthenticate.otp.OtpSourceException;
-import com.wilco375.onetwoauthenticate.otp.totp.TotpClock;
+import com.wilco375.onetwoauthenticate.otp.totp.Clock;
 import com.wilco375.onetwoauthenticate.otp.totp.TotpCountdownTask;
 import com.wilco375.onetwoauthenticate.otp.totp.TotpCounter;
 import com.wilco375.onetwoauthenticate.testability.DependencyInjector;
 import com.wilco375.onetwoauthenticate.testability.TestableActivity;
-import com.wilco375.onetwoauthenticate.util.EncryptionUtilities;
+import com.wilco375.onetwoauthenticate.util.ExportUtilities;
 import com.wilco375.onetwoauthenticate.util.FileUtilities;
+import com.wilco375.onetwoauthenticate.util.IconCache;
 import com.wilco375.onetwoauthenticate.util.Utilities;
+import com.wilco375.onetwoauthenticate.view.AccountListView;
 import com.wilco375.onetwoauthenticate.view.CountdownIndicator;
-import com.yydcdut.sdlv.SlideAndDragListView;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.wilco375.onetwoauthenticate.view.CountdownPhaseSource;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The main activity that displays usernames and codes
@@ -120,9 +135,10 @@ public class AuthenticatorActivity extends TestableActivity {
     private static final long VIBRATE_DURATION = 200L;
 
     /**
-     * Frequency (milliseconds) with which TOTP countdown indicators are updated.
+     * Amount of time (milliseconds) before the TOTP codes refresh at which the next codes are
+     * computed in the background.
      */
-    private static final long TOTP_COUNTDOWN_REFRESH_PERIOD = 100;
+    private static final long TOTP_LOOK_AHEAD_PERIOD = 3000;
 
     /**
      * Minimum amount of time (milliseconds) that has to elapse from the moment a HOTP code is
@@ -137,6 +153,11 @@ public class AuthenticatorActivity extends TestableActivity {
      */
     private static final long HOTP_DISPLAY_TIMEOUT = 2 * 60 * 1000;
 
+    /**
+     * Interval (milliseconds) at which the import progress dialog is updated.
+     */
+    private static final long IMPORT_PROGRESS_INTERVAL = 100;
+
     // @VisibleForTesting
     static final int DIALOG_ID_UNINSTALL_OLD_APP = 12;
 
@@ -156,36 +177,128 @@ public class AuthenticatorActivity extends TestableActivity {
 
     private View mContentNoAccounts;
     private View mContentAccountsPresent;
-    private SlideAndDragListView mUserList;
+    private AccountListView mUserList;
     private PinListAdapter mUserAdapter;
+    private ItemTouchHelper mItemTouchHelper;
     private ArrayList<PinInfo> mUsers = new ArrayList<>();
+    private final Handler mHandler = new Handler();
     private View mCustomizeView;
 
     /**
-     * Counter used for generating TOTP verification codes.
+     * Counter used for generating TOTP verification codes with the default time step.
      */
     private TotpCounter mTotpCounter;
 
     /**
      * Clock used for generating TOTP verification codes.
      */
-    private TotpClock mTotpClock;
+    private Clock mTotpClock;
 
     /**
-     * Task that periodically notifies this activity about the amount of time remaining until
-     * the TOTP codes refresh. The task also notifies this activity when TOTP codes refresh.
+     * Task that notifies this activity when TOTP codes refresh.
      */
     private TotpCountdownTask mTotpCountdownTask;
 
     /**
-     * Phase of TOTP countdown indicators. The phase is in {@code [0, 1]} with {@code 1} meaning
-     * full time step remaining until the code refreshes, and {@code 0} meaning the code is refreshing
-     * right now.
+     * Animates the countdown indicators of the TOTP accounts in the list, while the countdown task
+     * runs.
+     */
+    private final CountdownPhaseSource mCountdownPhaseSource = new CountdownPhaseSource();
+
+    /**
+     * Executor on which the TOTP codes for the next time step are computed ahead of time.
+     */
+    private final ExecutorService mLookAheadExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Dialog showing the progress of an import or {@code null} if no import is in progress.
+     */
+    private AlertDialog mImportProgressDialog;
+
+    /**
+     * Whether a row of the user list is being dragged. The rows are not rebound meanwhile, since
+     * mUsers is reordered by the drag but the database is only written once the row is dropped.
+     */
+    private boolean mDragging;
+
+    /**
+     * Whether codes arrived while a row was being dragged, so the user list has to be refreshed
+     * once it's dropped, and whether that refresh has to recreate all rows.
+     */
+    private boolean mRefreshDeferred;
+    private boolean mDeferredRefreshRecreatesRows;
+
+    /**
+     * Account database and the source of the codes, both {@code null} until the database has been
+     * opened in the background.
      */
-    private double mTotpCountdownPhase;
     private AccountDb mAccountDb;
     private OtpSource mOtpProvider;
 
+    /**
+     * Whether {@link #onDestroy()} has been called. The database may be opened after that, in
+     * which case {@link #onAccountDbOpened} must not set up this activity anymore.
+     */
+    private boolean mDestroyed;
+
+    /**
+     * Runs the database I/O of this activity in the background.
+     */
+    private AsyncAccountDb mAsyncAccountDb;
+
+    /**
+     * Computes the codes of the listed accounts in the background, or {@code null} until the
+     * database has been opened.
+     */
+    private CodeWorker mCodeWorker;
+
+    /**
+     * Icons of the listed accounts, loaded in the background when their rows are bound.
+     */
+    private IconCache mIconCache;
+
+    /**
+     * Whether this activity is started, i.e. between {@link #onStart()} and {@link #onStop()}.
+     */
+    private boolean mStarted;
+
+    /**
+     * Intent to handle once the database has been opened or {@code null} if there is none.
+     */
+    private Intent mPendingIntent;
+
+    /**
+     * Patches the rows of the accounts that changed in the database, on the main thread.
+     */
+    private final AccountDb.AccountEventListener mAccountEventListener =
+            new AccountDb.AccountEventListener() {
+                @Override
+                public void onAccountInserted(String email) {
+                    runOnUiThread(() -> patchUserList(null, email));
+                }
+
+                @Override
+                public void onAccountUpdated(String oldEmail, String email) {
+                    // Icons are stored by account ID, so renamed accounts keep theirs
+                    runOnUiThread(() -> patchUserList(oldEmail, email));
+                }
+
+                @Override
+                public void onAccountDeleted(String email) {
+                    runOnUiThread(() -> patchUserList(email, null));
+                }
+
+                @Override
+                public void onAccountMoved(String email) {
+                    runOnUiThread(() -> patchUserList(email, email));
+                }
+
+                @Override
+                public void onAccountsReloaded() {
+                    runOnUiThread(() -> refreshUserList(true));
+                }
+            };
+
     /**
      * Key under which the {@link #mOldAppUninstallIntent} is stored in the instance state
      * {@link Bundle}.
@@ -229,6 +342,15 @@ public class AuthenticatorActivity extends TestableActivity {
     private static final String HOTP = "hotp"; // counter-based
     private static final String SECRET_PARAM = "secret";
     private static final String COUNTER_PARAM = "counter";
+    private static final String ALGORITHM_PARAM = "algorithm";
+    private static final String DIGITS_PARAM = "digits";
+    private static final String PERIOD_PARAM = "period";
+
+    /**
+     * Range of the number of digits of the codes accepted in URIs, as allowed by RFC 4226.
+     */
+    private static final int MIN_DIGITS = 6;
+    private static final int MAX_DIGITS = 8;
     // @VisibleForTesting
     public static final int CHECK_KEY_VALUE_ID = 0;
     // @VisibleForTesting
@@ -253,16 +375,13 @@ public class AuthenticatorActivity extends TestableActivity {
 
         new License().checkLicense(this);
 
-        mAccountDb = DependencyInjector.getAccountDb();
-        mOtpProvider = DependencyInjector.getOtpProvider();
+        mAsyncAccountDb = DependencyInjector.getAsyncAccountDb();
+        mIconCache = DependencyInjector.getIconCache();
 
         // Use a different (longer) title from the one that's declared in the manifest (and the one that
         // the Android launcher displays).
         setTitle(R.string.app_name);
 
-        mTotpCounter = mOtpProvider.getTotpCounter();
-        mTotpClock = mOtpProvider.getTotpClock();
-
         setContentView(R.layout.main);
 
         // restore state on screen rotation
@@ -289,44 +408,93 @@ public class AuthenticatorActivity extends TestableActivity {
         mContentNoAccounts.setVisibility((mUsers.size() > 0) ? View.GONE : View.VISIBLE);
         mContentAccountsPresent.setVisibility((mUsers.size() > 0) ? View.VISIBLE : View.GONE);
 
-        mUserAdapter = new PinListAdapter(this, R.layout.user_row, mUsers);
+        mUserAdapter = new PinListAdapter();
+        mUserAdapter.submit(mUsers);
 
         mUserList.setVisibility(View.GONE);
-        mUserList.setMenu(new com.yydcdut.sdlv.Menu(false, 0));
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        mUserList.setLayoutManager(layoutManager);
+        mUserList.addItemDecoration(
+                new DividerItemDecoration(this, layoutManager.getOrientation()));
+        // Rows are rebound in place rather than cross-faded, which would flash them every time step
+        ((SimpleItemAnimator) mUserList.getItemAnimator()).setSupportsChangeAnimations(false);
         mUserList.setAdapter(mUserAdapter);
-        mUserList.setDragOnLongPress(false);
-        mUserList.setOnDragDropListener(new SlideAndDragListView.OnDragDropListener() {
-            @Override
-            public void onDragViewStart(int beginPosition) {
-
-            }
+        mItemTouchHelper = new ItemTouchHelper(
+                new ItemTouchHelper.SimpleCallback(ItemTouchHelper.UP | ItemTouchHelper.DOWN, 0) {
+                    private int mBeginPosition = RecyclerView.NO_POSITION;
+
+                    @Override
+                    public boolean isLongPressDragEnabled() {
+                        // Long pressing a row opens its context menu, dragging starts from its icon
+                        return false;
+                    }
 
-            @Override
-            public void onDragDropViewMoved(int fromPosition, int toPosition) {
-                PinInfo pinInfo = mUsers.remove(fromPosition);
-                mUsers.add(toPosition, pinInfo);
-            }
+                    @Override
+                    public void onSelectedChanged(RecyclerView.ViewHolder viewHolder,
+                                                  int actionState) {
+                        super.onSelectedChanged(viewHolder, actionState);
+                        if (actionState == ItemTouchHelper.ACTION_STATE_DRAG) {
+                            mBeginPosition = viewHolder.getAdapterPosition();
+                            mDragging = true;
+                        }
+                    }
 
-            @Override
-            public void onDragViewDown(int finalPosition) {
-                String[] usernames = new String[mUsers.size()];
-                for (int i = 0; i < mUsers.size(); i++) {
-                    usernames[i] = mUsers.get(i).user;
-                }
-                // Save order to DB
-                mAccountDb.reorder(usernames);
+                    @Override
+                    public boolean onMove(RecyclerView recyclerView,
+                                          RecyclerView.ViewHolder viewHolder,
+                                          RecyclerView.ViewHolder target) {
+                        int fromPosition = viewHolder.getAdapterPosition();
+                        int toPosition = target.getAdapterPosition();
+                        if (fromPosition == RecyclerView.NO_POSITION
+                                || toPosition == RecyclerView.NO_POSITION) {
+                            return false;
+                        }
+                        PinInfo pinInfo = mUsers.remove(fromPosition);
+                        mUsers.add(toPosition, pinInfo);
+                        mUserAdapter.moveRow(fromPosition, toPosition);
+                        return true;
+                    }
 
-                updateShortcuts(AuthenticatorActivity.this);
-            }
-        });
+                    @Override
+                    public void onSwiped(RecyclerView.ViewHolder viewHolder, int direction) {
+                        // Swiping is disabled
+                    }
 
-        mUserList.setOnItemClickListener((unusedParent, row, unusedPosition, unusedId) -> {
-            TextView pinTextView = row.findViewById(R.id.pin_value);
-            String pin = pinTextView.getText().toString();
-            if (!pin.equals(getString(R.string.empty_pin))) {
-                copyPinToClipboard(pin);
-            }
-        });
+                    @Override
+                    public void clearView(RecyclerView recyclerView,
+                                          RecyclerView.ViewHolder viewHolder) {
+                        super.clearView(recyclerView, viewHolder);
+                        int finalPosition = viewHolder.getAdapterPosition();
+                        int beginPosition = mBeginPosition;
+                        mBeginPosition = RecyclerView.NO_POSITION;
+                        mDragging = false;
+                        // Catch up with the codes whose diff was dropped by the move
+                        mUserAdapter.submit(mUsers);
+                        if (finalPosition != RecyclerView.NO_POSITION
+                                && finalPosition != beginPosition) {
+                            // Save order to DB, which only writes the moved account
+                            String user = mUsers.get(finalPosition).user;
+                            mAsyncAccountDb.submit(accountDb -> accountDb.move(user, finalPosition),
+                                    moved -> {
+                                        if (!moved) {
+                                            // The list shows an order that wasn't saved
+                                            refreshUserList(true);
+                                        }
+                                    });
+
+                            updateShortcuts(AuthenticatorActivity.this);
+                        }
+                        if (mRefreshDeferred) {
+                            boolean recreateRows = mDeferredRefreshRecreatesRows;
+                            mRefreshDeferred = false;
+                            mDeferredRefreshRecreatesRows = false;
+                            // Once the move is written, so the codes are in the order displayed
+                            mAsyncAccountDb.afterPendingOperations(
+                                    () -> refreshUserList(recreateRows));
+                        }
+                    }
+                });
+        mItemTouchHelper.attachToRecyclerView(mUserList);
 
         FloatingActionMenu fam = findViewById(R.id.add_account_fab);
         if (!BuildConfig.PRO) {
@@ -375,8 +543,75 @@ public class AuthenticatorActivity extends TestableActivity {
             // This is the first time this Activity is starting (i.e., not restoring previous state which
             // was saved, for example, due to orientation change)
             DependencyInjector.getOptionalFeatures().onAuthenticatorActivityCreated(this);
-            handleIntent(getIntent());
+            mPendingIntent = getIntent();
+        }
+
+        // Open the database and load the accounts in the background. The accounts are listed once
+        // they are loaded.
+        mAsyncAccountDb.submit(accountDb -> {
+            accountDb.getAllAccounts();
+            return DependencyInjector.getOtpProvider();
+        }, this::onAccountDbOpened);
+    }
+
+    /**
+     * Called once the database has been opened and the accounts have been loaded.
+     *
+     * @param otpProvider source of the codes of the accounts.
+     */
+    private void onAccountDbOpened(OtpSource otpProvider) {
+        if (mDestroyed) {
+            // Adding the listener would leak this activity
+            return;
         }
+        // Already opened, so this doesn't block
+        mAccountDb = DependencyInjector.getAccountDb();
+        mAccountDb.addAccountEventListener(mAccountEventListener);
+        mOtpProvider = otpProvider;
+        mTotpCounter = otpProvider.getTotpCounter();
+        mTotpClock = otpProvider.getTotpClock();
+        mCodeWorker = new CodeWorker(otpProvider, mTotpClock,
+                DependencyInjector.getCodeExecutor(), this::runOnUiThread);
+        migrateLegacyIcons();
+
+        if (mStarted) {
+            updateCodesAndStartTotpCountdownTask();
+        }
+        handleIntent(mPendingIntent);
+        mPendingIntent = null;
+    }
+
+    /**
+     * Stores the icons that earlier versions saved by account name by account ID instead, in all
+     * variants, then lists them again. Runs on the executor on which icons are loaded and saved,
+     * so that it's done before the icons of the list are loaded.
+     */
+    private void migrateLegacyIcons() {
+        Context context = getApplicationContext();
+        AccountDb accountDb = mAccountDb;
+        int listIconSize = mIconCache.getSize();
+        DependencyInjector.getCodeExecutor().execute(() -> {
+            if (!FileUtilities.hasLegacyBitmaps(context)) {
+                return;
+            }
+            for (Account account : accountDb.getAllAccounts()) {
+                Long accountId = accountDb.getId(account.getName());
+                Bitmap icon = FileUtilities.getLegacyBitmap(context, account.getName(),
+                        listIconSize);
+                if (accountId != null && icon != null) {
+                    FileUtilities.saveIcon(context, accountId, FileUtilities.IconVariant.LIST,
+                            icon);
+                    FileUtilities.saveIcon(context, accountId, FileUtilities.IconVariant.SHORTCUT,
+                            createShortcutIcon(context, icon));
+                }
+            }
+            // Icons of accounts that no longer exist are dropped as well
+            FileUtilities.deleteLegacyBitmaps(context);
+            runOnUiThread(() -> {
+                mIconCache.invalidateAll();
+                mUserAdapter.onIconsChanged();
+            });
+        });
     }
 
     /**
@@ -420,14 +655,27 @@ public class AuthenticatorActivity extends TestableActivity {
     @Override
     protected void onNewIntent(Intent intent) {
         Log.i(getString(R.string.app_name), LOCAL_TAG + ": onNewIntent");
+        if (mOtpProvider == null) {
+            // Handled once the database has been opened
+            mPendingIntent = intent;
+            return;
+        }
         handleIntent(intent);
     }
 
     @Override
     protected void onStart() {
         super.onStart();
+        mStarted = true;
 
-        updateCodesAndStartTotpCountdownTask();
+        if (mOtpProvider != null) {
+            // List the accounts once the writes of other activities, like adding an account, are done
+            mAsyncAccountDb.afterPendingOperations(() -> {
+                if (mStarted) {
+                    updateCodesAndStartTotpCountdownTask();
+                }
+            });
+        }
     }
 
     @Override
@@ -438,40 +686,54 @@ public class AuthenticatorActivity extends TestableActivity {
 
     @Override
     protected void onStop() {
+        mStarted = false;
         stopTotpCountdownTask();
 
         super.onStop();
     }
 
+    @Override
+    protected void onDestroy() {
+        mDestroyed = true;
+        if (mAccountDb != null) {
+            mAccountDb.removeAccountEventListener(mAccountEventListener);
+        } else {
+            // onAccountDbOpened won't add the listener anymore, but remove it once the database is
+            // open all the same, rather than opening it on this thread
+            mAsyncAccountDb.execute(accountDb -> {
+                accountDb.removeAccountEventListener(mAccountEventListener);
+                return null;
+            });
+        }
+        mLookAheadExecutor.shutdownNow();
+        mHandler.removeCallbacksAndMessages(null);
+        dismissImportProgressDialog();
+
+        super.onDestroy();
+    }
+
     private void updateCodesAndStartTotpCountdownTask() {
         stopTotpCountdownTask();
 
-        mTotpCountdownTask =
-                new TotpCountdownTask(mTotpCounter, mTotpClock, TOTP_COUNTDOWN_REFRESH_PERIOD);
-        mTotpCountdownTask.setListener(new TotpCountdownTask.Listener() {
-            @Override
-            public void onTotpCountdown(long millisRemaining) {
-                if (isFinishing()) {
-                    // No need to reach to this even because the Activity is finishing anyway
-                    return;
-                }
-                setTotpCountdownPhaseFromTimeTillNextValue(millisRemaining);
-            }
-
-            @Override
-            public void onTotpCounterValueChanged() {
-                if (isFinishing()) {
-                    // No need to reach to this even because the Activity is finishing anyway
-                    return;
-                }
-                refreshVerificationCodes();
+        mTotpCountdownTask = new TotpCountdownTask(mTotpCounter, mTotpClock);
+        mTotpCountdownTask.setListener(() -> {
+            if (isFinishing()) {
+                // No need to reach to this even because the Activity is finishing anyway
+                return;
             }
+            refreshVerificationCodes();
         });
+        // Compute the next codes in the background, so that they only have to be swapped in when
+        // the counter changes its value.
+        mTotpCountdownTask.setLookAheadListener(TOTP_LOOK_AHEAD_PERIOD, mLookAheadExecutor,
+                nextValueStartTime -> mOtpProvider.precomputeCodes(nextValueStartTime));
 
         mTotpCountdownTask.startAndNotifyListener();
+        mCountdownPhaseSource.start(mOtpProvider);
     }
 
     private void stopTotpCountdownTask() {
+        mCountdownPhaseSource.stop();
         if (mTotpCountdownTask != null) {
             mTotpCountdownTask.stop();
             mTotpCountdownTask = null;
@@ -485,30 +747,26 @@ public class AuthenticatorActivity extends TestableActivity {
         refreshUserList(false);
     }
 
-    private void setTotpCountdownPhase(double phase) {
-        mTotpCountdownPhase = phase;
-        updateCountdownIndicators();
-    }
-
-    private void setTotpCountdownPhaseFromTimeTillNextValue(long millisRemaining) {
-        setTotpCountdownPhase(
-                ((double) millisRemaining) / Utilities.secondsToMillis(mTotpCounter.getTimeStep()));
-    }
-
     private void refreshVerificationCodes() {
+        // The countdown indicators follow the clock by themselves, see mCountdownPhaseSource
         refreshUserList();
-        setTotpCountdownPhase(1.0);
     }
 
-    private void updateCountdownIndicators() {
-        for (int i = 0, len = mUserList.getChildCount(); i < len; i++) {
-            View listEntry = mUserList.getChildAt(i);
-            CountdownIndicator indicator =
-                    listEntry.findViewById(R.id.countdown_icon);
-            if (indicator != null) {
-                indicator.setPhase(mTotpCountdownPhase);
+    /**
+     * Makes the countdown task monitor all time steps used by the accounts.
+     */
+    private void updateTotpCountdownCounters(CodeBatch codes) {
+        if (mTotpCountdownTask == null) {
+            return;
+        }
+        Set<TotpCounter> counters = new LinkedHashSet<>();
+        counters.add(mTotpCounter);
+        for (int i = 0; i < codes.size(); i++) {
+            if (codes.getType(i) == OtpType.TOTP) {
+                counters.add(mOtpProvider.getTotpCounter(codes.getPeriod(i)));
             }
         }
+        mTotpCountdownTask.setCounters(counters);
     }
 
     /**
@@ -518,36 +776,57 @@ public class AuthenticatorActivity extends TestableActivity {
      */
     // @VisibleForTesting
     public void refreshUserList(boolean isAccountModified) {
-        ArrayList<String> usernames = new ArrayList<>();
-        mAccountDb.getNames(usernames);
+        if (mCodeWorker == null) {
+            // The accounts are listed once the database has been opened
+            return;
+        }
+        // Compute the codes of all accounts in a single pass over the database, in the background
+        mCodeWorker.requestCodes(codes -> bindUserList(codes, isAccountModified));
+    }
+
+    /**
+     * Displays the codes computed by {@link #mCodeWorker}.
+     *
+     * @param isAccountModified if true, recreate all rows rather than only updating their codes
+     */
+    private void bindUserList(CodeBatch codes, boolean isAccountModified) {
+        if (mDragging) {
+            deferRefresh(isAccountModified);
+            return;
+        }
+        updateTotpCountdownCounters(codes);
 
-        int userCount = usernames.size();
+        int userCount = codes.size();
 
         if (userCount > 0) {
-            boolean newListRequired = isAccountModified || mUsers.size() != userCount;
+            boolean newListRequired = isAccountModified || !isListed(codes);
+            // Accounts that are still listed keep their IDs, so the list only animates the changes
+            Map<String, Long> ids = new HashMap<>();
             if (newListRequired) {
+                // Keep the rows, and thus the HOTP codes, of the accounts that are still listed
+                Map<String, PinInfo> listed = new HashMap<>();
+                for (PinInfo pinInfo : mUsers) {
+                    if (isAccountModified) {
+                        ids.put(pinInfo.user, pinInfo.id);
+                    } else {
+                        listed.put(pinInfo.user, pinInfo);
+                    }
+                }
                 mUsers.clear();
                 for (int i = 0; i < userCount; i++) {
-                    mUsers.add(null);
+                    mUsers.add(listed.get(codes.getName(i)));
                 }
             }
 
             for (int i = 0; i < userCount; ++i) {
-                String user = usernames.get(i);
-                try {
-                    computeAndDisplayPin(user, i, false);
-                } catch (OtpSourceException ignored) {
+                displayPin(codes, i);
+                Long id = ids.get(mUsers.get(i).user);
+                if (id != null) {
+                    mUsers.get(i).id = id;
                 }
             }
 
-            if (newListRequired) {
-                // Make the list display the data from the newly created array of accounts
-                // This forces the list to scroll to top.
-                mUserAdapter = new PinListAdapter(this, R.layout.user_row, mUsers);
-                mUserList.setAdapter(mUserAdapter);
-            }
-
-            mUserAdapter.notifyDataSetChanged();
+            mUserAdapter.submit(mUsers);
 
             if (mUserList.getVisibility() != View.VISIBLE) {
                 mUserList.setVisibility(View.VISIBLE);
@@ -555,6 +834,7 @@ public class AuthenticatorActivity extends TestableActivity {
             }
         } else {
             mUsers.clear(); // clear any existing user PIN state
+            mUserAdapter.submit(mUsers);
             mUserList.setVisibility(View.GONE);
         }
 
@@ -566,61 +846,163 @@ public class AuthenticatorActivity extends TestableActivity {
     }
 
     /**
-     * Computes the PIN and saves it in mUsers. This currently runs in the UI
-     * thread so it should not take more than a second or so. If necessary, we can
-     * move the computation to a background thread.
+     * Patches the row of a single account that was added, modified, removed or moved, keeping the
+     * other rows and the scroll position of the list. Falls back to {@link #refreshUserList(boolean)}
+     * when the list has to be shown or hidden, or no longer matches the accounts.
      *
-     * @param user        the user email to display with the PIN
-     * @param position    the index for the screen of this user and PIN
-     * @param computeHotp true if we should increment counter and display new hotp
+     * @param oldUser name of the account before the change or {@code null} if it was added.
+     * @param user    name of the account after the change or {@code null} if it was removed.
+     */
+    private void patchUserList(String oldUser, String user) {
+        if (mCodeWorker == null) {
+            // The accounts are listed once the database has been opened
+            return;
+        }
+        mCodeWorker.requestCodes(codes -> bindPatch(codes, oldUser, user));
+    }
+
+    /**
+     * Patches the row of an account with the codes computed by {@link #mCodeWorker}, see
+     * {@link #patchUserList(String, String)}.
      */
-    public void computeAndDisplayPin(String user, int position,
-                                     boolean computeHotp) throws OtpSourceException {
+    private void bindPatch(CodeBatch codes, String oldUser, String user) {
+        if (mDragging) {
+            // The patch may no longer apply once the row is dropped
+            deferRefresh(true);
+            return;
+        }
+        int position = (user != null) ? indexOfName(codes, user) : -1;
+        int oldPosition = (oldUser != null) ? indexOfUser(oldUser) : -1;
+        boolean patchable = !mUsers.isEmpty() && codes.size() > 0
+                && (oldUser == null || oldPosition >= 0) && (user == null || position >= 0)
+                && mUsers.size() - (oldUser != null ? 1 : 0) + (user != null ? 1 : 0)
+                == codes.size();
+        if (!patchable) {
+            refreshUserList(true);
+            return;
+        }
 
-        PinInfo currentPin;
-        if (mUsers.get(position) != null) {
-            currentPin = mUsers.get(position); // existing PinInfo, so we'll update it
-        } else {
-            currentPin = new PinInfo();
-            currentPin.pin = getString(R.string.empty_pin);
-            currentPin.hotpCodeGenerationAllowed = true;
-            Integer color = mAccountDb.getColor(user);
-            if (color == null)
-                currentPin.color = getResources().getColor(R.color.theme_color);
-            else
-                currentPin.color = color;
-
-            Bitmap bitmap = FileUtilities.getBitmap(getApplicationContext(), user);
-            if (bitmap != null) {
-                // Resize image
-                int size = Utilities.dpToPx(70);
-                currentPin.image = Bitmap.createScaledBitmap(bitmap, size, size, false);
-                bitmap.recycle();
+        PinInfo pinInfo = (oldUser != null) ? mUsers.remove(oldPosition) : null;
+        if (user != null) {
+            if (pinInfo == null || !user.equals(oldUser)) {
+                // Added or renamed
+                pinInfo = createPinInfo(user, codes.getColor(position));
+            } else {
+                Integer color = codes.getColor(position);
+                pinInfo.color = (color != null) ? color : getResources().getColor(R.color.theme_color);
             }
+            mUsers.add(position, pinInfo);
+            displayPin(codes, position);
         }
+        updateTotpCountdownCounters(codes);
+        mUserAdapter.submit(mUsers);
+    }
 
-        OtpType type = mAccountDb.getType(user);
-        currentPin.isHotp = (type == OtpType.HOTP);
+    /**
+     * Refreshes the user list once the row being dragged is dropped, rather than rebinding it now.
+     * Rebinding would list the accounts in the order of the database, which doesn't include the
+     * drag yet, and so move the dragged row away from mUsers and the rows of the adapter.
+     *
+     * @param isAccountModified if true, recreate all rows rather than only updating their codes
+     */
+    private void deferRefresh(boolean isAccountModified) {
+        mRefreshDeferred = true;
+        mDeferredRefreshRecreatesRows |= isAccountModified;
+    }
+
+    /**
+     * Checks whether mUsers lists exactly the accounts of a batch of codes, in the same order.
+     */
+    private boolean isListed(CodeBatch codes) {
+        if (mUsers.size() != codes.size()) {
+            return false;
+        }
+        for (int i = 0; i < codes.size(); i++) {
+            PinInfo pinInfo = mUsers.get(i);
+            if (pinInfo == null || !codes.getName(i).equals(pinInfo.user)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the position of an account in a batch of codes or {@code -1} if it's not in it.
+     */
+    private static int indexOfName(CodeBatch codes, String user) {
+        for (int i = 0; i < codes.size(); i++) {
+            if (user.equals(codes.getName(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the position of an account in mUsers or {@code -1} if it's not listed.
+     */
+    private int indexOfUser(String user) {
+        for (int i = 0; i < mUsers.size(); i++) {
+            if (user.equals(mUsers.get(i).user)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
+    /**
+     * Saves the account at the specified position of a batch of codes in mUsers. HOTP codes are
+     * left untouched because computing them advances the counter.
+     *
+     * @param codes    codes of all accounts
+     * @param position the index for the screen of this user and PIN
+     */
+    private void displayPin(CodeBatch codes, int position) {
+        String user = codes.getName(position);
+        PinInfo currentPin = mUsers.get(position);
+        if (currentPin == null) {
+            currentPin = createPinInfo(user, codes.getColor(position));
+        }
+
+        currentPin.isHotp = (codes.getType(position) == OtpType.HOTP);
         currentPin.user = user;
+        currentPin.period = codes.getPeriod(position);
 
-        if (!currentPin.isHotp || computeHotp) {
-            // Always safe to recompute, because this code path is only
-            // reached if the account is:
-            // - Time-based, in which case getNextCode() does not change state.
-            // - Counter-based (HOTP) and computeHotp is true.
-            currentPin.pin = mOtpProvider.getNextCode(user);
+        String code = codes.getCode(position);
+        if (!currentPin.isHotp && code != null) {
+            currentPin.pin = code;
             currentPin.hotpCodeGenerationAllowed = true;
         }
 
         mUsers.set(position, currentPin);
     }
 
+    /**
+     * Creates the {@link PinInfo} for a newly displayed account.
+     *
+     * @param user  the user email to display with the PIN
+     * @param color color of the account or {@code null} to use the default color
+     */
+    private PinInfo createPinInfo(String user, Integer color) {
+        PinInfo pinInfo = new PinInfo();
+        pinInfo.id = PinInfo.sNextId++;
+        pinInfo.pin = getString(R.string.empty_pin);
+        pinInfo.hotpCodeGenerationAllowed = true;
+        if (color == null)
+            pinInfo.color = getResources().getColor(R.color.theme_color);
+        else
+            pinInfo.color = color;
+        return pinInfo;
+    }
+
     /**
      * Parses a secret value from a URI. The format will be:
      * <p>
      * otpauth://totp/user@example.com?secret=FFF...
      * otpauth://hotp/user@example.com?secret=FFF...&counter=123
+     * <p>
+     * The optional {@code algorithm}, {@code digits} and {@code period} parameters of RFC 6238
+     * tokens are supported as well.
      *
      * @param uri               The URI containing the secret key
      * @param confirmBeforeSave a boolean to indicate if the user should be
@@ -635,6 +1017,9 @@ public class AuthenticatorActivity extends TestableActivity {
         final String secret;
         final OtpType type;
         final Integer counter;
+        final Algorithm algorithm;
+        final int digits;
+        final int period;
 
         if (!OTP_SCHEME.equals(scheme)) {
             Log.e(getString(R.string.app_name), LOCAL_TAG + ": Invalid or missing scheme in uri");
@@ -676,6 +1061,33 @@ public class AuthenticatorActivity extends TestableActivity {
             return;
         }
 
+        String algorithmParameter = uri.getQueryParameter(ALGORITHM_PARAM);
+        algorithm = (algorithmParameter != null)
+                ? Algorithm.fromName(algorithmParameter) : Algorithm.SHA1;
+        if (algorithm == null) {
+            Log.e(getString(R.string.app_name), LOCAL_TAG + ": Invalid algorithm in uri");
+            createDialog(Utilities.INVALID_QR_CODE);
+            return;
+        }
+
+        try {
+            String digitsParameter = uri.getQueryParameter(DIGITS_PARAM);
+            digits = (digitsParameter != null)
+                    ? Integer.parseInt(digitsParameter) : AccountDb.DEFAULT_DIGITS;
+            String periodParameter = uri.getQueryParameter(PERIOD_PARAM);
+            period = (periodParameter != null)
+                    ? Integer.parseInt(periodParameter) : AccountDb.DEFAULT_PERIOD;
+        } catch (NumberFormatException e) {
+            Log.e(getString(R.string.app_name), LOCAL_TAG + ": Invalid digits or period in uri");
+            createDialog(Utilities.INVALID_QR_CODE);
+            return;
+        }
+        if (digits < MIN_DIGITS || digits > MAX_DIGITS || period <= 0) {
+            Log.e(getString(R.string.app_name), LOCAL_TAG + ": Invalid digits or period in uri");
+            createDialog(Utilities.INVALID_QR_CODE);
+            return;
+        }
+
         secret = uri.getQueryParameter(SECRET_PARAM);
 
         if (secret == null || secret.length() == 0) {
@@ -685,23 +1097,30 @@ public class AuthenticatorActivity extends TestableActivity {
             return;
         }
 
-        if (AccountDb.getSigningOracle(secret) == null) {
+        if (AccountDb.getSigningOracle(secret, algorithm) == null) {
             Log.e(getString(R.string.app_name), LOCAL_TAG + ": Invalid secret key");
             createDialog(Utilities.INVALID_SECRET_IN_QR_CODE);
             return;
         }
 
-        if (secret.equals(mAccountDb.getSecret(user)) &&
-                counter == mAccountDb.getCounter(user) &&
-                type == mAccountDb.getType(user)) {
+        Account account = mAccountDb.getAccount(user);
+        if (account != null &&
+                secret.equals(account.getSecret()) &&
+                counter == account.getCounter() &&
+                type == account.getType() &&
+                algorithm == account.getAlgorithm() &&
+                digits == account.getDigits() &&
+                period == account.getPeriod()) {
             return;  // nothing to update.
         }
 
         if (confirmBeforeSave) {
-            mSaveKeyDialogParams = new SaveKeyDialogParams(user, secret, type, counter);
+            mSaveKeyDialogParams = new SaveKeyDialogParams(
+                    user, secret, type, counter, algorithm, digits, period);
             createDialog(DIALOG_ID_SAVE_KEY);
         } else {
-            saveSecretAndRefreshUserList(user, secret, null, type, counter);
+            saveSecretAndRefreshUserList(user, secret, null, type, counter, algorithm, digits,
+                    period, true);
         }
     }
 
@@ -718,7 +1137,8 @@ public class AuthenticatorActivity extends TestableActivity {
     }
 
     /**
-     * Saves the secret key to local storage on the phone and updates the displayed account list.
+     * Saves the secret key to local storage on the phone. The displayed account list is patched
+     * once the account is saved, see {@link #mAccountEventListener}.
      *
      * @param user         the user email address. When editing, the new user email.
      * @param secret       the secret key
@@ -728,9 +1148,29 @@ public class AuthenticatorActivity extends TestableActivity {
      */
     private void saveSecretAndRefreshUserList(String user, String secret,
                                               String originalUser, OtpType type, Integer counter, boolean showNotification) {
-        if (saveSecret(this, user, secret, originalUser, type, counter, showNotification)) {
-            refreshUserList(true);
-        }
+        saveSecretAndRefreshUserList(user, secret, originalUser, type, counter, null, null, null,
+                showNotification);
+    }
+
+    /**
+     * Saves the secret key to local storage on the phone. The displayed account list is patched
+     * once the account is saved, see {@link #mAccountEventListener}.
+     *
+     * @param user         the user email address. When editing, the new user email.
+     * @param secret       the secret key
+     * @param originalUser If editing, the original user email, otherwise null.
+     * @param type         hotp vs totp
+     * @param counter      only important for the hotp type
+     * @param algorithm    hash function of the HMAC or {@code null} to keep the current one
+     * @param digits       number of digits of the codes or {@code null} to keep the current one
+     * @param period       time step (seconds) or {@code null} to keep the current one
+     */
+    private void saveSecretAndRefreshUserList(String user, String secret,
+                                              String originalUser, OtpType type, Integer counter,
+                                              Algorithm algorithm, Integer digits, Integer period,
+                                              boolean showNotification) {
+        saveSecret(this, user, secret, originalUser, type, counter, algorithm, digits, period,
+                showNotification);
     }
 
     private void saveSecretAndRefreshUserList(String user, String secret,
@@ -750,12 +1190,35 @@ public class AuthenticatorActivity extends TestableActivity {
      */
     static boolean saveSecret(Activity context, String user, String secret,
                               String originalUser, OtpType type, Integer counter, boolean showNotification) {
-        if (originalUser == null) {  // new user account
-            originalUser = user;
-        }
+        return saveSecret(context, user, secret, originalUser, type, counter, null, null, null,
+                showNotification);
+    }
+
+    /**
+     * Saves the secret key to local storage on the phone.
+     *
+     * @param user         the user email address. When editing, the new user email.
+     * @param secret       the secret key
+     * @param originalUser If editing, the original user email, otherwise null.
+     * @param type         hotp vs totp
+     * @param counter      only important for the hotp type
+     * @param algorithm    hash function of the HMAC or {@code null} to keep the current one
+     * @param digits       number of digits of the codes or {@code null} to keep the current one
+     * @param period       time step (seconds) or {@code null} to keep the current one
+     * @return {@code true} if the secret was saved, {@code false} otherwise.
+     */
+    static boolean saveSecret(Activity context, String user, String secret,
+                              String originalUser, OtpType type, Integer counter,
+                              Algorithm algorithm, Integer digits, Integer period,
+                              boolean showNotification) {
+        String oldUser = (originalUser != null) ? originalUser : user;  // new user account
         if (secret != null) {
-            AccountDb accountDb = DependencyInjector.getAccountDb();
-            accountDb.update(user, secret, originalUser, type, counter);
+            // Saved in the background, displayed lists are updated by the account events
+            DependencyInjector.getAsyncAccountDb().execute(accountDb -> {
+                accountDb.update(user, secret, oldUser, type, counter, null, null, algorithm,
+                        digits, period);
+                return null;
+            });
             DependencyInjector.getOptionalFeatures().onAuthenticatorActivityAccountSaved(context, user);
 
             if (showNotification) {
@@ -786,38 +1249,24 @@ public class AuthenticatorActivity extends TestableActivity {
     private static void updateShortcuts(Context context) {
         if (Build.VERSION.SDK_INT < 25 || !BuildConfig.PRO) return;
 
-        new Thread(() -> {
-            AccountDb accountDb = DependencyInjector.getAccountDb();
+        // Runs after the write that changed the accounts
+        DependencyInjector.getAsyncAccountDb().execute(accountDb -> {
             List<String> names = new ArrayList<>();
             accountDb.getNames(names);
 
             ShortcutManager sm = (ShortcutManager) context.getSystemService(Context.SHORTCUT_SERVICE);
-            if (sm == null) return;
+            if (sm == null) return null;
 
             int maxShortcuts = sm.getMaxShortcutCountPerActivity();
             ArrayList<ShortcutInfo> shortcuts = new ArrayList<>();
             for (int i = 0; i < names.size() && i < maxShortcuts; i++) {
                 String name = names.get(i);
                 Icon icon;
-                Bitmap foreground = FileUtilities.getBitmap(context, name);
-                if (foreground != null) {
-                    Drawable background = ContextCompat.getDrawable(context, R.drawable.ic_shortcut_bg);
-                    Bitmap bitmapIcon = Bitmap.createBitmap(48, 48, Bitmap.Config.ARGB_8888);
-                    Canvas canvas = new Canvas(bitmapIcon);
-
-                    // Draw background
-                    background.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
-                    background.draw(canvas);
-
-                    // Draw foreground
-                    Paint paint = new Paint();
-                    paint.setAntiAlias(true);
-                    canvas.drawBitmap(foreground,
-                            new Rect(0, 0, foreground.getWidth(), foreground.getHeight()),
-                            new Rect(12, 12, 36, 36),
-                            paint
-                    );
-
+                // Stored at the size of shortcut icons when the icon was saved
+                Long accountId = accountDb.getId(name);
+                Bitmap bitmapIcon = (accountId != null) ? FileUtilities.getIcon(context,
+                        accountId, FileUtilities.IconVariant.SHORTCUT) : null;
+                if (bitmapIcon != null) {
                     icon = Icon.createWithBitmap(bitmapIcon);
                 } else {
                     icon = Icon.createWithResource(context, R.drawable.ic_shortcut_key);
@@ -836,21 +1285,61 @@ public class AuthenticatorActivity extends TestableActivity {
                 );
             }
             sm.setDynamicShortcuts(shortcuts);
-        }).start();
+            return null;
+        });
     }
 
     /**
-     * Converts user list ordinal id to user email
+     * Draws the icon of the app shortcut of an account: the icon of the account on the background
+     * of shortcut icons.
+     *
+     * @return a bitmap of {@link FileUtilities#SHORTCUT_ICON_SIZE} pixels square.
      */
-    private String idToEmail(long id) {
-        return mUsers.get((int) id).user;
+    private static Bitmap createShortcutIcon(Context context, Bitmap foreground) {
+        int size = FileUtilities.SHORTCUT_ICON_SIZE;
+        Drawable background = ContextCompat.getDrawable(context, R.drawable.ic_shortcut_bg);
+        Bitmap bitmapIcon = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmapIcon);
+
+        // Draw background
+        background.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+        background.draw(canvas);
+
+        // Draw foreground in the middle half
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setFilterBitmap(true);
+        canvas.drawBitmap(foreground,
+                new Rect(0, 0, foreground.getWidth(), foreground.getHeight()),
+                new Rect(size / 4, size / 4, size * 3 / 4, size * 3 / 4),
+                paint
+        );
+        return bitmapIcon;
+    }
+
+    /**
+     * Gets the listed account with the specified stable ID of the user list.
+     *
+     * @return the account or {@code null} if it's no longer listed.
+     */
+    private PinInfo findPinInfo(long id) {
+        for (PinInfo pinInfo : mUsers) {
+            if (pinInfo.id == id) {
+                return pinInfo;
+            }
+        }
+        return null;
     }
 
     @Override
     public void onCreateContextMenu(ContextMenu menu, View v, ContextMenuInfo menuInfo) {
         super.onCreateContextMenu(menu, v, menuInfo);
         AdapterContextMenuInfo info = (AdapterContextMenuInfo) menuInfo;
-        String user = idToEmail(info.id);
+        PinInfo pinInfo = findPinInfo(info.id);
+        if (pinInfo == null) {
+            return;
+        }
+        String user = pinInfo.user;
         OtpType type = mAccountDb.getType(user);
         menu.setHeaderTitle(user);
         menu.add(0, COPY_TO_CLIPBOARD_ID, 0, R.string.copy_to_clipboard);
@@ -875,11 +1364,16 @@ public class AuthenticatorActivity extends TestableActivity {
     @Override
     public boolean onContextItemSelected(MenuItem item) {
         AdapterContextMenuInfo info = (AdapterContextMenuInfo) item.getMenuInfo();
+        PinInfo selected = findPinInfo(info.id);
+        if (selected == null) {
+            // Removed while the menu was shown
+            return true;
+        }
         Intent intent;
-        final String user = idToEmail(info.id); // final so listener can see value
+        final String user = selected.user; // final so listener can see value
         switch (item.getItemId()) {
             case COPY_TO_CLIPBOARD_ID:
-                copyPinToClipboard(mUsers.get((int) info.id).pin);
+                copyPinToClipboard(selected.pin);
                 return true;
             case CHECK_KEY_VALUE_ID:
                 intent = new Intent(Intent.ACTION_VIEW);
@@ -908,7 +1402,12 @@ public class AuthenticatorActivity extends TestableActivity {
                 customizeColor.setBackgroundColor(color);
 
                 ImageView customizeIcon = mCustomizeView.findViewById(R.id.customize_icon);
-                Bitmap icon = FileUtilities.getBitmap(getApplicationContext(), user);
+                Long accountId = mAccountDb.getId(user);
+                // Usually cached, since the row of the account is displayed
+                Bitmap cachedIcon = (accountId != null) ? mIconCache.get(accountId) : null;
+                Bitmap icon = (cachedIcon != null || accountId == null) ? cachedIcon
+                        : FileUtilities.getIcon(getApplicationContext(), accountId,
+                        FileUtilities.IconVariant.LIST);
                 customizeIcon.setOnClickListener(view -> {
                     Intent i = new Intent()
                             .setType("image/*")
@@ -939,12 +1438,16 @@ public class AuthenticatorActivity extends TestableActivity {
                             if (colorBackground instanceof ColorDrawable) {
                                 int newColor = ((ColorDrawable) colorBackground).getColor();
                                 if (newColor != color) {
-                                    mAccountDb.update(user,
-                                            mAccountDb.getSecret(user), user,
-                                            mAccountDb.getType(user),
-                                            mAccountDb.getCounter(user),
-                                            null,
-                                            newColor);
+                                    Account account = mAccountDb.getAccount(user);
+                                    mAsyncAccountDb.execute(accountDb -> {
+                                        accountDb.update(user,
+                                                account.getSecret(), user,
+                                                account.getType(),
+                                                account.getCounter(),
+                                                null,
+                                                newColor);
+                                        return null;
+                                    });
                                     pinInfoToUpdate.color = newColor;
                                 }
                             }
@@ -953,13 +1456,18 @@ public class AuthenticatorActivity extends TestableActivity {
                             Drawable iconDrawable = customizeIcon.getDrawable();
                             if (iconDrawable instanceof BitmapDrawable) {
                                 Bitmap newIcon = ((BitmapDrawable) iconDrawable).getBitmap();
-                                if (newIcon != icon && newIcon != null) {
-                                    FileUtilities.saveBitmap(getApplicationContext(), user, newIcon);
-                                    pinInfoToUpdate.image = newIcon;
+                                if (newIcon != icon && newIcon != null && accountId != null) {
+                                    Context context = getApplicationContext();
+                                    mIconCache.save(accountId, newIcon,
+                                            createShortcutIcon(context, newIcon), mHandler::post,
+                                            () -> {
+                                                mUserAdapter.onIconChanged(accountId);
+                                                updateShortcuts(context);
+                                            });
                                 }
                             }
 
-                            mUserAdapter.notifyDataSetChanged();
+                            mUserAdapter.submit(mUsers);
                         })
                         .setNegativeButton(R.string.cancel, null)
                         .show();
@@ -983,10 +1491,11 @@ public class AuthenticatorActivity extends TestableActivity {
                         .setTitle(getString(R.string.remove_account_dialog_title, user))
                         .setIcon(R.drawable.ic_dialog_alert)
                         .setPositiveButton(R.string.remove_account_dialog_button_remove,
-                                (dialog, whichButton) -> {
-                                    mAccountDb.delete(user);
-                                    refreshUserList(true);
-                                }
+                                (dialog, whichButton) -> mAsyncAccountDb.execute(accountDb -> {
+                                    // Its icon is removed along, see IconCache
+                                    accountDb.delete(user);
+                                    return null;
+                                })
                         )
                         .setNegativeButton(R.string.cancel, null)
                         .show();
@@ -1004,9 +1513,10 @@ public class AuthenticatorActivity extends TestableActivity {
                 if (mAccountDb.nameExists(newName)) {
                     Snackbar.show(context, Snackbar.Type.ERROR, R.string.error_exists);
                 } else {
+                    Account account = mAccountDb.getAccount(user);
                     saveSecretAndRefreshUserList(newName,
-                            mAccountDb.getSecret(user), user, mAccountDb.getType(user),
-                            mAccountDb.getCounter(user));
+                            account.getSecret(), user, account.getType(),
+                            account.getCounter());
                 }
             }
         };
@@ -1141,48 +1651,77 @@ public class AuthenticatorActivity extends TestableActivity {
     }
 
     /**
-     * Import a specific file.
+     * Import a specific file. The file is read and its entries are saved in a single transaction in
+     * the background, while a dialog shows the progress. The account list is refreshed
+     * once all entries are saved.
      * @param file file to import
      * @param password password to decrypt the file with, or empty string if it is not encrypted
      */
     private void importEntriesFile(File file, String password) {
-        try (FileInputStream is = new FileInputStream(file)) {
-            int size = (int) file.length();
-            byte bytes[] = new byte[size];
-            byte buffer[] = new byte[size];
-            int read = is.read(bytes, 0, size);
-            if (read < size) {
-                int remain = size - read;
-                while (remain > 0) {
-                    read = is.read(buffer, 0, remain);
-                    System.arraycopy(buffer, 0, bytes, size - remain, read);
-                    remain -= read;
+        View view = getLayoutInflater().inflate(R.layout.import_progress, null);
+        ProgressBar progressBar = view.findViewById(R.id.import_progress_bar);
+        AlertDialog progressDialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.import_progress)
+                .setView(view)
+                .setCancelable(false)
+                .show();
+        mImportProgressDialog = progressDialog;
+
+        // The progress is reported while the database is locked, so it's only recorded there and
+        // shown from the UI thread
+        AtomicInteger saved = new AtomicInteger();
+        AtomicInteger total = new AtomicInteger();
+        progressBar.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mImportProgressDialog != progressDialog) {
+                    return;
                 }
+                progressBar.setMax(total.get());
+                progressBar.setProgress(saved.get());
+                progressBar.postDelayed(this, IMPORT_PROGRESS_INTERVAL);
             }
+        });
 
-            String jsonString = EncryptionUtilities.decrypt(bytes, password);
-            JSONArray json = new JSONArray(jsonString);
-
-            for (int i = 0; i < json.length(); i++) {
-                JSONObject item = json.getJSONObject(i);
-
-                saveSecretAndRefreshUserList(
-                        item.getString("email"),
-                        item.getString("secret"),
-                        item.getString("email"),
-                        OtpType.valueOf(item.getString("type")),
-                        item.getInt("counter"),
-                        false
-                );
-            }
+        mAsyncAccountDb.submit(accountDb -> {
+            List<Account> accounts =
+                    ExportUtilities.readAccounts(new FileInputStream(file), password);
+            total.set(accounts.size());
+            accountDb.bulkUpsert(accounts, (done, count) -> saved.set(done));
+            return null;
+        }, unused -> onImportDone(progressDialog, true), e -> onImportDone(progressDialog, false));
+    }
 
+    /**
+     * Called when an import is done.
+     *
+     * @param progressDialog dialog showing the progress of the import
+     * @param success        whether all entries were imported, otherwise none were
+     */
+    private void onImportDone(AlertDialog progressDialog, boolean success) {
+        if (mImportProgressDialog != progressDialog) {
+            // The activity was destroyed, the next one lists the imported accounts
+            return;
+        }
+        dismissImportProgressDialog();
+        if (success) {
+            // The list is rebuilt by mAccountEventListener
             Snackbar.show(this, Snackbar.Type.SUCCESS, R.string.import_success);
-        } catch (IOException | JSONException e) {
-            Log.e(LOCAL_TAG, "Failed to import entries", e);
+        } else {
             Snackbar.show(this, Snackbar.Type.ERROR, R.string.import_failed);
         }
     }
 
+    /**
+     * Dismisses the import progress dialog. Does nothing if no import is in progress.
+     */
+    private void dismissImportProgressDialog() {
+        if (mImportProgressDialog != null) {
+            mImportProgressDialog.dismiss();
+            mImportProgressDialog = null;
+        }
+    }
+
     /**
      * Export all the entries. Shows a dialog with the option to enter a password.
      * Will encrypt the export if a password is entered or otherwise store it as plain JSON text.
@@ -1203,34 +1742,17 @@ public class AuthenticatorActivity extends TestableActivity {
 
         builder.setView(layout);
         builder.setPositiveButton(android.R.string.ok, (dialogInterface, i) -> {
-            List<String> usernames = new ArrayList<>();
-            mAccountDb.getNames(usernames);
-            try {
-                JSONArray json = new JSONArray();
-                for (String username : usernames) {
-                    JSONObject jsonObject = new JSONObject();
-                    jsonObject.put("email", username);
-                    jsonObject.put("secret", mAccountDb.getSecret(username));
-                    jsonObject.put("counter", mAccountDb.getCounter(username));
-                    jsonObject.put("type", mAccountDb.getType(username).toString());
-                    jsonObject.put("color", mAccountDb.getColor(username));
-                    json.put(jsonObject);
-                }
-                String jsonString = json.toString();
-
-                String password = passwordEditText.getText().toString();
-                File directory = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
-                String extension = password.equals("") ? ".json" : ".json.aes";
-                File file = new File(directory, "1-2-authenticate-export-" + System.currentTimeMillis() + extension);
-                OutputStream os = new FileOutputStream(file);
-                os.write(EncryptionUtilities.encrypt(jsonString, password));
-                os.close();
-
-                Snackbar.show(this, Snackbar.Type.SUCCESS,
-                        String.format(getString(R.string.exported_to), file.toString()), 5000);
-            } catch (JSONException | IOException e) {
-                e.printStackTrace();
-            }
+            String password = passwordEditText.getText().toString();
+            File directory = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
+            String extension = password.equals("") ? ".json" : ".json.aes";
+            File file = new File(directory, "1-2-authenticate-export-" + System.currentTimeMillis() + extension);
+            mAsyncAccountDb.submit(accountDb -> {
+                // The accounts are streamed from the in-memory snapshot, without a copy
+                ExportUtilities.writeAccounts(accountDb.getAllAccounts(),
+                        new FileOutputStream(file), password);
+                return null;
+            }, unused -> Snackbar.show(this, Snackbar.Type.SUCCESS,
+                    String.format(getString(R.string.exported_to), file.toString()), 5000));
         });
         builder.setNegativeButton(android.R.string.cancel, null);
         builder.show();
@@ -1358,7 +1880,11 @@ public class AuthenticatorActivity extends TestableActivity {
                                         saveKeyDialogParams.secret,
                                         null,
                                         saveKeyDialogParams.type,
-                                        saveKeyDialogParams.counter))
+                                        saveKeyDialogParams.counter,
+                                        saveKeyDialogParams.algorithm,
+                                        saveKeyDialogParams.digits,
+                                        saveKeyDialogParams.period,
+                                        true))
                         .setNegativeButton(R.string.cancel, null)
                         .create();
                 dialog.setOnDismissListener(dialog12 -> {
@@ -1431,11 +1957,18 @@ public class AuthenticatorActivity extends TestableActivity {
      * @author adhintz@google.com (Drew Hintz)
      */
     private static class PinInfo {
+        /**
+         * Next stable ID of the user list. Static so that rows retained across configuration
+         * changes never share an ID with new ones.
+         */
+        private static long sNextId;
+
+        private long id; // stable ID of the row in the user list
         private String pin; // calculated OTP, or a placeholder if not calculated
         private String user;
         private boolean isHotp = false; // used to see if button needs to be displayed
-        private Bitmap image;
         private int color;
+        private int period; // time step (seconds), only important for TOTP
 
         /**
          * HOTP only: Whether code generation is allowed for this account.
@@ -1443,6 +1976,48 @@ public class AuthenticatorActivity extends TestableActivity {
         private boolean hotpCodeGenerationAllowed;
     }
 
+    /**
+     * Immutable copy of a {@link PinInfo} bound to a row of the user list, so that the list can be
+     * diffed off the UI thread while the {@link PinInfo}s keep changing.
+     */
+    private static final class PinRow {
+        private final long id;
+        private final String pin;
+        private final String user;
+        private final boolean isHotp;
+        private final int color;
+        private final int period;
+        private final boolean hotpCodeGenerationAllowed;
+
+        private PinRow(PinInfo pinInfo) {
+            id = pinInfo.id;
+            pin = pinInfo.pin;
+            user = pinInfo.user;
+            isHotp = pinInfo.isHotp;
+            color = pinInfo.color;
+            period = pinInfo.period;
+            hotpCodeGenerationAllowed = pinInfo.hotpCodeGenerationAllowed;
+        }
+
+        /**
+         * Checks whether this row displays the same as another row, ignoring the PIN.
+         */
+        private boolean hasSameContentsExceptPin(PinRow other) {
+            return user.equals(other.user)
+                    && isHotp == other.isHotp
+                    && color == other.color
+                    && period == other.period
+                    && hotpCodeGenerationAllowed == other.hotpCodeGenerationAllowed;
+        }
+
+        /**
+         * Checks whether this row displays the same as another row.
+         */
+        private boolean hasSameContents(PinRow other) {
+            return hasSameContentsExceptPin(other) && pin.equals(other.pin);
+        }
+    }
+
 
     /**
      * Scale to use for the text displaying the PIN numbers.
@@ -1454,161 +2029,352 @@ public class AuthenticatorActivity extends TestableActivity {
     private static final float PIN_TEXT_SCALEX_UNDERSCORE = 0.87f;
 
     /**
-     * Listener for the Button that generates the next OTP value.
-     *
-     * @author adhintz@google.com (Drew Hintz)
+     * Payload of a row of the user list of which only the PIN changed.
+     */
+    private static final Object PAYLOAD_PIN = new Object();
+
+    /**
+     * Payload of a row of the user list of which the icon has been loaded or changed.
+     */
+    private static final Object PAYLOAD_ICON = new Object();
+
+    /**
+     * Generates the next OTP value of an HOTP account, when its button is clicked.
+     */
+    private void generateNextOtp(PinInfo account) {
+        // Temporarily disable code generation for this account
+        account.hotpCodeGenerationAllowed = false;
+        mUserAdapter.submit(mUsers);
+
+        // Computing the code advances the counter in the database
+        String user = account.user;
+        mAsyncAccountDb.submit(accountDb -> mOtpProvider.getNextCode(user),
+                pin -> displayNextOtp(account, pin),
+                e -> {
+                    account.hotpCodeGenerationAllowed = true;
+                    mUserAdapter.submit(mUsers);
+                    if (e instanceof OtpSourceException) {
+                        DependencyInjector.getOptionalFeatures()
+                                .onAuthenticatorActivityGetNextOtpFailed(
+                                        AuthenticatorActivity.this, user,
+                                        (OtpSourceException) e);
+                    }
+                });
+    }
+
+    /**
+     * Displays the code computed for an HOTP account by {@link #generateNextOtp(PinInfo)}.
      */
-    private class NextOtpButtonListener implements OnClickListener {
-        private final Handler mHandler = new Handler();
-        private final PinInfo mAccount;
+    private void displayNextOtp(PinInfo account, String pin) {
+        account.pin = pin;
+        mUserAdapter.submit(mUsers);
+        // The delayed operation below will be invoked once code generation is yet again allowed for
+        // this account. The delay is in wall clock time (monotonically increasing) and is thus not
+        // susceptible to system time jumps.
+        mHandler.postDelayed(
+                () -> {
+                    account.hotpCodeGenerationAllowed = true;
+                    mUserAdapter.submit(mUsers);
+                },
+                HOTP_MIN_TIME_INTERVAL_BETWEEN_CODES);
+        // The delayed operation below will hide this OTP to prevent the user from seeing this OTP
+        // long after it's been generated (and thus hopefully used).
+        mHandler.postDelayed(
+                () -> {
+                    if (!pin.equals(account.pin)) {
+                        return;
+                    }
+                    account.pin = getString(R.string.empty_pin);
+                    mUserAdapter.submit(mUsers);
+                },
+                HOTP_DISPLAY_TIMEOUT);
+    }
+
+    /**
+     * Holds the views of a row of the user list.
+     */
+    private class PinViewHolder extends RecyclerView.ViewHolder {
+        private final ImageView mIconView;
+        private final TextView mPinView;
+        private final TextView mUserView;
+        private final ImageButton mButtonView;
+        private final CountdownIndicator mCountdownIndicator;
+
+        @SuppressLint("ClickableViewAccessibility")
+        private PinViewHolder(View row) {
+            super(row);
+            mIconView = row.findViewById(R.id.icon);
+            mPinView = row.findViewById(R.id.pin_value);
+            mUserView = row.findViewById(R.id.current_user);
+            mButtonView = row.findViewById(R.id.next_otp);
+            mCountdownIndicator = row.findViewById(R.id.countdown_icon);
+            mCountdownIndicator.setPhaseSource(mCountdownPhaseSource);
+
+            row.setOnClickListener(view -> {
+                String pin = mPinView.getText().toString();
+                if (!pin.equals(getString(R.string.empty_pin))) {
+                    copyPinToClipboard(pin);
+                }
+            });
+            // Opens the context menu, see AccountListView
+            row.setLongClickable(true);
 
-        private NextOtpButtonListener(PinInfo account) {
-            mAccount = account;
+            View.OnTouchListener dragOnTouch = (v, event) -> {
+                if (event.getAction() == MotionEvent.ACTION_DOWN) {
+                    mItemTouchHelper.startDrag(this);
+                    return true;
+                }
+                return false;
+            };
+            mCountdownIndicator.setOnTouchListener(dragOnTouch);
+            mIconView.setOnTouchListener(dragOnTouch);
+
+            mButtonView.setOnClickListener(view -> {
+                if (getAdapterPosition() == RecyclerView.NO_POSITION) {
+                    return;
+                }
+                // The row is still displayed for a moment after its account was removed or
+                // renamed, until the diff of the list is dispatched
+                PinInfo account = findPinInfo(getItemId());
+                if (account != null) {
+                    generateNextOtp(account);
+                }
+            });
         }
 
-        @Override
-        public void onClick(View v) {
-            int position = findAccountPositionInList();
-            if (position == -1) {
-                throw new RuntimeException("Account not in list: " + mAccount);
-            }
+        /**
+         * Displays the user and OTP of a row. For HOTP, displays the button for generating the
+         * next OTP value; for TOTP, displays the countdown indicator.
+         */
+        private void bind(PinRow row) {
+            bindIcon(row);
+
+            if (row.isHotp) {
+                mButtonView.setVisibility(View.VISIBLE);
+                mButtonView.setEnabled(row.hotpCodeGenerationAllowed);
+                if (mButtonView.isEnabled()) {
+                    mButtonView.setColorFilter(row.color);
+                } else {
+                    mButtonView.clearColorFilter();
+                }
+                ((ViewGroup) itemView).setDescendantFocusability(
+                        ViewGroup.FOCUS_BLOCK_DESCENDANTS); // makes long press work
 
-            try {
-                computeAndDisplayPin(mAccount.user, position, true);
-            } catch (OtpSourceException e) {
-                DependencyInjector.getOptionalFeatures().onAuthenticatorActivityGetNextOtpFailed(
-                        AuthenticatorActivity.this, mAccount.user, e);
-                return;
+                mCountdownIndicator.setVisibility(View.GONE);
+                mCountdownIndicator.setPeriod(0);
+            } else { // TOTP, so no button needed
+                mButtonView.setVisibility(View.GONE);
+
+                mCountdownIndicator.setVisibility(View.VISIBLE);
+                mCountdownIndicator.setPeriod(row.period);
+                mCountdownIndicator.setColor(row.color);
             }
 
-            final String pin = mAccount.pin;
-
-            // Temporarily disable code generation for this account
-            mAccount.hotpCodeGenerationAllowed = false;
-            mUserAdapter.notifyDataSetChanged();
-            // The delayed operation below will be invoked once code generation is yet again allowed for
-            // this account. The delay is in wall clock time (monotonically increasing) and is thus not
-            // susceptible to system time jumps.
-            mHandler.postDelayed(
-                    () -> {
-                        mAccount.hotpCodeGenerationAllowed = true;
-                        mUserAdapter.notifyDataSetChanged();
-                    },
-                    HOTP_MIN_TIME_INTERVAL_BETWEEN_CODES);
-            // The delayed operation below will hide this OTP to prevent the user from seeing this OTP
-            // long after it's been generated (and thus hopefully used).
-            mHandler.postDelayed(
-                    () -> {
-                        if (!pin.equals(mAccount.pin)) {
-                            return;
-                        }
-                        mAccount.pin = getString(R.string.empty_pin);
-                        mUserAdapter.notifyDataSetChanged();
-                    },
-                    HOTP_DISPLAY_TIMEOUT);
+            bindPin(row);
+            mUserView.setText(row.user);
+            mUserView.setTextColor(row.color);
+        }
+
+        /**
+         * Displays the icon of a row if it's cached. Otherwise, displays an empty placeholder of
+         * the same size and loads the icon, unless the account is known to have no icon.
+         */
+        private void bindIcon(PinRow row) {
+            Long accountId = mAccountDb.getId(row.user);
+            Bitmap icon = (accountId != null) ? mIconCache.get(accountId) : null;
+            if (icon != null) {
+                mIconView.setImageBitmap(icon);
+                mIconView.setVisibility(View.VISIBLE);
+            } else if (accountId == null || mIconCache.isMissing(accountId)) {
+                mIconView.setImageDrawable(null);
+                mIconView.setVisibility(View.GONE);
+            } else {
+                mIconView.setImageDrawable(null);
+                mIconView.setVisibility(View.VISIBLE);
+                mUserAdapter.loadIcon(accountId);
+            }
         }
 
         /**
-         * Gets the position in the account list of the account this listener is associated with.
-         *
-         * @return {@code 0}-based position or {@code -1} if the account is not in the list.
+         * Displays only the OTP of a row, for rows of which nothing else changed.
          */
-        private int findAccountPositionInList() {
-            return mUsers.indexOf(mAccount);
+        private void bindPin(PinRow row) {
+            if (getString(R.string.empty_pin).equals(row.pin)) {
+                mPinView.setTextScaleX(PIN_TEXT_SCALEX_UNDERSCORE); // smaller gap between underscores
+            } else {
+                mPinView.setTextScaleX(PIN_TEXT_SCALEX_NORMAL);
+            }
+            mPinView.setText(row.pin);
         }
     }
 
     /**
      * Displays the list of users and the current OTP values.
+     * <p>
+     * The rows are replaced with {@link #submit(List)}, which diffs them against the displayed
+     * rows on the code executor and then only rebinds the rows that changed. Rows of which only the
+     * PIN changed, such as every TOTP row at the start of a time step, only rebind their PIN.
      *
      * @author adhintz@google.com (Drew Hintz)
      */
-    private class PinListAdapter extends ArrayAdapter<PinInfo> {
+    private class PinListAdapter extends RecyclerView.Adapter<PinViewHolder> {
+
+        /**
+         * Displayed rows, never modified but replaced.
+         */
+        private List<PinRow> mRows = Collections.emptyList();
+
+        /**
+         * Incremented whenever the displayed rows change, so that diffs against older rows are
+         * dropped.
+         */
+        private int mGeneration;
 
-        public PinListAdapter(Context context, int userRowId, ArrayList<PinInfo> items) {
-            super(context, userRowId, items);
+        /**
+         * IDs of the accounts whose icons are being loaded.
+         */
+        private final Set<Long> mLoadingIcons = new HashSet<>();
+
+        private PinListAdapter() {
+            setHasStableIds(true);
         }
 
         /**
-         * Displays the user and OTP for the specified position. For HOTP, displays
-         * the button for generating the next OTP value; for TOTP, displays the countdown indicator.
+         * Displays the current state of the accounts. Returns immediately: the rows are diffed
+         * against the displayed rows in the background and the differences are applied on the UI
+         * thread afterwards, unless newer rows were submitted or rows were moved in the meantime.
          */
-        @SuppressLint("ClickableViewAccessibility")
-        @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            LayoutInflater inflater = getLayoutInflater();
-            PinInfo currentPin = getItem(position);
-
-            View row;
-            if (convertView != null) {
-                // Reuse an existing view
-                row = convertView;
-            } else {
-                // Create a new view
-                row = inflater.inflate(R.layout.user_row, null);
+        private void submit(List<PinInfo> accounts) {
+            List<PinRow> newRows = new ArrayList<>(accounts.size());
+            for (PinInfo pinInfo : accounts) {
+                newRows.add(new PinRow(pinInfo));
             }
+            List<PinRow> oldRows = mRows;
+            int generation = ++mGeneration;
+            DependencyInjector.getCodeExecutor().execute(() -> {
+                DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                    @Override
+                    public int getOldListSize() {
+                        return oldRows.size();
+                    }
 
-            if (currentPin == null) return row;
+                    @Override
+                    public int getNewListSize() {
+                        return newRows.size();
+                    }
 
-            ImageView iconView = row.findViewById(R.id.icon);
-            TextView pinView = row.findViewById(R.id.pin_value);
-            TextView userView = row.findViewById(R.id.current_user);
-            ImageButton buttonView = row.findViewById(R.id.next_otp);
-            CountdownIndicator countdownIndicator =
-                    row.findViewById(R.id.countdown_icon);
+                    @Override
+                    public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                        return oldRows.get(oldPosition).id == newRows.get(newPosition).id;
+                    }
 
-            View.OnTouchListener dragOnTouch = (v, event) -> {
-                if (event.getAction() == MotionEvent.ACTION_DOWN) {
-                    mUserList.startDrag(position);
-                    return true;
-                }
-                return false;
-            };
-            countdownIndicator.setOnTouchListener(dragOnTouch);
-            iconView.setOnTouchListener(dragOnTouch);
+                    @Override
+                    public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                        return oldRows.get(oldPosition).hasSameContents(newRows.get(newPosition));
+                    }
 
-            if (currentPin.image != null) {
-                iconView.setImageBitmap(currentPin.image);
-                iconView.setVisibility(View.VISIBLE);
-            } else {
-                iconView.setVisibility(View.GONE);
+                    @Override
+                    public Object getChangePayload(int oldPosition, int newPosition) {
+                        return oldRows.get(oldPosition)
+                                .hasSameContentsExceptPin(newRows.get(newPosition))
+                                ? PAYLOAD_PIN : null;
+                    }
+                });
+                runOnUiThread(() -> {
+                    if (generation != mGeneration) {
+                        return;
+                    }
+                    mRows = Collections.unmodifiableList(newRows);
+                    diff.dispatchUpdatesTo(this);
+                });
+            });
+        }
+
+        /**
+         * Moves a displayed row while it's being dragged.
+         */
+        private void moveRow(int fromPosition, int toPosition) {
+            // Diffs in progress no longer apply to the displayed rows
+            mGeneration++;
+            List<PinRow> rows = new ArrayList<>(mRows);
+            rows.add(toPosition, rows.remove(fromPosition));
+            mRows = Collections.unmodifiableList(rows);
+            notifyItemMoved(fromPosition, toPosition);
+        }
+
+        /**
+         * Loads the icon of an account in the background, then rebinds the icons of its rows. The
+         * rows are rebound in a later message, since they can't be changed while they are bound.
+         */
+        private void loadIcon(long accountId) {
+            if (!mLoadingIcons.add(accountId)) {
+                return;
             }
+            mIconCache.load(accountId, mHandler::post, (loadedAccountId, icon) -> {
+                mLoadingIcons.remove(loadedAccountId);
+                onIconChanged(loadedAccountId);
+            });
+        }
 
-            if (currentPin.isHotp) {
-                buttonView.setVisibility(View.VISIBLE);
-                buttonView.setEnabled(currentPin.hotpCodeGenerationAllowed);
-                if (buttonView.isEnabled()) {
-                    buttonView.setColorFilter(currentPin.color);
-                } else {
-                    buttonView.clearColorFilter();
+        /**
+         * Rebinds the icon of the row of an account.
+         */
+        private void onIconChanged(long accountId) {
+            for (int i = 0; i < mRows.size(); i++) {
+                Long rowAccountId = mAccountDb.getId(mRows.get(i).user);
+                if (rowAccountId != null && rowAccountId == accountId) {
+                    notifyItemChanged(i, PAYLOAD_ICON);
                 }
-                ((ViewGroup) row).setDescendantFocusability(
-                        ViewGroup.FOCUS_BLOCK_DESCENDANTS); // makes long press work
-                NextOtpButtonListener clickListener = new NextOtpButtonListener(currentPin);
-                buttonView.setOnClickListener(clickListener);
-                row.setTag(clickListener);
+            }
+        }
 
-                countdownIndicator.setVisibility(View.GONE);
-            } else { // TOTP, so no button needed
-                buttonView.setVisibility(View.GONE);
-                buttonView.setOnClickListener(null);
-                row.setTag(null);
+        /**
+         * Rebinds the icons of all rows.
+         */
+        private void onIconsChanged() {
+            notifyItemRangeChanged(0, mRows.size(), PAYLOAD_ICON);
+        }
 
-                countdownIndicator.setVisibility(View.VISIBLE);
-                countdownIndicator.setPhase(mTotpCountdownPhase);
-                countdownIndicator.setColor(currentPin.color);
-            }
+        @Override
+        public int getItemCount() {
+            return mRows.size();
+        }
 
-            if (getString(R.string.empty_pin).equals(currentPin.pin)) {
-                pinView.setTextScaleX(PIN_TEXT_SCALEX_UNDERSCORE); // smaller gap between underscores
-            } else {
-                pinView.setTextScaleX(PIN_TEXT_SCALEX_NORMAL);
-            }
-            pinView.setText(currentPin.pin);
-            userView.setText(currentPin.user);
-            userView.setTextColor(currentPin.color);
+        @Override
+        public long getItemId(int position) {
+            return mRows.get(position).id;
+        }
+
+        @Override
+        public PinViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return new PinViewHolder(
+                    getLayoutInflater().inflate(R.layout.user_row, parent, false));
+        }
 
-            return row;
+        @Override
+        public void onBindViewHolder(PinViewHolder holder, int position) {
+            holder.bind(mRows.get(position));
+        }
+
+        @Override
+        public void onBindViewHolder(PinViewHolder holder, int position, List<Object> payloads) {
+            if (payloads.isEmpty()) {
+                onBindViewHolder(holder, position);
+                return;
+            }
+            for (Object payload : payloads) {
+                if (payload != PAYLOAD_PIN && payload != PAYLOAD_ICON) {
+                    onBindViewHolder(holder, position);
+                    return;
+                }
+            }
+            PinRow row = mRows.get(position);
+            if (payloads.contains(PAYLOAD_PIN)) {
+                holder.bindPin(row);
+            }
+            if (payloads.contains(PAYLOAD_ICON)) {
+                holder.bindIcon(row);
+            }
         }
     }
 
@@ -1620,12 +2386,19 @@ public class AuthenticatorActivity extends TestableActivity {
         private final String secret;
         private final OtpType type;
         private final Integer counter;
+        private final Algorithm algorithm;
+        private final Integer digits;
+        private final Integer period;
 
-        private SaveKeyDialogParams(String user, String secret, OtpType type, Integer counter) {
+        private SaveKeyDialogParams(String user, String secret, OtpType type, Integer counter,
+                                    Algorithm algorithm, Integer digits, Integer period) {
             this.user = user;
             this.secret = secret;
             this.type = type;
             this.counter = counter;
+            this.algorithm = algorithm;
+            this.digits = digits;
+            this.period = period;
         }
     }
 
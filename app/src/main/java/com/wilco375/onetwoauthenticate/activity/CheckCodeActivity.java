@@ -25,7 +25,8 @@ import android.text.TextUtils;
 import android.view.View;
 import android.widget.TextView;
 
-import com.wilco375.onetwoauthenticate.database.AccountDb;
+import com.wilco375.onetwoauthenticate.database.Account;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
 import com.wilco375.onetwoauthenticate.util.Base32String;
 import com.wilco375.onetwoauthenticate.util.Base32String.DecodingException;
 import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator;
@@ -66,16 +67,15 @@ public class CheckCodeActivity extends AppCompatActivity {
         Bundle extras = intent.getExtras();
         String user = extras.getString("user");
 
-        AccountDb accountDb = DependencyInjector.getAccountDb();
-        AccountDb.OtpType type = accountDb.getType(user);
-        if (type == AccountDb.OtpType.HOTP) {
-            mCounterValue.setText(accountDb.getCounter(user).toString());
+        Account account = DependencyInjector.getAccountDb().getAccount(user);
+        if (account.getType() == OtpType.HOTP) {
+            mCounterValue.setText(Integer.toString(account.getCounter()));
             findViewById(R.id.counter_area).setVisibility(View.VISIBLE);
         } else {
             findViewById(R.id.counter_area).setVisibility(View.GONE);
         }
 
-        String secret = accountDb.getSecret(user);
+        String secret = account.getSecret();
         String checkCode = null;
         String errorMessage = null;
         try {
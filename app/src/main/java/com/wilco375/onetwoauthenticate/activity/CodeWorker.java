@@ -0,0 +1,54 @@
+package com.wilco375.onetwoauthenticate.activity;
+
+import com.wilco375.onetwoauthenticate.otp.CodeBatch;
+import com.wilco375.onetwoauthenticate.otp.OtpSource;
+import com.wilco375.onetwoauthenticate.otp.totp.Clock;
+import com.wilco375.onetwoauthenticate.util.Utilities;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Computes the codes of all accounts in the background. Results are delivered on the callback
+ * executor, which only has to bind them to the list. The icons of the accounts are loaded
+ * separately, see {@link com.wilco375.onetwoauthenticate.util.IconCache}.
+ * <p>
+ * Requests are handled one at a time in the order they were made, so their results are delivered
+ * in that order as well.
+ */
+class CodeWorker {
+
+    /**
+     * Receives the codes on the callback executor.
+     */
+    interface Callback {
+        void onCodes(CodeBatch codes);
+    }
+
+    private final OtpSource mOtpProvider;
+    private final Clock mClock;
+    private final Executor mWorkerExecutor;
+    private final Executor mCallbackExecutor;
+
+    /**
+     * @param workerExecutor   executor running one request at a time in the order they are made.
+     * @param callbackExecutor executor on which the codes are delivered.
+     */
+    CodeWorker(OtpSource otpProvider, Clock clock, Executor workerExecutor,
+               Executor callbackExecutor) {
+        mOtpProvider = otpProvider;
+        mClock = clock;
+        mWorkerExecutor = workerExecutor;
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Computes the codes of all accounts, in display order, at the current time.
+     */
+    void requestCodes(Callback callback) {
+        mWorkerExecutor.execute(() -> {
+            CodeBatch codes = mOtpProvider.computeCodes(
+                    Utilities.millisToSeconds(mClock.currentTimeMillis()));
+            mCallbackExecutor.execute(() -> callback.onCodes(codes));
+        });
+    }
+}
@@ -23,29 +23,51 @@ import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.support.v4.os.TraceCompat;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.wilco375.onetwoauthenticate.otp.MacSigner;
 import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.Signer;
-import com.wilco375.onetwoauthenticate.util.Base32String;
 import com.wilco375.onetwoauthenticate.util.Base32String.DecodingException;
 
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
-
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A database of email addresses and secret values
+ * <p>
+ * All accounts are loaded into memory on the first read, and later reads are served from an
+ * immutable snapshot without querying SQLite or taking a lock, so they may be made from any
+ * thread. Writes go to SQLite first and then replace the snapshot with an updated copy.
  *
  * @author sweis@google.com (Steve Weis)
  */
-public class AccountDb {
+public class AccountDb implements AccountStore {
     public static final Integer DEFAULT_HOTP_COUNTER = 0;
 
+    /**
+     * Number of digits of the codes of accounts that don't specify it.
+     */
+    public static final int DEFAULT_DIGITS = 6;
+
+    /**
+     * Time step (seconds) of the TOTP accounts that don't specify it.
+     */
+    public static final int DEFAULT_PERIOD = 30;
+
     public static final String GOOGLE_CORP_ACCOUNT_NAME = "Google Internal 2Factor";
 
     private static final String ID_COLUMN = "_id";
@@ -60,10 +82,42 @@ public class AccountDb {
     // @VisibleForTesting
     static final String COLOR_COLUMN = "color";
     // @VisibleForTesting
+    static final String ALGORITHM_COLUMN = "algorithm";
+    // @VisibleForTesting
+    static final String DIGITS_COLUMN = "digits";
+    // @VisibleForTesting
+    static final String PERIOD_COLUMN = "period";
+    // @VisibleForTesting
     static final String TABLE_NAME = "accounts";
     // @VisibleForTesting
     static final String PATH = "databases";
 
+    /**
+     * Columns read for an account: those of {@link Account}, its sort key and its ID. The indexes
+     * of the columns in query results are the {@code *_INDEX} constants, so they don't have to be
+     * looked up by name for every query.
+     */
+    private static final String[] ACCOUNT_COLUMNS = {EMAIL_COLUMN, SECRET_COLUMN, TYPE_COLUMN,
+            COUNTER_COLUMN, COLOR_COLUMN, ALGORITHM_COLUMN, DIGITS_COLUMN, PERIOD_COLUMN,
+            PROVIDER_COLUMN, ORDER_COLUMN, ID_COLUMN};
+    private static final int EMAIL_INDEX = 0;
+    private static final int SECRET_INDEX = 1;
+    private static final int TYPE_INDEX = 2;
+    private static final int COUNTER_INDEX = 3;
+    private static final int COLOR_INDEX = 4;
+    private static final int ALGORITHM_INDEX = 5;
+    private static final int DIGITS_INDEX = 6;
+    private static final int PERIOD_INDEX = 7;
+    private static final int PROVIDER_INDEX = 8;
+    private static final int ORDER_INDEX = 9;
+    private static final int ID_INDEX = 10;
+
+    /**
+     * Distance between the sort keys of adjacent accounts after they're renumbered. Leaves room
+     * to move an account between two others many times by writing only its own sort key.
+     */
+    private static final long SORT_KEY_GAP = 1 << 16;
+
     private static final String TABLE_INFO_COLUMN_NAME_COLUMN = "name";
 
     private static final int PROVIDER_UNKNOWN = 0;
@@ -74,71 +128,68 @@ public class AccountDb {
 
     private static final String LOCAL_TAG = "AccountDb";
 
+    private final List<AccountChangeListener> mChangeListeners = new CopyOnWriteArrayList<>();
+    private final List<AccountEventListener> mEventListeners = new CopyOnWriteArrayList<>();
+
     /**
-     * Types of secret keys.
+     * Serializes writes, so that each one updates the snapshot left by the previous one.
      */
-    public enum OtpType {  // must be the same as in res/values/strings.xml:type
-        TOTP(0),  // time based
-        HOTP(1);  // counter based
-
-        public final Integer value;  // value as stored in SQLite database
+    private final Object mWriteLock = new Object();
 
-        OtpType(Integer value) {
-            this.value = value;
-        }
+    /**
+     * Accounts as currently stored in SQLite or {@code null} if they haven't been loaded yet.
+     * Replaced, never modified, by writes.
+     *
+     * @GuardedBy {@link #mWriteLock} for writes, reads don't need the lock.
+     */
+    private volatile Snapshot mSnapshot;
 
-        public static OtpType getEnum(Integer i) {
-            for (OtpType type : OtpType.values()) {
-                if (type.value.equals(i)) {
-                    return type;
-                }
-            }
+    /**
+     * Compiled statements incrementing the HOTP counter of an account and reading it back.
+     *
+     * @GuardedBy {@link #mWriteLock}
+     */
+    private final SQLiteStatement mIncrementCounterStatement;
+    private final SQLiteStatement mCounterQueryStatement;
 
-            return null;
-        }
+    /**
+     * Compiled statement setting the sort key of an account, unless it already has that key.
+     *
+     * @GuardedBy {@link #mWriteLock}
+     */
+    private final SQLiteStatement mSortKeyStatement;
 
-    }
+    /**
+     * Opens the accounts table, creating or migrating it if needed.
+     */
+    private final OpenHelper mOpenHelper;
 
     public AccountDb(Context context) {
-        mDatabase = openDatabase(context);
-
-        // Create the table if it doesn't exist
-        mDatabase.execSQL(String.format(
-                "CREATE TABLE IF NOT EXISTS %s" +
-                        " (%s INTEGER PRIMARY KEY, %s TEXT NOT NULL, %s TEXT NOT NULL, " +
-                        " %s INTEGER DEFAULT %s, %s INTEGER, %s INTEGER DEFAULT %s)",
-                TABLE_NAME, ID_COLUMN, EMAIL_COLUMN, SECRET_COLUMN, COUNTER_COLUMN,
-                DEFAULT_HOTP_COUNTER, TYPE_COLUMN,
-                PROVIDER_COLUMN, PROVIDER_UNKNOWN));
-
-        Collection<String> tableColumnNames = listTableColumnNamesLowerCase();
-        if (!tableColumnNames.contains(PROVIDER_COLUMN.toLowerCase(Locale.US))) {
-            // Migrate from old schema where the PROVIDER_COLUMN wasn't there
-            mDatabase.execSQL(String.format(
-                    "ALTER TABLE %s ADD COLUMN %s INTEGER DEFAULT %s",
-                    TABLE_NAME, PROVIDER_COLUMN, PROVIDER_UNKNOWN));
-        }
-        if (!tableColumnNames.contains(COLOR_COLUMN.toLowerCase(Locale.US))) {
-            // Migrate from old schema where the COLOR_COLUMN wasn't there
-            mDatabase.execSQL(String.format(
-                    "ALTER TABLE %s ADD COLUMN %s INTEGER",
-                    TABLE_NAME, COLOR_COLUMN));
-        }
-        if (!tableColumnNames.contains(ORDER_COLUMN.toLowerCase(Locale.US))) {
-            // Migrate from old schema where the ORDER_COLUMN wasn't there
-            mDatabase.execSQL(String.format(
-                    "ALTER TABLE %s ADD COLUMN %s INTEGER",
-                    TABLE_NAME, ORDER_COLUMN));
+        TraceCompat.beginSection("AccountDb.open");
+        try {
+            mOpenHelper = new OpenHelper(context);
+            mDatabase = openDatabase();
+        } finally {
+            TraceCompat.endSection();
         }
+
+        mIncrementCounterStatement = mDatabase.compileStatement(String.format(
+                "UPDATE %s SET %s = IFNULL(%s, 0) + 1 WHERE %s = ?",
+                TABLE_NAME, COUNTER_COLUMN, COUNTER_COLUMN, EMAIL_COLUMN));
+        mCounterQueryStatement = mDatabase.compileStatement(String.format(
+                "SELECT %s FROM %s WHERE %s = ?", COUNTER_COLUMN, TABLE_NAME, EMAIL_COLUMN));
+        mSortKeyStatement = mDatabase.compileStatement(String.format(
+                "UPDATE %s SET %s = ?1 WHERE %s = ?2 AND %s IS NOT ?1",
+                TABLE_NAME, ORDER_COLUMN, EMAIL_COLUMN, ORDER_COLUMN));
     }
 
     /*
      * Tries three times to open database before throwing AccountDbOpenException.
      */
-    private SQLiteDatabase openDatabase(Context context) {
+    private SQLiteDatabase openDatabase() {
         for (int count = 0; true; count++) {
             try {
-                return context.openOrCreateDatabase(PATH, Context.MODE_PRIVATE, null);
+                return mOpenHelper.getWritableDatabase();
             } catch (SQLiteException e) {
                 if (count >= 2) {
                     throw new AccountDbOpenException("Failed to open AccountDb database in three tries.\n", e);
@@ -147,11 +198,140 @@ public class AccountDb {
         }
     }
 
+    /**
+     * Creates and migrates the accounts table. The version of its schema is stored in the
+     * database, so that opening an up to date database only reads that version.
+     * <p>
+     * Write-ahead logging is enabled, so that reads don't wait for writes to finish.
+     */
+    private static class OpenHelper extends SQLiteOpenHelper {
+        /**
+         * Version of the schema. Databases created before the schema was versioned have version
+         * {@code 0}. Version 2 stops giving the IDs of removed accounts to new accounts.
+         */
+        private static final int VERSION = 2;
+
+        OpenHelper(Context context) {
+            super(context, PATH, null, VERSION);
+            setWriteAheadLoggingEnabled(true);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase database) {
+            // Create the table if it doesn't exist
+            createTable(database);
+
+            // Databases created before the schema was versioned may miss any of the later columns
+            Collection<String> tableColumnNames =
+                    listTableColumnNamesLowerCase(database, TABLE_NAME);
+            if (!tableColumnNames.contains(PROVIDER_COLUMN.toLowerCase(Locale.US))) {
+                // Migrate from old schema where the PROVIDER_COLUMN wasn't there
+                database.execSQL(String.format(
+                        "ALTER TABLE %s ADD COLUMN %s INTEGER DEFAULT %s",
+                        TABLE_NAME, PROVIDER_COLUMN, PROVIDER_UNKNOWN));
+            }
+            if (!tableColumnNames.contains(COLOR_COLUMN.toLowerCase(Locale.US))) {
+                // Migrate from old schema where the COLOR_COLUMN wasn't there
+                database.execSQL(String.format(
+                        "ALTER TABLE %s ADD COLUMN %s INTEGER",
+                        TABLE_NAME, COLOR_COLUMN));
+            }
+            if (!tableColumnNames.contains(ORDER_COLUMN.toLowerCase(Locale.US))) {
+                // Migrate from old schema where the ORDER_COLUMN wasn't there
+                database.execSQL(String.format(
+                        "ALTER TABLE %s ADD COLUMN %s INTEGER",
+                        TABLE_NAME, ORDER_COLUMN));
+            }
+            if (!tableColumnNames.contains(ALGORITHM_COLUMN.toLowerCase(Locale.US))) {
+                // Migrate from old schema where all accounts used HMAC-SHA1, 6 digits and 30 seconds
+                database.execSQL(String.format(
+                        "ALTER TABLE %s ADD COLUMN %s INTEGER DEFAULT %s",
+                        TABLE_NAME, ALGORITHM_COLUMN, Algorithm.SHA1.value));
+            }
+            if (!tableColumnNames.contains(DIGITS_COLUMN.toLowerCase(Locale.US))) {
+                database.execSQL(String.format(
+                        "ALTER TABLE %s ADD COLUMN %s INTEGER DEFAULT %s",
+                        TABLE_NAME, DIGITS_COLUMN, DEFAULT_DIGITS));
+            }
+            if (!tableColumnNames.contains(PERIOD_COLUMN.toLowerCase(Locale.US))) {
+                database.execSQL(String.format(
+                        "ALTER TABLE %s ADD COLUMN %s INTEGER DEFAULT %s",
+                        TABLE_NAME, PERIOD_COLUMN, DEFAULT_PERIOD));
+            }
+            migrateToAutoincrementIds(database);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+            // Migrations from each version, each falling through to the next
+            switch (oldVersion) {
+                case 1:
+                    migrateToAutoincrementIds(database);
+            }
+        }
+
+        /**
+         * Creates the accounts table with the current schema, unless a table with that name
+         * already exists.
+         */
+        private static void createTable(SQLiteDatabase database) {
+            database.execSQL(String.format(
+                    "CREATE TABLE IF NOT EXISTS %s" +
+                            " (%s INTEGER PRIMARY KEY AUTOINCREMENT, %s TEXT NOT NULL," +
+                            " %s TEXT NOT NULL, %s INTEGER DEFAULT %s, %s INTEGER," +
+                            " %s INTEGER DEFAULT %s, %s INTEGER, %s INTEGER," +
+                            " %s INTEGER DEFAULT %s, %s INTEGER DEFAULT %s, %s INTEGER DEFAULT %s)",
+                    TABLE_NAME, ID_COLUMN, EMAIL_COLUMN,
+                    SECRET_COLUMN, COUNTER_COLUMN, DEFAULT_HOTP_COUNTER, TYPE_COLUMN,
+                    PROVIDER_COLUMN, PROVIDER_UNKNOWN, COLOR_COLUMN, ORDER_COLUMN,
+                    ALGORITHM_COLUMN, Algorithm.SHA1.value, DIGITS_COLUMN, DEFAULT_DIGITS,
+                    PERIOD_COLUMN, DEFAULT_PERIOD));
+        }
+
+        /**
+         * Rebuilds an accounts table whose IDs are plain row IDs, which SQLite gives to new rows
+         * again once the rows that had them are removed, with IDs that are never given out
+         * twice. Existing accounts keep their IDs, so that the data stored under them outside
+         * the database stays theirs.
+         */
+        private static void migrateToAutoincrementIds(SQLiteDatabase database) {
+            Collection<String> tableColumnNames =
+                    listTableColumnNamesLowerCase(database, TABLE_NAME);
+            String schema = DatabaseUtils.stringForQuery(database,
+                    "SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?",
+                    new String[]{TABLE_NAME});
+            if (!tableColumnNames.contains(ID_COLUMN.toLowerCase(Locale.US))
+                    || schema.toUpperCase(Locale.US).contains("AUTOINCREMENT")) {
+                return;
+            }
+
+            String oldTableName = TABLE_NAME + "_old";
+            database.execSQL(String.format("ALTER TABLE %s RENAME TO %s", TABLE_NAME,
+                    oldTableName));
+            createTable(database);
+            List<String> columns = new ArrayList<>();
+            for (String column : ACCOUNT_COLUMNS) {
+                if (tableColumnNames.contains(column.toLowerCase(Locale.US))) {
+                    columns.add(column);
+                }
+            }
+            String columnList = TextUtils.join(", ", columns);
+            database.execSQL(String.format("INSERT INTO %s (%s) SELECT %s FROM %s",
+                    TABLE_NAME, columnList, columnList, oldTableName));
+            database.execSQL(String.format("DROP TABLE %s", oldTableName));
+        }
+    }
+
     /**
      * Closes this database and releases any system resources held.
      */
     public void close() {
-        mDatabase.close();
+        synchronized (mWriteLock) {
+            mIncrementCounterStatement.close();
+            mCounterQueryStatement.close();
+            mSortKeyStatement.close();
+        }
+        mOpenHelper.close();
     }
 
     /**
@@ -177,77 +357,290 @@ public class AccountDb {
     }
 
     /**
-     * Lists the names of all the columns in the accounts table.
+     * Registers a listener notified about changes to the accounts in this database.
      */
-    private Collection<String> listTableColumnNamesLowerCase() {
-        return listTableColumnNamesLowerCase(mDatabase, TABLE_NAME);
+    @Override
+    public void addAccountChangeListener(AccountChangeListener listener) {
+        mChangeListeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener previously registered with
+     * {@link #addAccountChangeListener(AccountChangeListener)}.
+     */
+    @Override
+    public void removeAccountChangeListener(AccountChangeListener listener) {
+        mChangeListeners.remove(listener);
+    }
+
+    private void fireAccountChanged(String email) {
+        for (AccountChangeListener listener : mChangeListeners) {
+            listener.onAccountChanged(email);
+        }
+    }
+
+    /**
+     * Registers a listener notified about which accounts were added, modified, removed or moved.
+     */
+    public void addAccountEventListener(AccountEventListener listener) {
+        mEventListeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener previously registered with
+     * {@link #addAccountEventListener(AccountEventListener)}.
+     */
+    public void removeAccountEventListener(AccountEventListener listener) {
+        mEventListeners.remove(listener);
+    }
+
+    private void fireAccountInserted(String email) {
+        for (AccountEventListener listener : mEventListeners) {
+            listener.onAccountInserted(email);
+        }
+        fireAccountChanged(email);
+    }
+
+    private void fireAccountUpdated(String oldEmail, String email) {
+        for (AccountEventListener listener : mEventListeners) {
+            listener.onAccountUpdated(oldEmail, email);
+        }
+        if (!oldEmail.equals(email)) {
+            fireAccountChanged(oldEmail);
+        }
+        fireAccountChanged(email);
+    }
+
+    private void fireAccountDeleted(String email) {
+        for (AccountEventListener listener : mEventListeners) {
+            listener.onAccountDeleted(email);
+        }
+        fireAccountChanged(email);
+    }
+
+    private void fireAccountMoved(String email) {
+        for (AccountEventListener listener : mEventListeners) {
+            listener.onAccountMoved(email);
+        }
+        // Makes codes computed ahead of time, which are in display order, stale
+        fireAccountChanged(email);
+    }
+
+    private void fireAccountsReloaded() {
+        for (AccountEventListener listener : mEventListeners) {
+            listener.onAccountsReloaded();
+        }
+        fireAccountChanged(null);
     }
 
     /*
      * deleteAllData() will remove all rows. Useful for testing.
      */
     public boolean deleteAllData() {
-        mDatabase.delete(AccountDb.TABLE_NAME, null, null);
+        synchronized (mWriteLock) {
+            mDatabase.delete(AccountDb.TABLE_NAME, null, null);
+            mSnapshot = new Snapshot(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        }
+        fireAccountsReloaded();
         return true;
     }
 
     public boolean nameExists(String email) {
-        Cursor cursor = getAccount(email);
-        try {
-            return !cursorIsEmpty(cursor);
-        } finally {
-            tryCloseCursor(cursor);
-        }
+        return getAccount(email) != null;
+    }
+
+    /**
+     * Gets the account with the specified name. Use this rather than the getters of the individual
+     * attributes when more than one of them is needed, so that they are read from the same
+     * snapshot.
+     *
+     * @return the account or {@code null} if it doesn't exist.
+     */
+    @Override
+    public Account getAccount(String email) {
+        return getSnapshot().accountsByName.get(email);
     }
 
     public String getSecret(String email) {
-        Cursor cursor = getAccount(email);
-        try {
-            if (!cursorIsEmpty(cursor)) {
-                cursor.moveToFirst();
-                return cursor.getString(cursor.getColumnIndex(SECRET_COLUMN));
+        Account account = getAccount(email);
+        return (account != null) ? account.getSecret() : null;
+    }
+
+    public Integer getColor(String email) {
+        Account account = getAccount(email);
+        return (account != null) ? account.getColor() : null;
+    }
+
+    /**
+     * Gets the ID of the account with the specified name. Unlike the name, the ID doesn't change
+     * when the account is renamed, so it identifies data stored outside the database, like the
+     * icon of the account. IDs of removed accounts are never given to accounts added later.
+     *
+     * @return the ID or {@code null} if the account doesn't exist.
+     */
+    public Long getId(String email) {
+        return getSnapshot().idsByName.get(email);
+    }
+
+    /**
+     * Gets the IDs of all accounts, see {@link #getId(String)}.
+     */
+    public Set<Long> getIds() {
+        return new HashSet<>(getSnapshot().ids);
+    }
+
+    /**
+     * Sets the display order of the specified accounts, in a single transaction. Accounts whose
+     * sort key doesn't change are not written. Use {@link #move(String, int)} to move a single
+     * account.
+     *
+     * @return {@code true} if the order was saved, {@code false} if the transaction failed and
+     *         the previous order was kept.
+     */
+    public boolean reorder(String[] emails) {
+        boolean saved = false;
+        synchronized (mWriteLock) {
+            mDatabase.beginTransaction();
+            try {
+                for (int i = 0; i < emails.length; i++) {
+                    writeSortKey(emails[i], i * SORT_KEY_GAP);
+                }
+                mDatabase.setTransactionSuccessful();
+                saved = true;
+            } catch (SQLiteException e) {
+                Log.e(LOCAL_TAG, "Failed to reorder accounts", e);
+            } finally {
+                mDatabase.endTransaction();
+            }
+            // Accounts that weren't listed keep their position relative to each other, which is
+            // easiest to get right by reading the new order back.
+            if (mSnapshot != null) {
+                mSnapshot = loadSnapshot();
             }
-        } finally {
-            tryCloseCursor(cursor);
         }
-        return null;
+        fireAccountsReloaded();
+        return saved;
     }
 
-    public Integer getColor(String email) {
-        Cursor cursor = getAccount(email);
-        try {
-            if (!cursorIsEmpty(cursor)) {
-                cursor.moveToFirst();
-                try {
-                    return Integer.valueOf(cursor.getString(cursor.getColumnIndex(COLOR_COLUMN)));
-                } catch (NumberFormatException e) {
-                    return null;
+    /**
+     * Moves an account to another position in the display order. Only the sort key of the moved
+     * account is written, unless there is no free key between its new neighbours, in which case
+     * all accounts are renumbered in a single transaction.
+     *
+     * @param email    name of the account.
+     * @param position new position of the account in the display order.
+     * @return {@code true} if the account was moved, {@code false} if it doesn't exist or the
+     *         new order couldn't be saved. In the latter case the order is read back from the
+     *         database and listeners are told that all accounts were reloaded.
+     */
+    public boolean move(String email, int position) {
+        boolean moved = true;
+        synchronized (mWriteLock) {
+            Snapshot snapshot = getSnapshot();
+            List<Account> accounts = new ArrayList<>(snapshot.accounts);
+            List<Long> sortKeys = new ArrayList<>(snapshot.sortKeys);
+            List<Long> ids = new ArrayList<>(snapshot.ids);
+            int index = accounts.indexOf(snapshot.accountsByName.get(email));
+            if (index < 0) {
+                return false;
+            }
+            Account account = accounts.remove(index);
+            sortKeys.remove(index);
+            Long id = ids.remove(index);
+            position = Math.max(0, Math.min(position, accounts.size()));
+
+            Long sortKey = sortKeyBetween(sortKeys, position);
+            accounts.add(position, account);
+            sortKeys.add(position, sortKey);
+            ids.add(position, id);
+            try {
+                if (sortKey != null) {
+                    writeSortKey(email, sortKey);
+                } else {
+                    renumber(accounts, sortKeys);
                 }
+                mSnapshot = new Snapshot(accounts, sortKeys, ids);
+            } catch (SQLiteException e) {
+                Log.e(LOCAL_TAG, "Failed to move account", e);
+                mSnapshot = loadSnapshot();
+                moved = false;
             }
-        } finally {
-            tryCloseCursor(cursor);
         }
-        return null;
+        if (moved) {
+            fireAccountMoved(email);
+        } else {
+            // The order shown may no longer match the one that was read back
+            fireAccountsReloaded();
+        }
+        return moved;
+    }
+
+    /**
+     * Gets a sort key between the sort keys of the accounts before and after a position.
+     *
+     * @return the sort key or {@code null} if there is no free key between them, or if either of
+     * them doesn't have a sort key.
+     */
+    private static Long sortKeyBetween(List<Long> sortKeys, int position) {
+        boolean hasPrevious = position > 0;
+        boolean hasNext = position < sortKeys.size();
+        Long previous = hasPrevious ? sortKeys.get(position - 1) : null;
+        Long next = hasNext ? sortKeys.get(position) : null;
+        if ((hasPrevious && previous == null) || (hasNext && next == null)) {
+            // Accounts added since the last renumbering don't have a sort key
+            return null;
+        }
+
+        if (!hasPrevious && !hasNext) {
+            return 0L;
+        } else if (!hasPrevious) {
+            return (next > Long.MIN_VALUE + SORT_KEY_GAP) ? next - SORT_KEY_GAP : null;
+        } else if (!hasNext) {
+            return (previous < Long.MAX_VALUE - SORT_KEY_GAP) ? previous + SORT_KEY_GAP : null;
+        } else if (next - previous < 2) {
+            return null;
+        }
+        return previous + (next - previous) / 2;
     }
 
-    public void reorder(String[] emails) {
+    /**
+     * Gives the accounts evenly spaced sort keys in the specified order, in a single transaction.
+     * Must be called while holding {@link #mWriteLock}.
+     *
+     * @param sortKeys current sort keys of the accounts, which are replaced by the new ones.
+     */
+    private void renumber(List<Account> accounts, List<Long> sortKeys) {
+        mDatabase.beginTransaction();
         try {
-            for (int i = 0; i < emails.length; i++) {
-                mDatabase.execSQL("UPDATE " + TABLE_NAME + " SET " + ORDER_COLUMN + " = " + i + " WHERE " + EMAIL_COLUMN + " = " + DatabaseUtils.sqlEscapeString(emails[i]) + "; ");
+            for (int i = 0; i < accounts.size(); i++) {
+                long sortKey = i * SORT_KEY_GAP;
+                writeSortKey(accounts.get(i).getName(), sortKey);
+                sortKeys.set(i, sortKey);
             }
-        } catch (SQLiteException e) {
-            e.printStackTrace();
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
         }
     }
 
+    /**
+     * Sets the sort key of an account, which is a no-op if it already has that key. Must be called
+     * while holding {@link #mWriteLock}.
+     */
+    private void writeSortKey(String email, long sortKey) {
+        mSortKeyStatement.bindLong(1, sortKey);
+        mSortKeyStatement.bindString(2, email);
+        mSortKeyStatement.executeUpdateDelete();
+    }
+
     public static Signer getSigningOracle(String secret) {
-        try {
-            byte[] keyBytes = decodeKey(secret);
-            final Mac mac = Mac.getInstance("HMACSHA1");
-            mac.init(new SecretKeySpec(keyBytes, ""));
+        return getSigningOracle(secret, Algorithm.SHA1);
+    }
 
+    public static Signer getSigningOracle(String secret, Algorithm algorithm) {
+        try {
             // Create a signer object out of the standard Java MAC implementation.
-            return mac::doFinal;
+            return MacSigner.getInstance(secret, algorithm);
         } catch (DecodingException error) {
             Log.e(LOCAL_TAG, error.getMessage());
         } catch (NoSuchAlgorithmException error) {
@@ -259,72 +652,92 @@ public class AccountDb {
         return null;
     }
 
-    private static byte[] decodeKey(String secret) throws DecodingException {
-        return Base32String.decode(secret);
+    public Integer getCounter(String email) {
+        Account account = getAccount(email);
+        return (account != null) ? account.getCounter() : null;
     }
 
-    public Integer getCounter(String email) {
-        Cursor cursor = getAccount(email);
-        try {
-            if (!cursorIsEmpty(cursor)) {
-                cursor.moveToFirst();
-                return cursor.getInt(cursor.getColumnIndex(COUNTER_COLUMN));
+    /**
+     * Increments the HOTP counter of the account in SQLite and reads the new value back in the
+     * same transaction, so that concurrent callers never get the same value.
+     *
+     * @return the new value of the counter or {@code null} if the account doesn't exist.
+     */
+    @Override
+    public Integer incrementCounter(String email) {
+        synchronized (mWriteLock) {
+            int counter;
+            mDatabase.beginTransaction();
+            try {
+                mIncrementCounterStatement.bindString(1, email);
+                if (mIncrementCounterStatement.executeUpdateDelete() == 0) {
+                    return null;
+                }
+                mCounterQueryStatement.bindString(1, email);
+                counter = (int) mCounterQueryStatement.simpleQueryForLong();
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
             }
-        } finally {
-            tryCloseCursor(cursor);
+
+            Snapshot snapshot = mSnapshot;
+            Account account = (snapshot != null) ? snapshot.accountsByName.get(email) : null;
+            if (account != null) {
+                replaceAccount(snapshot, account, new Account(account.getName(),
+                        account.getSecret(), account.getType(), counter, account.getColor(),
+                        account.getAlgorithm(), account.getDigits(), account.getPeriod(),
+                        account.isGoogleAccount()));
+            }
+            return counter;
         }
-        return null;
     }
 
-    public void incrementCounter(String email) {
-        ContentValues values = new ContentValues();
-        values.put(EMAIL_COLUMN, email);
-        Integer counter = getCounter(email);
-        values.put(COUNTER_COLUMN, counter + 1);
-        mDatabase.update(TABLE_NAME, values, whereClause(email), null);
+    public OtpType getType(String email) {
+        Account account = getAccount(email);
+        return (account != null) ? account.getType() : null;
     }
 
-    public OtpType getType(String email) {
-        Cursor cursor = getAccount(email);
-        try {
-            if (!cursorIsEmpty(cursor)) {
-                cursor.moveToFirst();
-                Integer value = cursor.getInt(cursor.getColumnIndex(TYPE_COLUMN));
-                return OtpType.getEnum(value);
-            }
-        } finally {
-            tryCloseCursor(cursor);
-        }
-        return null;
+    public Algorithm getAlgorithm(String email) {
+        Account account = getAccount(email);
+        return (account != null) ? account.getAlgorithm() : null;
+    }
+
+    public Integer getDigits(String email) {
+        Account account = getAccount(email);
+        return (account != null) ? account.getDigits() : null;
+    }
+
+    public Integer getPeriod(String email) {
+        Account account = getAccount(email);
+        return (account != null) ? account.getPeriod() : null;
     }
 
     void setType(String email, OtpType type) {
-        ContentValues values = new ContentValues();
-        values.put(EMAIL_COLUMN, email);
-        values.put(TYPE_COLUMN, type.value);
-        mDatabase.update(TABLE_NAME, values, whereClause(email), null);
+        synchronized (mWriteLock) {
+            ContentValues values = new ContentValues();
+            values.put(EMAIL_COLUMN, email);
+            values.put(TYPE_COLUMN, type.value);
+            mDatabase.update(TABLE_NAME, values, whereClause(email), null);
+            reloadAccount(email, email);
+        }
+        fireAccountUpdated(email, email);
     }
 
     public boolean isGoogleAccount(String email) {
-        Cursor cursor = getAccount(email);
-        try {
-            if (!cursorIsEmpty(cursor)) {
-                cursor.moveToFirst();
-                if (cursor.getInt(cursor.getColumnIndex(PROVIDER_COLUMN)) == PROVIDER_GOOGLE) {
-                    // The account is marked as source: Google
-                    return true;
-                }
-                // The account is from an unknown source. Could be a Google account added by scanning
-                // a QR code or by manually entering a key
-                String emailLowerCase = email.toLowerCase(Locale.US);
-                return (emailLowerCase.endsWith("@gmail.com"))
-                        || (emailLowerCase.endsWith("@google.com"))
-                        || (email.equals(GOOGLE_CORP_ACCOUNT_NAME));
-            }
-        } finally {
-            tryCloseCursor(cursor);
+        Account account = getAccount(email);
+        if (account == null) {
+            return false;
+        }
+        if (account.isGoogleAccount()) {
+            // The account is marked as source: Google
+            return true;
         }
-        return false;
+        // The account is from an unknown source. Could be a Google account added by scanning
+        // a QR code or by manually entering a key
+        String emailLowerCase = email.toLowerCase(Locale.US);
+        return (emailLowerCase.endsWith("@gmail.com"))
+                || (emailLowerCase.endsWith("@google.com"))
+                || (email.equals(GOOGLE_CORP_ACCOUNT_NAME));
     }
 
     /**
@@ -341,7 +754,13 @@ public class AccountDb {
     }
 
     public void delete(String email) {
-        mDatabase.delete(TABLE_NAME, whereClause(email), null);
+        synchronized (mWriteLock) {
+            if (mDatabase.delete(TABLE_NAME, whereClause(email), null) == 0) {
+                return;
+            }
+            reloadAccount(email, null);
+        }
+        fireAccountDeleted(email);
     }
 
     /**
@@ -376,6 +795,31 @@ public class AccountDb {
 
     public void update(String email, String secret, String oldEmail,
                        OtpType type, Integer counter, Boolean googleAccount, Integer color) {
+        update(email, secret, oldEmail, type, counter, googleAccount, color, null, null, null);
+    }
+
+    /**
+     * Save key to database, creating a new user entry if necessary.
+     *
+     * @param email         the user email address. When editing, the new user email.
+     * @param secret        the secret key.
+     * @param oldEmail      If editing, the original user email, otherwise null.
+     * @param type          hotp vs totp
+     * @param counter       only important for the hotp type
+     * @param googleAccount whether the key is for a Google account or {@code null} to preserve
+     *                      the previous value (or use a default if adding a key).
+     * @param color         color of the account or {@code null} to preserve the previous value.
+     * @param algorithm     hash function of the HMAC or {@code null} to preserve the previous value
+     *                      (or use {@link Algorithm#SHA1} if adding a key).
+     * @param digits        number of digits of the codes or {@code null} to preserve the previous
+     *                      value (or use {@link #DEFAULT_DIGITS} if adding a key).
+     * @param period        time step (seconds), only important for the totp type, or {@code null}
+     *                      to preserve the previous value (or use {@link #DEFAULT_PERIOD} if adding
+     *                      a key).
+     */
+    public void update(String email, String secret, String oldEmail,
+                       OtpType type, Integer counter, Boolean googleAccount, Integer color,
+                       Algorithm algorithm, Integer digits, Integer period) {
         ContentValues values = new ContentValues();
         values.put(EMAIL_COLUMN, email);
         values.put(SECRET_COLUMN, secret);
@@ -390,20 +834,223 @@ public class AccountDb {
         if (color != null) {
             values.put(COLOR_COLUMN, color);
         }
-        int updated = mDatabase.update(TABLE_NAME, values,
-                whereClause(oldEmail), null);
-        if (updated == 0) {
-            mDatabase.insert(TABLE_NAME, null, values);
+        if (algorithm != null) {
+            values.put(ALGORITHM_COLUMN, algorithm.value);
+        }
+        if (digits != null) {
+            values.put(DIGITS_COLUMN, digits);
+        }
+        if (period != null) {
+            values.put(PERIOD_COLUMN, period);
+        }
+        boolean inserted;
+        synchronized (mWriteLock) {
+            int updated = mDatabase.update(TABLE_NAME, values,
+                    whereClause(oldEmail), null);
+            inserted = updated == 0;
+            if (inserted) {
+                mDatabase.insert(TABLE_NAME, null, values);
+                // New accounts have no position yet, let SQLite decide where they are listed
+                if (mSnapshot != null) {
+                    mSnapshot = loadSnapshot();
+                }
+            } else {
+                reloadAccount(oldEmail, email);
+            }
+        }
+        if (inserted) {
+            fireAccountInserted(email);
+        } else {
+            fireAccountUpdated(oldEmail, email);
+        }
+    }
+
+    /**
+     * Saves the keys of many accounts in a single transaction, updating the accounts that already
+     * exist and adding the others, like {@link #update} does for a single account. The color and
+     * provider of existing accounts are preserved. Listeners are notified once, with a
+     * {@code null} name, after all accounts are saved.
+     *
+     * @param accounts accounts to save, identified by name.
+     * @param listener notified after each account is saved or {@code null}. Called on the calling
+     *                 thread while holding the write lock, so it should only record the progress.
+     * @return the number of accounts that were added.
+     * @throws SQLiteException if the accounts could not be saved, in which case none are.
+     */
+    public int bulkUpsert(List<Account> accounts, ProgressListener listener) {
+        int inserted = 0;
+        synchronized (mWriteLock) {
+            SQLiteStatement updateStatement = mDatabase.compileStatement(String.format(
+                    "UPDATE %s SET %s = ?, %s = ?, %s = ?, %s = ?, %s = ?, %s = ? WHERE %s = ?",
+                    TABLE_NAME, SECRET_COLUMN, TYPE_COLUMN, COUNTER_COLUMN, ALGORITHM_COLUMN,
+                    DIGITS_COLUMN, PERIOD_COLUMN, EMAIL_COLUMN));
+            SQLiteStatement insertStatement = mDatabase.compileStatement(String.format(
+                    "INSERT INTO %s (%s, %s, %s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                    TABLE_NAME, SECRET_COLUMN, TYPE_COLUMN, COUNTER_COLUMN, ALGORITHM_COLUMN,
+                    DIGITS_COLUMN, PERIOD_COLUMN, EMAIL_COLUMN));
+            mDatabase.beginTransaction();
+            try {
+                for (int i = 0; i < accounts.size(); i++) {
+                    Account account = accounts.get(i);
+                    bindAccount(updateStatement, account);
+                    if (updateStatement.executeUpdateDelete() == 0) {
+                        bindAccount(insertStatement, account);
+                        insertStatement.executeInsert();
+                        inserted++;
+                    }
+                    if (listener != null) {
+                        listener.onProgress(i + 1, accounts.size());
+                    }
+                }
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+                updateStatement.close();
+                insertStatement.close();
+            }
+            if (mSnapshot != null) {
+                mSnapshot = loadSnapshot();
+            }
+        }
+        fireAccountsReloaded();
+        return inserted;
+    }
+
+    /**
+     * Binds the key of an account to the parameters of a statement of {@link #bulkUpsert}: the
+     * secret, type, counter, algorithm, digits and period, followed by the name.
+     */
+    private static void bindAccount(SQLiteStatement statement, Account account) {
+        statement.bindString(1, account.getSecret());
+        statement.bindLong(2, account.getType().ordinal());
+        statement.bindLong(3, account.getCounter());
+        statement.bindLong(4, account.getAlgorithm().value);
+        statement.bindLong(5, account.getDigits());
+        statement.bindLong(6, account.getPeriod());
+        statement.bindString(7, account.getName());
+    }
+
+    /**
+     * Queries the specified columns of all accounts in display order.
+     */
+    private Cursor queryAccounts(String[] columns) {
+        return mDatabase.query(TABLE_NAME, columns, null, null, null, null, ORDER_COLUMN, null);
+    }
+
+    /**
+     * Gets the current snapshot of the accounts, loading it if this is the first read.
+     */
+    private Snapshot getSnapshot() {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            synchronized (mWriteLock) {
+                snapshot = mSnapshot;
+                if (snapshot == null) {
+                    snapshot = loadSnapshot();
+                    mSnapshot = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads all accounts from SQLite with a single query.
+     */
+    private Snapshot loadSnapshot() {
+        Cursor cursor = queryAccounts(ACCOUNT_COLUMNS);
+        try {
+            List<Account> accounts = new ArrayList<>();
+            List<Long> sortKeys = new ArrayList<>();
+            List<Long> ids = new ArrayList<>();
+            if (!cursorIsEmpty(cursor)) {
+                while (cursor.moveToNext()) {
+                    accounts.add(readAccount(cursor));
+                    sortKeys.add(cursor.isNull(ORDER_INDEX) ? null : cursor.getLong(ORDER_INDEX));
+                    ids.add(cursor.getLong(ID_INDEX));
+                }
+            }
+            return new Snapshot(accounts, sortKeys, ids);
+        } finally {
+            tryCloseCursor(cursor);
+        }
+    }
+
+    /**
+     * Replaces the snapshot with a copy in which an account is read again from SQLite, in the
+     * position it had before. Must be called while holding {@link #mWriteLock}.
+     *
+     * @param oldEmail name of the account in the current snapshot.
+     * @param email    name of the account in SQLite, which differs from {@code oldEmail} if the
+     *                 account was renamed, or {@code null} if it was deleted.
+     */
+    private void reloadAccount(String oldEmail, String email) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            // Not loaded yet, the first read loads the change
+            return;
+        }
+
+        Account account = null;
+        if (email != null) {
+            Cursor cursor = mDatabase.query(TABLE_NAME, ACCOUNT_COLUMNS, EMAIL_COLUMN + "= ?",
+                    new String[]{email}, null, null, null, "1");
+            try {
+                if (!cursorIsEmpty(cursor)) {
+                    cursor.moveToFirst();
+                    account = readAccount(cursor);
+                }
+            } finally {
+                tryCloseCursor(cursor);
+            }
         }
+
+        replaceAccount(snapshot, snapshot.accountsByName.get(oldEmail), account);
     }
 
-    private Cursor getNames() {
-        return mDatabase.query(TABLE_NAME, null, null, null, null, null, ORDER_COLUMN, null);
+    /**
+     * Replaces the snapshot with a copy in which an account is replaced or removed. Must be called
+     * while holding {@link #mWriteLock}.
+     *
+     * @param oldAccount account in the snapshot or {@code null} if it's not in the snapshot, in
+     *                   which case all accounts are read again.
+     * @param newAccount account to put in its place or {@code null} to remove it.
+     */
+    private void replaceAccount(Snapshot snapshot, Account oldAccount, Account newAccount) {
+        List<Account> accounts = new ArrayList<>(snapshot.accounts);
+        List<Long> sortKeys = new ArrayList<>(snapshot.sortKeys);
+        List<Long> ids = new ArrayList<>(snapshot.ids);
+        int index = accounts.indexOf(oldAccount);
+        if (index < 0) {
+            // The account wasn't in the snapshot, so it's not known where it's listed
+            mSnapshot = loadSnapshot();
+            return;
+        }
+        if (newAccount != null) {
+            // Updates, including renames, keep the row and so the ID
+            accounts.set(index, newAccount);
+        } else {
+            accounts.remove(index);
+            sortKeys.remove(index);
+            ids.remove(index);
+        }
+        mSnapshot = new Snapshot(accounts, sortKeys, ids);
     }
 
-    private Cursor getAccount(String email) {
-        return mDatabase.query(TABLE_NAME, null, EMAIL_COLUMN + "= ?",
-                new String[]{email}, null, null, ORDER_COLUMN);
+    /**
+     * Reads the account at the current position of a cursor over the {@link #ACCOUNT_COLUMNS}.
+     */
+    private static Account readAccount(Cursor cursor) {
+        return new Account(
+                cursor.getString(EMAIL_INDEX),
+                cursor.getString(SECRET_INDEX),
+                OtpType.getEnum(cursor.getInt(TYPE_INDEX)),
+                cursor.getInt(COUNTER_INDEX),
+                cursor.isNull(COLOR_INDEX) ? null : cursor.getInt(COLOR_INDEX),
+                Algorithm.getEnum(cursor.getInt(ALGORITHM_INDEX)),
+                cursor.getInt(DIGITS_INDEX),
+                cursor.getInt(PERIOD_INDEX),
+                cursor.getInt(PROVIDER_INDEX) == PROVIDER_GOOGLE);
     }
 
     /**
@@ -422,6 +1069,16 @@ public class AccountDb {
         }
     }
 
+    /**
+     * Gets all accounts in display order.
+     *
+     * @return an unmodifiable list.
+     */
+    @Override
+    public List<Account> getAllAccounts() {
+        return getSnapshot().accounts;
+    }
+
     /**
      * Get list of all account names.
      *
@@ -429,28 +1086,104 @@ public class AccountDb {
      *               clearing this collection on entry.
      * @return Number of accounts added to the output parameter.
      */
+    @Override
     public int getNames(Collection<String> result) {
-        Cursor cursor = getNames();
+        List<Account> accounts = getSnapshot().accounts;
+        for (Account account : accounts) {
+            result.add(account.getName());
+        }
+        return accounts.size();
+    }
 
-        try {
-            if (cursorIsEmpty(cursor))
-                return 0;
+    /**
+     * Immutable list of the accounts in display order, indexed by name, with their sort keys and
+     * IDs.
+     */
+    private static class Snapshot {
+        private final List<Account> accounts;
+        private final Map<String, Account> accountsByName = new HashMap<>();
+        private final Map<String, Long> idsByName = new HashMap<>();
 
-            int nameCount = cursor.getCount();
-            int index = cursor.getColumnIndex(AccountDb.EMAIL_COLUMN);
+        /**
+         * Sort keys of the {@link #accounts}, {@code null} for accounts that don't have one.
+         */
+        private final List<Long> sortKeys;
 
-            for (int i = 0; i < nameCount; ++i) {
-                cursor.moveToPosition(i);
-                String username = cursor.getString(index);
-                result.add(username);
-            }
+        /**
+         * IDs of the {@link #accounts}.
+         */
+        private final List<Long> ids;
 
-            return nameCount;
-        } finally {
-            tryCloseCursor(cursor);
+        private Snapshot(List<Account> accounts, List<Long> sortKeys, List<Long> ids) {
+            this.accounts = Collections.unmodifiableList(accounts);
+            this.sortKeys = Collections.unmodifiableList(sortKeys);
+            this.ids = Collections.unmodifiableList(ids);
+            for (int i = 0; i < accounts.size(); i++) {
+                Account account = accounts.get(i);
+                // Like the display order, the first of accounts with the same name wins
+                if (!accountsByName.containsKey(account.getName())) {
+                    accountsByName.put(account.getName(), account);
+                    idsByName.put(account.getName(), ids.get(i));
+                }
+            }
         }
     }
 
+    /**
+     * Listener notified about the accounts that changed, so that a list of accounts can be
+     * patched rather than rebuilt. Accounts are identified by their name, which is unique. Called
+     * on the thread that made the change, after the change is visible to reads.
+     * <p>
+     * Incrementing the HOTP counter of an account is not reported, since it changes nothing that
+     * is listed.
+     */
+    public interface AccountEventListener {
+        /**
+         * Called after an account is added.
+         */
+        void onAccountInserted(String email);
+
+        /**
+         * Called after an account is modified.
+         *
+         * @param oldEmail name of the account before the change.
+         * @param email    name of the account after the change, which differs from
+         *                 {@code oldEmail} if it was renamed.
+         */
+        void onAccountUpdated(String oldEmail, String email);
+
+        /**
+         * Called after an account is removed.
+         */
+        void onAccountDeleted(String email);
+
+        /**
+         * Called after an account is moved to another position in the display order.
+         */
+        void onAccountMoved(String email);
+
+        /**
+         * Called after any number of accounts may have been added, modified, removed or moved at
+         * once, for instance by an import.
+         */
+        void onAccountsReloaded();
+    }
+
+    /**
+     * Listener notified about the progress of {@link #bulkUpsert}. It's called while the database
+     * is locked, so it should only record the progress, for instance in an atomic variable, and
+     * leave posting it to other threads, let alone accessing the database, to the reader.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after an account is saved.
+         *
+         * @param done  number of accounts saved so far.
+         * @param total number of accounts to save.
+         */
+        void onProgress(int done, int total);
+    }
+
     private static class AccountDbOpenException extends RuntimeException {
         public AccountDbOpenException(String message, Exception e) {
             super(message, e);
@@ -0,0 +1,106 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Asynchronous facade of {@link AccountDb} that keeps database I/O off the main thread.
+ * <p>
+ * Operations run one at a time, in the order they were submitted, on a single background executor,
+ * so that a write is never overtaken by a later read or write. Their results are delivered on the
+ * callback executor, usually the main thread. The {@link AccountDb} itself is only obtained, and
+ * thus opened, on the background executor.
+ */
+public class AsyncAccountDb {
+    private static final String LOCAL_TAG = "AsyncAccountDb";
+
+    /**
+     * Operation on the {@link AccountDb}, run on the background executor.
+     */
+    public interface Operation<T> {
+        T run(AccountDb accountDb) throws Exception;
+    }
+
+    /**
+     * Receives the result of an {@link Operation} on the callback executor.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    private final Callable<AccountDb> mAccountDbFactory;
+    private final Executor mBackgroundExecutor;
+    private final Executor mCallbackExecutor;
+
+    /**
+     * @param accountDbFactory   gets the {@link AccountDb}, called on the background executor.
+     * @param backgroundExecutor executor running one operation at a time in submission order.
+     * @param callbackExecutor   executor on which results are delivered.
+     */
+    public AsyncAccountDb(Callable<AccountDb> accountDbFactory, Executor backgroundExecutor,
+                          Executor callbackExecutor) {
+        mAccountDbFactory = accountDbFactory;
+        mBackgroundExecutor = backgroundExecutor;
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Runs an operation and delivers its result or the exception it threw.
+     *
+     * @param callback      receives the result or {@code null} to ignore it.
+     * @param errorCallback receives the exception or {@code null} to only log it.
+     */
+    public <T> void submit(Operation<T> operation, Callback<? super T> callback,
+                           Callback<? super Exception> errorCallback) {
+        mBackgroundExecutor.execute(() -> {
+            T result;
+            try {
+                result = operation.run(mAccountDbFactory.call());
+            } catch (Exception e) {
+                Log.e(LOCAL_TAG, "Account database operation failed", e);
+                if (errorCallback != null) {
+                    mCallbackExecutor.execute(() -> errorCallback.onResult(e));
+                }
+                return;
+            }
+            if (callback != null) {
+                mCallbackExecutor.execute(() -> callback.onResult(result));
+            }
+        });
+    }
+
+    /**
+     * Runs an operation and delivers its result. Exceptions are logged.
+     */
+    public <T> void submit(Operation<T> operation, Callback<? super T> callback) {
+        submit(operation, callback, null);
+    }
+
+    /**
+     * Runs an operation whose result is not needed. Exceptions are logged.
+     */
+    public void execute(Operation<?> operation) {
+        submit(operation, null, null);
+    }
+
+    /**
+     * Runs a callback on the callback executor once all operations submitted so far are done, for
+     * instance to display accounts saved by another activity.
+     */
+    public void afterPendingOperations(Runnable callback) {
+        mBackgroundExecutor.execute(() -> mCallbackExecutor.execute(callback));
+    }
+
+    /**
+     * Shuts the background executor down if it's an {@link ExecutorService}, after the operations
+     * submitted so far are done.
+     */
+    public void close() {
+        if (mBackgroundExecutor instanceof ExecutorService) {
+            ((ExecutorService) mBackgroundExecutor).shutdown();
+        }
+    }
+}
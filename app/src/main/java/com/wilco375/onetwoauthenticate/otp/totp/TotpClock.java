@@ -29,7 +29,7 @@ import com.wilco375.onetwoauthenticate.util.Utilities;
  *
  * @author klyubin@google.com (Alex Klyubin)
  */
-public class TotpClock implements SharedPreferences.OnSharedPreferenceChangeListener {
+public class TotpClock implements SharedPreferences.OnSharedPreferenceChangeListener, Clock {
 
     // @VisibleForTesting
     static final String PREFERENCE_KEY_OFFSET_MINUTES = "timeCorrectionMinutes";
@@ -51,9 +51,7 @@ public class TotpClock implements SharedPreferences.OnSharedPreferenceChangeList
         mPreferences.registerOnSharedPreferenceChangeListener(this);
     }
 
-    /**
-     * Gets the number of milliseconds since epoch.
-     */
+    @Override
     public long currentTimeMillis() {
         return System.currentTimeMillis() + getTimeCorrectionMinutes() * Utilities.MINUTE_IN_MILLIS;
     }
@@ -21,57 +21,116 @@ import android.os.Handler;
 
 import com.wilco375.onetwoauthenticate.util.Utilities;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+
 /**
- * Task that periodically notifies its listener about the time remaining until the value of a TOTP
- * counter changes.
+ * Task that notifies its listener when the values of TOTP counters change. Accounts with different
+ * time steps use different counters, so a single task monitors all time steps.
+ * <p>
+ * The task only wakes up when a counter changes its value or when the look-ahead listener is due.
+ * The countdown indicators are animated separately by
+ * {@link com.wilco375.onetwoauthenticate.view.CountdownPhaseSource}.
  *
  * @author klyubin@google.com (Alex Klyubin)
  */
 public class TotpCountdownTask implements Runnable {
-    private final TotpCounter mCounter;
-    private final TotpClock mClock;
-    private final long mRemainingTimeNotificationPeriod;
+    private final Clock mClock;
     private final Handler mHandler = new Handler();
 
-    private long mLastSeenCounterValue = Long.MIN_VALUE;
+    private TotpCounter[] mCounters;
+    private long[] mLastSeenCounterValues;
+    private long mLastLookAheadTime = Long.MIN_VALUE;
+    private boolean mStarted;
     private boolean mShouldStop;
     private Listener mListener;
+    private long mLookAheadMillis;
+    private Executor mLookAheadExecutor;
+    private LookAheadListener mLookAheadListener;
 
     /**
-     * Listener notified of changes to the time remaining until the counter value changes.
+     * Listener notified when the counter values change.
      */
     public interface Listener {
 
         /**
-         * Invoked when the time remaining till the TOTP counter changes its value.
-         *
-         * @param millisRemaining time (milliseconds) remaining.
+         * Invoked when any of the TOTP counters changes its value.
          */
-        void onTotpCountdown(long millisRemaining);
+        void onTotpCounterValueChanged();
+    }
+
+    /**
+     * Listener notified shortly before a TOTP counter changes its value, so that work for the
+     * next value can be done ahead of time.
+     */
+    public interface LookAheadListener {
 
         /**
-         * Invoked when the TOTP counter changes its value.
+         * Invoked on the look-ahead {@link Executor} once per counter value change, when the time
+         * remaining till any TOTP counter changes its value drops below the look-ahead time.
+         *
+         * @param nextValueStartTime time (seconds since epoch) at which the next counter value
+         *                           starts.
          */
-        void onTotpCounterValueChanged();
+        void onTotpCounterValueApproaching(long nextValueStartTime);
     }
 
     /**
      * Constructs a new {@code TotpRefreshTask}.
      *
-     * @param counter                         TOTP counter this task monitors.
-     * @param clock                           TOTP clock that drives this task.
-     * @param remainingTimeNotificationPeriod approximate interval (milliseconds) at which this task
-     *                                        notifies its listener about the time remaining until the @{code counter} changes its
-     *                                        value.
+     * @param counter TOTP counter this task monitors.
+     * @param clock   TOTP clock that drives this task.
      */
-    public TotpCountdownTask(TotpCounter counter, TotpClock clock, long remainingTimeNotificationPeriod) {
-        mCounter = counter;
+    public TotpCountdownTask(TotpCounter counter, Clock clock) {
+        this(Collections.singleton(counter), clock);
+    }
+
+    /**
+     * Constructs a new {@code TotpRefreshTask} monitoring several counters.
+     *
+     * @param counters distinct TOTP counters this task monitors.
+     * @param clock    TOTP clock that drives this task.
+     */
+    public TotpCountdownTask(Collection<TotpCounter> counters, Clock clock) {
         mClock = clock;
-        mRemainingTimeNotificationPeriod = remainingTimeNotificationPeriod;
+        mCounters = counters.toArray(new TotpCounter[0]);
+        mLastSeenCounterValues = new long[mCounters.length];
+        for (int i = 0; i < mCounters.length; i++) {
+            mLastSeenCounterValues[i] = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Replaces the counters monitored by this task, for example when an account with a new time
+     * step has been added. Counters that were already monitored keep their state and the listener
+     * is not notified about the current values of new counters.
+     *
+     * @param counters distinct TOTP counters this task monitors.
+     */
+    public void setCounters(Collection<TotpCounter> counters) {
+        TotpCounter[] newCounters = counters.toArray(new TotpCounter[0]);
+        long[] newLastSeenCounterValues = new long[newCounters.length];
+        long now = mClock.currentTimeMillis();
+        for (int i = 0; i < newCounters.length; i++) {
+            newLastSeenCounterValues[i] = getCounterValue(newCounters[i], now);
+            for (int j = 0; j < mCounters.length; j++) {
+                if (mCounters[j] == newCounters[i]) {
+                    newLastSeenCounterValues[i] = mLastSeenCounterValues[j];
+                }
+            }
+        }
+        mCounters = newCounters;
+        mLastSeenCounterValues = newLastSeenCounterValues;
+
+        if (mStarted && !mShouldStop) {
+            // A new counter may change its value before the next scheduled invocation
+            scheduleNextInvocation();
+        }
     }
 
     /**
-     * Sets the listener that this task will periodically notify about the state of the TOTP counter.
+     * Sets the listener that this task will notify when the TOTP counters change their values.
      *
      * @param listener listener or {@code null} for no listener.
      */
@@ -79,6 +138,22 @@ public class TotpCountdownTask implements Runnable {
         mListener = listener;
     }
 
+    /**
+     * Sets the listener that this task notifies shortly before a counter changes its value.
+     *
+     * @param lookAheadMillis time (milliseconds) before a counter changes its value at which the
+     *                        listener is notified.
+     * @param executor        executor on which the listener is notified, typically a background
+     *                        thread.
+     * @param listener        listener or {@code null} for no listener.
+     */
+    public void setLookAheadListener(long lookAheadMillis, Executor executor,
+                                     LookAheadListener listener) {
+        mLookAheadMillis = lookAheadMillis;
+        mLookAheadExecutor = executor;
+        mLookAheadListener = listener;
+    }
+
     /**
      * Starts this task and immediately notifies the listener that the counter value has changed.
      * <p>
@@ -92,6 +167,7 @@ public class TotpCountdownTask implements Runnable {
             throw new IllegalStateException("Task already stopped and cannot be restarted.");
         }
 
+        mStarted = true;
         run();
     }
 
@@ -100,6 +176,7 @@ public class TotpCountdownTask implements Runnable {
      */
     public void stop() {
         mShouldStop = true;
+        mHandler.removeCallbacks(this);
     }
 
     @Override
@@ -108,29 +185,60 @@ public class TotpCountdownTask implements Runnable {
             return;
         }
 
+        // The listener may replace the counters
+        TotpCounter[] counters = mCounters;
+        long[] lastSeenCounterValues = mLastSeenCounterValues;
+
         long now = mClock.currentTimeMillis();
-        long counterValue = getCounterValue(now);
-        if (mLastSeenCounterValue != counterValue) {
-            mLastSeenCounterValue = counterValue;
+        boolean counterValueChanged = false;
+        long nextValueStartTime = Long.MAX_VALUE;
+        for (int i = 0; i < counters.length; i++) {
+            long counterValue = getCounterValue(counters[i], now);
+            if (lastSeenCounterValues[i] != counterValue) {
+                lastSeenCounterValues[i] = counterValue;
+                counterValueChanged = true;
+            }
+            nextValueStartTime = Math.min(nextValueStartTime,
+                    now + getTimeTillNextCounterValue(counters[i], now));
+        }
+        if (counterValueChanged) {
             fireTotpCounterValueChanged();
         }
-        fireTotpCountdown(getTimeTillNextCounterValue(now));
+        if (nextValueStartTime - now <= mLookAheadMillis
+                && mLastLookAheadTime != nextValueStartTime) {
+            mLastLookAheadTime = nextValueStartTime;
+            fireTotpCounterValueApproaching(Utilities.millisToSeconds(nextValueStartTime));
+        }
 
-        scheduleNextInvocation();
+        if (!mShouldStop) {
+            scheduleNextInvocation();
+        }
     }
 
+    /**
+     * Schedules the next invocation for when a counter changes its value or the look-ahead
+     * listener is due, whichever comes first. Replaces the invocation scheduled before, which
+     * may not have run yet when the counters are replaced by the listener.
+     */
     private void scheduleNextInvocation() {
+        mHandler.removeCallbacks(this);
         long now = mClock.currentTimeMillis();
-        long counterValueAge = getCounterValueAge(now);
-        long timeTillNextInvocation =
-                mRemainingTimeNotificationPeriod - (counterValueAge % mRemainingTimeNotificationPeriod);
-        mHandler.postDelayed(this, timeTillNextInvocation);
-    }
-
-    private void fireTotpCountdown(long timeRemaining) {
-        if ((mListener != null) && (!mShouldStop)) {
-            mListener.onTotpCountdown(timeRemaining);
+        long nextValueStartTime = Long.MAX_VALUE;
+        for (TotpCounter counter : mCounters) {
+            nextValueStartTime = Math.min(nextValueStartTime,
+                    now + getTimeTillNextCounterValue(counter, now));
         }
+        if (nextValueStartTime == Long.MAX_VALUE) {
+            // Nothing to monitor until counters are set
+            return;
+        }
+        long nextInvocationTime = nextValueStartTime;
+        long lookAheadTime = nextValueStartTime - mLookAheadMillis;
+        if (mLookAheadListener != null && mLastLookAheadTime != nextValueStartTime
+                && lookAheadTime > now) {
+            nextInvocationTime = lookAheadTime;
+        }
+        mHandler.postDelayed(this, nextInvocationTime - now);
     }
 
     private void fireTotpCounterValueChanged() {
@@ -139,13 +247,21 @@ public class TotpCountdownTask implements Runnable {
         }
     }
 
+    private void fireTotpCounterValueApproaching(final long nextValueStartTime) {
+        final LookAheadListener listener = mLookAheadListener;
+        if ((listener != null) && (!mShouldStop)) {
+            mLookAheadExecutor.execute(
+                    () -> listener.onTotpCounterValueApproaching(nextValueStartTime));
+        }
+    }
+
     /**
      * Gets the value of the counter at the specified time instant.
      *
      * @param time time instant (milliseconds since epoch).
      */
-    private long getCounterValue(long time) {
-        return mCounter.getValueAtTime(Utilities.millisToSeconds(time));
+    private static long getCounterValue(TotpCounter counter, long time) {
+        return counter.getValueAtTime(Utilities.millisToSeconds(time));
     }
 
     /**
@@ -154,20 +270,10 @@ public class TotpCountdownTask implements Runnable {
      * @param time time instant (milliseconds since epoch) for which to perform the query.
      * @return time (milliseconds) till next value.
      */
-    private long getTimeTillNextCounterValue(long time) {
-        long currentValue = getCounterValue(time);
+    private static long getTimeTillNextCounterValue(TotpCounter counter, long time) {
+        long currentValue = getCounterValue(counter, time);
         long nextValue = currentValue + 1;
-        long nextValueStartTime = Utilities.secondsToMillis(mCounter.getValueStartTime(nextValue));
+        long nextValueStartTime = Utilities.secondsToMillis(counter.getValueStartTime(nextValue));
         return nextValueStartTime - time;
     }
-
-    /**
-     * Gets the age of the counter value at the specified time instant.
-     *
-     * @param time time instant (milliseconds since epoch).
-     * @return age (milliseconds).
-     */
-    private long getCounterValueAge(long time) {
-        return time - Utilities.secondsToMillis(mCounter.getValueStartTime(getCounterValue(time)));
-    }
 }
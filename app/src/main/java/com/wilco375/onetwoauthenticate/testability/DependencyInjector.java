@@ -19,19 +19,28 @@ package com.wilco375.onetwoauthenticate.testability;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.test.RenamingDelegatingContext;
 
 import com.wilco375.onetwoauthenticate.database.AccountDb;
+import com.wilco375.onetwoauthenticate.database.AsyncAccountDb;
 import com.wilco375.onetwoauthenticate.activity.AuthenticatorActivity;
 import com.wilco375.onetwoauthenticate.MarketBuildOptionalFeatures;
 import com.wilco375.onetwoauthenticate.OptionalFeatures;
 import com.wilco375.onetwoauthenticate.otp.OtpSource;
 import com.wilco375.onetwoauthenticate.otp.totp.TotpClock;
+import com.wilco375.onetwoauthenticate.util.IconCache;
+import com.wilco375.onetwoauthenticate.util.Utilities;
 
 import org.apache.http.client.HttpClient;
 import org.apache.http.conn.ClientConnectionManager;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 
 /**
  * Dependency injector that decouples the clients of various objects from their
@@ -51,9 +60,17 @@ import org.apache.http.conn.ClientConnectionManager;
  */
 public final class DependencyInjector {
 
+    /**
+     * Size (dp) of the icons of the accounts in the list, see {@code user_row.xml}.
+     */
+    private static final int LIST_ICON_SIZE_DP = 70;
+
     private static Context sContext;
 
     private static AccountDb sAccountDb;
+    private static AsyncAccountDb sAsyncAccountDb;
+    private static Executor sCodeExecutor;
+    private static IconCache sIconCache;
     private static OtpSource sOtpProvider;
     private static TotpClock sTotpClock;
     private static PackageManager sPackageManager;
@@ -98,10 +115,68 @@ public final class DependencyInjector {
             if (sMode != Mode.PRODUCTION) {
                 sAccountDb.deleteAllData();
             }
+            getIconCache().deleteIconsOfRemovedAccounts(sAccountDb);
         }
         return sAccountDb;
     }
 
+    /**
+     * Sets the {@link AsyncAccountDb} instance returned by this injector. This will prevent the
+     * injector from creating its own instance.
+     */
+    public static synchronized void setAsyncAccountDb(AsyncAccountDb asyncAccountDb) {
+        if (sAsyncAccountDb != null) {
+            sAsyncAccountDb.close();
+        }
+        sAsyncAccountDb = asyncAccountDb;
+    }
+
+    /**
+     * Gets the {@link AsyncAccountDb} over the {@link AccountDb} returned by {@link #getAccountDb()}.
+     * Its operations run on a single background thread and their results are delivered on the main
+     * thread, except during integration tests, where both happen right away on the calling thread.
+     */
+    public static synchronized AsyncAccountDb getAsyncAccountDb() {
+        if (sAsyncAccountDb == null) {
+            if (sMode == Mode.PRODUCTION) {
+                sAsyncAccountDb = new AsyncAccountDb(
+                        DependencyInjector::getAccountDb,
+                        Executors.newSingleThreadExecutor(),
+                        new Handler(Looper.getMainLooper())::post);
+            } else {
+                sAsyncAccountDb = new AsyncAccountDb(
+                        DependencyInjector::getAccountDb, Runnable::run, Runnable::run);
+            }
+        }
+        return sAsyncAccountDb;
+    }
+
+    /**
+     * Gets the executor on which the codes of the listed accounts are computed. It runs one task
+     * at a time on a background thread, except during integration tests, where tasks run right
+     * away on the calling thread.
+     */
+    public static synchronized Executor getCodeExecutor() {
+        if (sCodeExecutor == null) {
+            sCodeExecutor = (sMode == Mode.PRODUCTION)
+                    ? Executors.newSingleThreadExecutor() : Runnable::run;
+        }
+        return sCodeExecutor;
+    }
+
+    /**
+     * Gets the cache of the icons of the accounts in the list. Icons are decoded and stored on the
+     * {@link #getCodeExecutor() code executor} and take up at most a sixteenth of the heap.
+     */
+    public static synchronized IconCache getIconCache() {
+        if (sIconCache == null) {
+            int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, Integer.MAX_VALUE);
+            sIconCache = new IconCache(getContext(), Utilities.dpToPx(LIST_ICON_SIZE_DP), maxBytes,
+                    getCodeExecutor());
+        }
+        return sIconCache;
+    }
+
     /**
      * Sets the {@link OtpSource} instance returned by this injector. This will prevent the injector
      * from creating its own instance.
@@ -234,6 +309,12 @@ public final class DependencyInjector {
      * {@link #resetForIntegrationTesting(Context)}.
      */
     public static synchronized void close() {
+        if (sAsyncAccountDb != null) {
+            sAsyncAccountDb.close();
+        }
+        if (sCodeExecutor instanceof ExecutorService) {
+            ((ExecutorService) sCodeExecutor).shutdown();
+        }
         if (sAccountDb != null) {
             sAccountDb.close();
         }
@@ -247,6 +328,9 @@ public final class DependencyInjector {
         sMode = null;
         sContext = null;
         sAccountDb = null;
+        sAsyncAccountDb = null;
+        sCodeExecutor = null;
+        sIconCache = null;
         sOtpProvider = null;
         sTotpClock = null;
         sPackageManager = null;
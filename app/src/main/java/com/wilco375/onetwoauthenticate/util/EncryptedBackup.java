@@ -0,0 +1,377 @@
+package com.wilco375.onetwoauthenticate.util;
+
+import android.os.Build;
+
+import com.wilco375.onetwoauthenticate.otp.HmacSigner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Password based encryption of backups in a versioned container that can be written and read as a
+ * stream.
+ * <p>
+ * The container starts with a header: the {@link #MAGIC} bytes, the version, the number of
+ * PBKDF2-HMAC-SHA256 iterations, the salt, the nonce prefix and the chunk size. The plaintext
+ * follows in chunks of the chunk size, each encrypted separately with AES-256-GCM, so that only
+ * one chunk at a time is kept in memory and authenticated before any of it is returned. The nonce
+ * of a chunk consists of the nonce prefix, the index of the chunk and a flag marking the last
+ * chunk, which is always shorter than the chunk size and may be empty. Reordered, truncated or
+ * extended backups therefore fail to decrypt. The other header fields are bound to the chunks
+ * through the key and the chunk boundaries.
+ */
+public class EncryptedBackup {
+    /**
+     * Bytes the container starts with.
+     */
+    static final byte[] MAGIC = {'1', '2', 'A', 'B'};
+
+    private static final int VERSION = 1;
+
+    /**
+     * Number of PBKDF2 iterations of new backups.
+     */
+    public static final int DEFAULT_ITERATIONS = 100000;
+
+    /**
+     * Number of plaintext bytes per chunk of new backups.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Limits on the header fields of backups being read, so that a corrupt header doesn't make
+     * decryption take forever or run out of memory.
+     */
+    private static final int MAX_ITERATIONS = 100 * DEFAULT_ITERATIONS;
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
+    private static final int SALT_LENGTH = 16;
+    private static final int NONCE_PREFIX_LENGTH = 7;
+    private static final int NONCE_LENGTH = NONCE_PREFIX_LENGTH + 5;
+    private static final int KEY_LENGTH = 32;
+    private static final int TAG_LENGTH = 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    /**
+     * Hidden constructor to prevent instantiation.
+     */
+    private EncryptedBackup() {
+    }
+
+    /**
+     * Wraps a stream so that the bytes written to it are encrypted with the default number of
+     * iterations and chunk size. The returned stream must be closed to write the last chunk.
+     */
+    public static OutputStream encrypt(OutputStream out, String password) throws IOException {
+        return encrypt(out, password, DEFAULT_ITERATIONS, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Wraps a stream so that the bytes written to it are encrypted. The header is written right
+     * away. The returned stream must be closed to write the last chunk.
+     *
+     * @param iterations number of PBKDF2 iterations deriving the key from the password.
+     * @param chunkSize  number of plaintext bytes per chunk.
+     */
+    public static OutputStream encrypt(OutputStream out, String password, int iterations,
+                                       int chunkSize) throws IOException {
+        if (iterations < 1 || iterations > MAX_ITERATIONS) {
+            throw new IllegalArgumentException("Invalid number of iterations: " + iterations);
+        }
+        if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+        SecureRandom random = new SecureRandom();
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        random.nextBytes(noncePrefix);
+
+        DataOutputStream header = new DataOutputStream(out);
+        header.write(MAGIC);
+        header.writeByte(VERSION);
+        header.writeInt(iterations);
+        header.write(salt);
+        header.write(noncePrefix);
+        header.writeInt(chunkSize);
+
+        return new ChunkOutputStream(out, deriveKey(password, salt, iterations), noncePrefix,
+                chunkSize);
+    }
+
+    /**
+     * Wraps a stream so that the bytes read from it are decrypted. The header is read right away,
+     * the chunks as they are needed.
+     *
+     * @throws IOException if the header could not be read or is invalid. Reading from the returned
+     *                     stream throws an {@link IOException} if the password is wrong or the
+     *                     backup is corrupt.
+     */
+    public static InputStream decrypt(InputStream in, String password) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        byte[] magic = new byte[MAGIC.length];
+        header.readFully(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException("Not an encrypted backup");
+        }
+        int version = header.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported backup version: " + version);
+        }
+        int iterations = header.readInt();
+        if (iterations < 1 || iterations > MAX_ITERATIONS) {
+            throw new IOException("Invalid number of iterations: " + iterations);
+        }
+        byte[] salt = new byte[SALT_LENGTH];
+        header.readFully(salt);
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        header.readFully(noncePrefix);
+        int chunkSize = header.readInt();
+        if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IOException("Invalid chunk size: " + chunkSize);
+        }
+
+        return new ChunkInputStream(in, deriveKey(password, salt, iterations), noncePrefix,
+                chunkSize);
+    }
+
+    /**
+     * Derives the AES key from the password with PBKDF2-HMAC-SHA256 (RFC 8018).
+     */
+    private static Key deriveKey(String password, byte[] salt, int iterations) {
+        return new SecretKeySpec(pbkdf2(password.getBytes(UTF_8), salt, iterations), "AES");
+    }
+
+    /**
+     * Computes the first block of PBKDF2-HMAC-SHA256, which is {@link #KEY_LENGTH} bytes long.
+     * Implemented with {@link HmacSigner}, because {@code PBKDF2WithHmacSHA256} is only available
+     * from API level 26, and the iterations don't allocate any memory this way.
+     */
+    // @VisibleForTesting
+    static byte[] pbkdf2(byte[] password, byte[] salt, int iterations) {
+        HmacSigner prf;
+        try {
+            prf = HmacSigner.getInstance("HmacSHA256", password);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("HmacSHA256 not supported", e);
+        }
+        byte[] u = new byte[KEY_LENGTH];
+        byte[] next = new byte[KEY_LENGTH];
+        prf.update(salt, 0, salt.length);
+        prf.update(new byte[]{0, 0, 0, 1}, 0, 4);
+        prf.doFinal(u);
+
+        byte[] key = u.clone();
+        for (int i = 1; i < iterations; i++) {
+            prf.sign(u, next);
+            byte[] previous = u;
+            u = next;
+            next = previous;
+            for (int j = 0; j < KEY_LENGTH; j++) {
+                key[j] ^= u[j];
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Creates a cipher for a chunk.
+     *
+     * @param nonce nonce prefix followed by space for the index and the last chunk flag, which
+     *              are filled in.
+     */
+    private static Cipher chunkCipher(int mode, Key key, byte[] nonce, int index, boolean last)
+            throws GeneralSecurityException {
+        nonce[NONCE_PREFIX_LENGTH] = (byte) (index >>> 24);
+        nonce[NONCE_PREFIX_LENGTH + 1] = (byte) (index >>> 16);
+        nonce[NONCE_PREFIX_LENGTH + 2] = (byte) (index >>> 8);
+        nonce[NONCE_PREFIX_LENGTH + 3] = (byte) index;
+        nonce[NONCE_PREFIX_LENGTH + 4] = (byte) (last ? 1 : 0);
+
+        AlgorithmParameterSpec spec;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            spec = new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+        } else {
+            // GCMParameterSpec was added in API level 19, before that the provider takes the nonce
+            // as IV and uses 128-bit tags
+            spec = new IvParameterSpec(nonce);
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(mode, key, spec);
+        return cipher;
+    }
+
+    /**
+     * Buffers a chunk of plaintext and writes it encrypted when it's full.
+     */
+    private static class ChunkOutputStream extends FilterOutputStream {
+        private final Key mKey;
+        private final byte[] mNonce;
+        private final byte[] mChunk;
+        private final byte[] mEncrypted;
+        private int mLength;
+        private int mIndex;
+        private boolean mClosed;
+
+        private ChunkOutputStream(OutputStream out, Key key, byte[] noncePrefix, int chunkSize) {
+            super(out);
+            mKey = key;
+            mNonce = Arrays.copyOf(noncePrefix, NONCE_LENGTH);
+            mChunk = new byte[chunkSize];
+            mEncrypted = new byte[chunkSize + TAG_LENGTH];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) throws IOException {
+            if (mClosed) {
+                throw new IOException("Stream closed");
+            }
+            while (length > 0) {
+                // A full chunk is only written once more bytes follow, because the last chunk
+                // must be shorter than the chunk size
+                if (mLength == mChunk.length) {
+                    writeChunk(false);
+                }
+                int copied = Math.min(length, mChunk.length - mLength);
+                System.arraycopy(b, offset, mChunk, mLength, copied);
+                mLength += copied;
+                offset += copied;
+                length -= copied;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            if (mLength == mChunk.length) {
+                writeChunk(false);
+            }
+            writeChunk(true);
+            mClosed = true;
+            super.close();
+        }
+
+        private void writeChunk(boolean last) throws IOException {
+            int length;
+            try {
+                length = chunkCipher(Cipher.ENCRYPT_MODE, mKey, mNonce, mIndex, last)
+                        .doFinal(mChunk, 0, mLength, mEncrypted, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Failed to encrypt backup", e);
+            }
+            out.write(mEncrypted, 0, length);
+            mLength = 0;
+            mIndex++;
+        }
+    }
+
+    /**
+     * Reads and decrypts a chunk at a time.
+     */
+    private static class ChunkInputStream extends InputStream {
+        private final DataInputStream mIn;
+        private final Key mKey;
+        private final byte[] mNonce;
+        private final byte[] mEncrypted;
+        private final byte[] mChunk;
+
+        /**
+         * Number of decrypted bytes in {@link #mChunk} and how many of them have been read.
+         */
+        private int mLength;
+        private int mPosition;
+        private int mIndex;
+        private boolean mLastChunkRead;
+
+        private ChunkInputStream(InputStream in, Key key, byte[] noncePrefix, int chunkSize) {
+            mIn = new DataInputStream(in);
+            mKey = key;
+            mNonce = Arrays.copyOf(noncePrefix, NONCE_LENGTH);
+            mEncrypted = new byte[chunkSize + TAG_LENGTH];
+            mChunk = new byte[chunkSize];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) == 1) ? (b[0] & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (mPosition == mLength) {
+                if (mLastChunkRead) {
+                    return -1;
+                }
+                readChunk();
+            }
+            int copied = Math.min(length, mLength - mPosition);
+            System.arraycopy(mChunk, mPosition, b, offset, copied);
+            mPosition += copied;
+            return copied;
+        }
+
+        @Override
+        public int available() {
+            return mLength - mPosition;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+
+        private void readChunk() throws IOException {
+            int read = 0;
+            while (read < mEncrypted.length) {
+                int count = mIn.read(mEncrypted, read, mEncrypted.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            // Only the last chunk is shorter than a full one
+            boolean last = read < mEncrypted.length;
+            if (last && read < TAG_LENGTH) {
+                throw new EOFException("Truncated backup");
+            }
+            try {
+                mLength = chunkCipher(Cipher.DECRYPT_MODE, mKey, mNonce, mIndex, last)
+                        .doFinal(mEncrypted, 0, read, mChunk, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Wrong password or corrupt backup", e);
+            }
+            mPosition = 0;
+            mIndex++;
+            mLastChunkRead = last;
+        }
+    }
+}
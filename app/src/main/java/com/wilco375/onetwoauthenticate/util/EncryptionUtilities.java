@@ -1,20 +1,29 @@
 package com.wilco375.onetwoauthenticate.util;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
+import java.util.Arrays;
 
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
 import javax.crypto.spec.SecretKeySpec;
 
 public class EncryptionUtilities {
     private EncryptionUtilities() {
     }
 
+    /**
+     * Encrypts with AES in ECB mode and a key hashed from the password, the format of exports of
+     * older versions. New exports are encrypted with {@link #encrypt(OutputStream, String)}.
+     */
+    @Deprecated
     public static byte[] encrypt(String toEncrypt, String encryptWith) {
         try {
-            SecretKeySpec secret = new SecretKeySpec(getKeyForPassword(encryptWith), "AES");
-            Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
-            cipher.init(Cipher.ENCRYPT_MODE, secret);
+            Cipher cipher = getCipher(Cipher.ENCRYPT_MODE, encryptWith);
 
             return cipher.doFinal(toEncrypt.getBytes());
         } catch (GeneralSecurityException e) {
@@ -23,11 +32,12 @@ public class EncryptionUtilities {
         }
     }
 
+    /**
+     * Decrypts data encrypted with {@link #encrypt(String, String)}.
+     */
     public static String decrypt(byte[] toDecrypt, String decryptWith) {
         try {
-            SecretKeySpec secret = new SecretKeySpec(getKeyForPassword(decryptWith), "AES");
-            Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
-            cipher.init(Cipher.DECRYPT_MODE, secret);
+            Cipher cipher = getCipher(Cipher.DECRYPT_MODE, decryptWith);
 
             byte[] output = cipher.doFinal(toDecrypt);
 
@@ -38,6 +48,59 @@ public class EncryptionUtilities {
         }
     }
 
+    /**
+     * Wraps a stream so that the bytes written to it are encrypted with {@link EncryptedBackup},
+     * unless the password is empty. The returned stream must be closed to write the last chunk.
+     */
+    public static OutputStream encrypt(OutputStream toEncrypt, String encryptWith)
+            throws IOException {
+        if (encryptWith.isEmpty()) {
+            return toEncrypt;
+        }
+        return EncryptedBackup.encrypt(toEncrypt, encryptWith);
+    }
+
+    /**
+     * Wraps a stream so that the bytes read from it are decrypted, unless the password is empty.
+     * Both {@link EncryptedBackup} containers and data encrypted in the legacy format of
+     * {@link #encrypt(String, String)} are decrypted.
+     */
+    public static InputStream decrypt(InputStream toDecrypt, String decryptWith)
+            throws IOException {
+        if (decryptWith.isEmpty()) {
+            return toDecrypt;
+        }
+        InputStream in = toDecrypt.markSupported()
+                ? toDecrypt : new BufferedInputStream(toDecrypt);
+        byte[] magic = new byte[EncryptedBackup.MAGIC.length];
+        in.mark(magic.length);
+        int read = 0;
+        while (read < magic.length) {
+            int count = in.read(magic, read, magic.length - read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        in.reset();
+        if (Arrays.equals(EncryptedBackup.MAGIC, magic)) {
+            return EncryptedBackup.decrypt(in, decryptWith);
+        }
+
+        try {
+            return new CipherInputStream(in, getCipher(Cipher.DECRYPT_MODE, decryptWith));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to decrypt legacy backup", e);
+        }
+    }
+
+    private static Cipher getCipher(int mode, String password) throws GeneralSecurityException {
+        SecretKeySpec secret = new SecretKeySpec(getKeyForPassword(password), "AES");
+        Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
+        cipher.init(mode, secret);
+        return cipher;
+    }
+
     private static byte[] getKeyForPassword(String password) throws GeneralSecurityException {
         if (password.length() == 0) throw new GeneralSecurityException("Password is empty");
 
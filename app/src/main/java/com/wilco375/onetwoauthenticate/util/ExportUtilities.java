@@ -0,0 +1,154 @@
+package com.wilco375.onetwoauthenticate.util;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.wilco375.onetwoauthenticate.database.Account;
+import com.wilco375.onetwoauthenticate.database.AccountDb;
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Writes accounts to and reads them from exports: JSON arrays with an object per account,
+ * encrypted with {@link EncryptionUtilities} if a password is given. The accounts are streamed,
+ * so that no copy of the whole export is kept in memory.
+ */
+public class ExportUtilities {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String EMAIL = "email";
+    private static final String SECRET = "secret";
+    private static final String COUNTER = "counter";
+    private static final String TYPE = "type";
+    private static final String COLOR = "color";
+    private static final String ALGORITHM = "algorithm";
+    private static final String DIGITS = "digits";
+    private static final String PERIOD = "period";
+
+    /**
+     * Hidden constructor to prevent instantiation.
+     */
+    private ExportUtilities() {
+    }
+
+    /**
+     * Writes an export of the accounts to a stream, which is closed afterwards.
+     *
+     * @param password password to encrypt the export with, or empty string to not encrypt it.
+     */
+    public static void writeAccounts(Collection<Account> accounts, OutputStream out,
+                                     String password) throws IOException {
+        try (OutputStream buffered = new BufferedOutputStream(out, BUFFER_SIZE);
+             JsonWriter writer = new JsonWriter(new OutputStreamWriter(
+                     EncryptionUtilities.encrypt(buffered, password), UTF_8))) {
+            writer.beginArray();
+            for (Account account : accounts) {
+                writer.beginObject();
+                writer.name(EMAIL).value(account.getName());
+                writer.name(SECRET).value(account.getSecret());
+                writer.name(COUNTER).value(account.getCounter());
+                writer.name(TYPE).value(account.getType().toString());
+                if (account.getColor() != null) {
+                    writer.name(COLOR).value(account.getColor());
+                }
+                writer.name(ALGORITHM).value(account.getAlgorithm().name());
+                writer.name(DIGITS).value(account.getDigits());
+                writer.name(PERIOD).value(account.getPeriod());
+                writer.endObject();
+            }
+            writer.endArray();
+        }
+    }
+
+    /**
+     * Reads the accounts of an export from a stream, which is closed afterwards. The colors of
+     * the accounts are not read.
+     *
+     * @param password password to decrypt the export with, or empty string if it is not encrypted.
+     * @throws IOException if the export could not be read or parsed, for instance because the
+     *                     password is wrong.
+     */
+    public static List<Account> readAccounts(InputStream in, String password) throws IOException {
+        List<Account> accounts = new ArrayList<>();
+        try (InputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+             JsonReader reader = new JsonReader(new InputStreamReader(
+                     EncryptionUtilities.decrypt(buffered, password), UTF_8))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                accounts.add(readAccount(reader));
+            }
+            reader.endArray();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // Unknown type or algorithm, or a value of the wrong type
+            throw new IOException("Invalid export", e);
+        }
+        return accounts;
+    }
+
+    private static Account readAccount(JsonReader reader) throws IOException {
+        String email = null;
+        String secret = null;
+        Integer counter = null;
+        OtpType type = null;
+        // Exports of older versions don't contain the algorithm, digits and period
+        Algorithm algorithm = null;
+        int digits = AccountDb.DEFAULT_DIGITS;
+        int period = AccountDb.DEFAULT_PERIOD;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case EMAIL:
+                    email = reader.nextString();
+                    break;
+                case SECRET:
+                    secret = reader.nextString();
+                    break;
+                case COUNTER:
+                    counter = reader.nextInt();
+                    break;
+                case TYPE:
+                    type = OtpType.valueOf(reader.nextString());
+                    break;
+                case ALGORITHM:
+                    algorithm = Algorithm.fromName(reader.nextString());
+                    break;
+                case DIGITS:
+                    digits = reader.nextInt();
+                    break;
+                case PERIOD:
+                    period = reader.nextInt();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (email == null || secret == null || counter == null || type == null) {
+            throw new IOException("Incomplete account in export");
+        }
+        return new Account(email, secret, type, counter, null,
+                (algorithm != null) ? algorithm : Algorithm.SHA1, digits, period);
+    }
+}
@@ -26,12 +26,13 @@ import android.system.Os;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Set;
 
 /**
  * A class for handling file system related methods, such as setting permissions.
@@ -42,35 +43,186 @@ public class FileUtilities {
 
     private static String ICONS_DIR = "icons";
 
+    /**
+     * Size (pixels) of the icons of the app shortcuts of the accounts.
+     */
+    public static final int SHORTCUT_ICON_SIZE = 48;
+
+    /**
+     * Variants of the icon of an account. Each is stored scaled to the size at which it's
+     * displayed when the icon is saved, so that reading it doesn't have to scale it again.
+     */
+    public enum IconVariant {
+        /**
+         * Icon in the account list, scaled to fit the size of the icons in the list.
+         */
+        LIST,
+        /**
+         * Icon of the app shortcut of the account, {@link #SHORTCUT_ICON_SIZE} pixels square.
+         */
+        SHORTCUT
+    }
+
     /**
      * Hidden constructor to prevent instantiation.
      */
     private FileUtilities() {
     }
 
-    public static void saveBitmap(Context context, String name, Bitmap bitmap) {
-        ContextWrapper contextWrapper = new ContextWrapper(context);
-        File dir = contextWrapper.getDir(ICONS_DIR, Context.MODE_PRIVATE);
-        File path = new File(dir, getMD5(name) + ".png");
-        try (FileOutputStream stream = new FileOutputStream(path)) {
-            bitmap.compress(Bitmap.CompressFormat.PNG, 80, stream);
+    /**
+     * Stores a variant of the icon of an account, replacing the previous one. Icons are stored as
+     * PNG, which keeps their transparency and decodes quickly at these sizes. The file is
+     * replaced at once, so readers never see a partially written icon.
+     *
+     * @param accountId ID of the account, see
+     *                  {@link com.wilco375.onetwoauthenticate.database.AccountDb#getId(String)}.
+     */
+    public static void saveIcon(Context context, long accountId, IconVariant variant,
+                                Bitmap icon) {
+        File path = getIconFile(context, accountId, variant);
+        File tempPath = new File(path.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(tempPath)) {
+            icon.compress(Bitmap.CompressFormat.PNG, 100, stream);
         } catch (IOException e) {
             e.printStackTrace();
+            tempPath.delete();
+            return;
+        }
+        if (!tempPath.renameTo(path)) {
+            Log.e("FileUtils", "Could not store icon " + path.getName());
+            tempPath.delete();
         }
     }
 
-    public static Bitmap getBitmap(Context context, String name) {
-        ContextWrapper contextWrapper = new ContextWrapper(context);
-        File dir = contextWrapper.getDir(ICONS_DIR, Context.MODE_PRIVATE);
-        File path = new File(dir, getMD5(name) + ".png");
-        if (path.exists()) {
-            try (FileInputStream stream = new FileInputStream(path)) {
-                return BitmapFactory.decodeStream(stream);
-            } catch (IOException e) {
-                e.printStackTrace();
+    /**
+     * Decodes a variant of the icon of an account, at the size at which it was stored.
+     *
+     * @return the icon or {@code null} if the account has no icon.
+     */
+    public static Bitmap getIcon(Context context, long accountId, IconVariant variant) {
+        File path = getIconFile(context, accountId, variant);
+        if (!path.exists()) {
+            return null;
+        }
+        return BitmapFactory.decodeFile(path.getPath());
+    }
+
+    /**
+     * Removes all variants of the icons of accounts that no longer exist.
+     *
+     * @param accountIds IDs of the accounts whose icons are kept.
+     */
+    public static void deleteIconsExcept(Context context, Set<Long> accountIds) {
+        File[] files = getIconsDir(context).listFiles((dir, fileName) -> {
+            int separator = fileName.indexOf('-');
+            if (separator < 0 || !fileName.endsWith(".png")) {
+                // Legacy icons are handled by deleteLegacyBitmaps
+                return false;
+            }
+            try {
+                return !accountIds.contains(Long.parseLong(fileName.substring(0, separator)));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        });
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Scales a bitmap down to fit a square of the specified size, keeping its aspect ratio.
+     *
+     * @param size size (pixels) of the square.
+     * @return the scaled bitmap or the bitmap itself if it already fits.
+     */
+    public static Bitmap scaleToFit(Bitmap bitmap, int size) {
+        int sourceSize = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (sourceSize <= size) {
+            return bitmap;
+        }
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, bitmap.getWidth() * size / sourceSize),
+                Math.max(1, bitmap.getHeight() * size / sourceSize),
+                true);
+    }
+
+    /**
+     * Checks whether any icons saved by earlier versions are left. These are stored under the
+     * MD5 of the name of their account, at the size they were picked at.
+     */
+    public static boolean hasLegacyBitmaps(Context context) {
+        File[] files = getIconsDir(context).listFiles(FileUtilities::isLegacyBitmap);
+        return files != null && files.length > 0;
+    }
+
+    /**
+     * Decodes an icon saved by an earlier version scaled down to fit a square of the specified
+     * size. The icon is scaled while decoding, so the full-size icon is never held in memory.
+     *
+     * @param size size (pixels) of the square.
+     * @return the icon or {@code null} if the account has no such icon.
+     */
+    public static Bitmap getLegacyBitmap(Context context, String name, int size) {
+        File path = new File(getIconsDir(context), getMD5(name) + ".png");
+        if (!path.exists()) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path.getPath(), options);
+        int sourceSize = Math.max(options.outWidth, options.outHeight);
+        if (sourceSize <= 0) {
+            return null;
+        }
+
+        // Skip pixels while decoding as far as possible and scale the rest of the way
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (sourceSize / (options.inSampleSize * 2) >= size) {
+            options.inSampleSize *= 2;
+        }
+        int sampledSize = sourceSize / options.inSampleSize;
+        if (sampledSize > size) {
+            options.inScaled = true;
+            options.inDensity = sampledSize;
+            options.inTargetDensity = size;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(path.getPath(), options);
+        if (bitmap != null) {
+            // The densities above only serve the scaling, the icon is drawn at its pixel size
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Removes all icons saved by earlier versions, once they have been stored by account ID.
+     */
+    public static void deleteLegacyBitmaps(Context context) {
+        File[] files = getIconsDir(context).listFiles(FileUtilities::isLegacyBitmap);
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
             }
         }
-        return null;
+    }
+
+    private static boolean isLegacyBitmap(File dir, String fileName) {
+        // Icons stored by account ID are named after the ID and their variant
+        return fileName.endsWith(".png") && fileName.indexOf('-') < 0;
+    }
+
+    private static File getIconFile(Context context, long accountId, IconVariant variant) {
+        return new File(getIconsDir(context),
+                accountId + "-" + variant.name().toLowerCase(Locale.US) + ".png");
+    }
+
+    private static File getIconsDir(Context context) {
+        ContextWrapper contextWrapper = new ContextWrapper(context);
+        return contextWrapper.getDir(ICONS_DIR, Context.MODE_PRIVATE);
     }
 
     protected static String getMD5(String text) {
@@ -0,0 +1,218 @@
+package com.wilco375.onetwoauthenticate.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import com.wilco375.onetwoauthenticate.database.AccountDb;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Memory-bounded cache of the icons of the accounts, scaled to the size of the account list, by
+ * account ID. Icons are stored at that size when they are saved, so they are decoded in the
+ * background without scaling them. As the ID of an account doesn't change when it's renamed,
+ * neither do its cached and stored icons.
+ * <p>
+ * The cache outlives activities, so that rotating the screen doesn't decode the icons again but
+ * the activity doesn't have to keep them alive either.
+ */
+public class IconCache {
+
+    /**
+     * Receives an icon that has been loaded.
+     */
+    public interface Callback {
+        /**
+         * @param icon the icon or {@code null} if the account has no icon.
+         */
+        void onIconLoaded(long accountId, Bitmap icon);
+    }
+
+    private final Context mContext;
+    private final int mSize;
+    private final Executor mDecodeExecutor;
+
+    /**
+     * Decoded icons, weighed by their size in bytes.
+     */
+    private final LruCache<Long, Bitmap> mIcons;
+
+    /**
+     * IDs of the accounts known to have no icon.
+     *
+     * @GuardedBy("this")
+     */
+    private final Set<Long> mMissing = new HashSet<>();
+
+    /**
+     * Incremented whenever icons are invalidated, so that loads started before are not cached.
+     *
+     * @GuardedBy("this")
+     */
+    private int mGeneration;
+
+    /**
+     * @param size           size (pixels) of the square in which the icons are displayed.
+     * @param maxBytes       maximum number of bytes taken by the cached icons.
+     * @param decodeExecutor executor on which icons are decoded and stored, one at a time in the
+     *                       order they are requested, typically on a background thread.
+     */
+    public IconCache(Context context, int size, int maxBytes, Executor decodeExecutor) {
+        mContext = context.getApplicationContext();
+        mSize = size;
+        mDecodeExecutor = decodeExecutor;
+        mIcons = new LruCache<Long, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Long accountId, Bitmap icon) {
+                return icon.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Gets the size (pixels) of the square in which the icons are displayed.
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Gets a cached icon.
+     *
+     * @return the icon or {@code null} if it's not cached, see {@link #isMissing(long)}.
+     */
+    public synchronized Bitmap get(long accountId) {
+        return mIcons.get(accountId);
+    }
+
+    /**
+     * Checks whether the account is known to have no icon, so there is no need to load it.
+     */
+    public synchronized boolean isMissing(long accountId) {
+        return mMissing.contains(accountId);
+    }
+
+    /**
+     * Decodes the icon of an account in the background and caches it.
+     *
+     * @param callbackExecutor executor on which the callback is invoked.
+     */
+    public void load(long accountId, Executor callbackExecutor, Callback callback) {
+        int generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+        mDecodeExecutor.execute(() -> {
+            Bitmap icon = FileUtilities.getIcon(mContext, accountId,
+                    FileUtilities.IconVariant.LIST);
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    if (icon != null) {
+                        mIcons.put(accountId, icon);
+                    } else {
+                        mMissing.add(accountId);
+                    }
+                }
+            }
+            callbackExecutor.execute(() -> callback.onIconLoaded(accountId, icon));
+        });
+    }
+
+    /**
+     * Stores a new icon of an account in the background, in all its variants, and caches it.
+     *
+     * @param icon             icon as picked, which is scaled down to the size of the list.
+     * @param shortcutIcon     icon of the app shortcut of the account,
+     *                         {@link FileUtilities#SHORTCUT_ICON_SIZE} pixels square.
+     * @param callbackExecutor executor on which the callback is invoked once the icon is stored.
+     */
+    public void save(long accountId, Bitmap icon, Bitmap shortcutIcon, Executor callbackExecutor,
+                     Runnable callback) {
+        int generation;
+        synchronized (this) {
+            // Loads of the previous icon that are in progress must not cache it
+            invalidate(accountId);
+            generation = mGeneration;
+        }
+        mDecodeExecutor.execute(() -> {
+            Bitmap listIcon = FileUtilities.scaleToFit(icon, mSize);
+            FileUtilities.saveIcon(mContext, accountId, FileUtilities.IconVariant.LIST, listIcon);
+            FileUtilities.saveIcon(mContext, accountId, FileUtilities.IconVariant.SHORTCUT,
+                    shortcutIcon);
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    mIcons.put(accountId, listIcon);
+                }
+            }
+            callbackExecutor.execute(callback);
+        });
+    }
+
+    /**
+     * Removes the icons of the accounts that are removed from a database from now on, however
+     * they are removed: one at a time, all at once or by an import. They are dropped from the
+     * cache right away and from storage in the background.
+     */
+    public void deleteIconsOfRemovedAccounts(AccountDb accountDb) {
+        accountDb.addAccountEventListener(new AccountDb.AccountEventListener() {
+            @Override
+            public void onAccountInserted(String email) {
+            }
+
+            @Override
+            public void onAccountUpdated(String oldEmail, String email) {
+            }
+
+            @Override
+            public void onAccountDeleted(String email) {
+                retain(accountDb.getIds());
+            }
+
+            @Override
+            public void onAccountMoved(String email) {
+            }
+
+            @Override
+            public void onAccountsReloaded() {
+                retain(accountDb.getIds());
+            }
+        });
+    }
+
+    /**
+     * Removes the icons of all accounts but the specified ones.
+     */
+    private void retain(Set<Long> accountIds) {
+        synchronized (this) {
+            for (Long accountId : mIcons.snapshot().keySet()) {
+                if (!accountIds.contains(accountId)) {
+                    mIcons.remove(accountId);
+                }
+            }
+            mMissing.retainAll(accountIds);
+            mGeneration++;
+        }
+        mDecodeExecutor.execute(() -> FileUtilities.deleteIconsExcept(mContext, accountIds));
+    }
+
+    /**
+     * Drops the cached icon of an account.
+     */
+    public synchronized void invalidate(long accountId) {
+        mIcons.remove(accountId);
+        mMissing.remove(accountId);
+        mGeneration++;
+    }
+
+    /**
+     * Drops all cached icons, for example because they have been stored again.
+     */
+    public synchronized void invalidateAll() {
+        mIcons.evictAll();
+        mMissing.clear();
+        mGeneration++;
+    }
+}
@@ -0,0 +1,63 @@
+package com.wilco375.onetwoauthenticate.view;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
+import android.util.AttributeSet;
+import android.view.ContextMenu.ContextMenuInfo;
+import android.view.View;
+import android.widget.AdapterView.AdapterContextMenuInfo;
+
+/**
+ * List of the accounts. Like {@link android.widget.ListView}, it passes an
+ * {@link AdapterContextMenuInfo} with the position and stable ID of the long-pressed row to the
+ * context menu, so that it can be registered with
+ * {@link android.app.Activity#registerForContextMenu(View)}.
+ */
+public class AccountListView extends RecyclerView {
+
+    private AdapterContextMenuInfo mContextMenuInfo;
+
+    public AccountListView(Context context) {
+        super(context);
+    }
+
+    public AccountListView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public AccountListView(Context context, @Nullable AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+    }
+
+    @Override
+    public boolean showContextMenuForChild(View originalView) {
+        return updateContextMenuInfo(originalView) && super.showContextMenuForChild(originalView);
+    }
+
+    @Override
+    public boolean showContextMenuForChild(View originalView, float x, float y) {
+        return updateContextMenuInfo(originalView)
+                && super.showContextMenuForChild(originalView, x, y);
+    }
+
+    @Override
+    protected ContextMenuInfo getContextMenuInfo() {
+        return mContextMenuInfo;
+    }
+
+    /**
+     * Describes the row containing a view for the context menu.
+     *
+     * @return {@code false} if the view isn't in a row of this list.
+     */
+    private boolean updateContextMenuInfo(View originalView) {
+        View row = findContainingItemView(originalView);
+        int position = (row != null) ? getChildAdapterPosition(row) : NO_POSITION;
+        if (position == NO_POSITION) {
+            return false;
+        }
+        mContextMenuInfo = new AdapterContextMenuInfo(row, position, getChildItemId(row));
+        return true;
+    }
+}
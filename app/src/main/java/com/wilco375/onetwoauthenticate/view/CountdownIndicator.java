@@ -30,6 +30,9 @@ import com.wilco375.onetwoauthenticate.R;
 /**
  * Circular countdown indicator. The indicator is a filled arc which starts as a full circle ({@code
  * 360} degrees) and shrinks to {@code 0} degrees the less time is remaining.
+ * <p>
+ * The phase is either set directly or, once a {@link CountdownPhaseSource} and a time step are set,
+ * by the source while this indicator is attached to a window.
  *
  * @author klyubin@google.com (Alex Klyubin)
  */
@@ -44,6 +47,15 @@ public class CountdownIndicator extends View {
      */
     private double mPhase;
 
+    private CountdownPhaseSource mPhaseSource;
+
+    /**
+     * Time step (seconds) counted down by {@link #mPhaseSource} or {@code 0} for none.
+     */
+    private int mPeriod;
+
+    private boolean mAttached;
+
     public CountdownIndicator(Context context) {
         this(context, null);
     }
@@ -69,6 +81,85 @@ public class CountdownIndicator extends View {
         invalidate();
     }
 
+    /**
+     * Sets the source that drives the phase of this indicator.
+     *
+     * @param phaseSource source or {@code null} to only set the phase directly.
+     */
+    public void setPhaseSource(CountdownPhaseSource phaseSource) {
+        if (mPhaseSource != null) {
+            mPhaseSource.remove(this);
+        }
+        mPhaseSource = phaseSource;
+        updateRegistration();
+    }
+
+    /**
+     * Sets the time step counted down by the {@link CountdownPhaseSource} of this indicator.
+     *
+     * @param period time step (seconds) or {@code 0} to stop counting down.
+     */
+    public void setPeriod(int period) {
+        if (period == mPeriod) {
+            return;
+        }
+        mPeriod = period;
+        if (mPhaseSource != null) {
+            // Counting down a different time step
+            mPhaseSource.remove(this);
+        }
+        updateRegistration();
+    }
+
+    int getPeriod() {
+        return mPeriod;
+    }
+
+    /**
+     * Gets the number of visibly different arcs this indicator can draw, which is about the
+     * number of pixels along its circumference.
+     */
+    int getArcSteps() {
+        return Math.max(1, (int) Math.ceil(Math.PI * Math.min(getWidth(), getHeight())));
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mAttached = true;
+        updateRegistration();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        mAttached = false;
+        updateRegistration();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (mPhaseSource != null) {
+            // The arc changes visibly more or less often now
+            mPhaseSource.update(this);
+        }
+    }
+
+    /**
+     * Registers this indicator with its source while it's attached and counts down a time step.
+     */
+    private void updateRegistration() {
+        if (mPhaseSource == null) {
+            return;
+        }
+        if (mAttached && mPeriod > 0) {
+            mPhaseSource.add(this);
+        } else {
+            mPhaseSource.remove(this);
+        }
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         float remainingSectorSweepAngle = (float) (mPhase * 360);
@@ -107,6 +198,9 @@ public class CountdownIndicator extends View {
         if ((phase < 0) || (phase > 1)) {
             throw new IllegalArgumentException("phase: " + phase);
         }
+        if (phase == mPhase) {
+            return;
+        }
 
         mPhase = phase;
         invalidate();
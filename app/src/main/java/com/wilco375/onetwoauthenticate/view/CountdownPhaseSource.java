@@ -0,0 +1,137 @@
+package com.wilco375.onetwoauthenticate.view;
+
+import android.view.Choreographer;
+
+import com.wilco375.onetwoauthenticate.otp.OtpSource;
+import com.wilco375.onetwoauthenticate.otp.totp.Clock;
+import com.wilco375.onetwoauthenticate.otp.totp.TotpCounter;
+import com.wilco375.onetwoauthenticate.util.Utilities;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Single source of the phases of all {@link CountdownIndicator}s, driven by the display's vsync
+ * through {@link Choreographer}.
+ * <p>
+ * Indicators register themselves while they are attached to a window and count down a time step.
+ * A frame is only requested for when the arc of one of them visibly changes, which depends on the
+ * time step and the size of the indicator, and no frames are requested at all while no indicator
+ * is registered or the source is stopped.
+ * <p>
+ * All methods must be called on the UI thread.
+ */
+public class CountdownPhaseSource implements Choreographer.FrameCallback {
+
+    private final Choreographer mChoreographer;
+    private final Set<CountdownIndicator> mIndicators = new HashSet<>();
+
+    /**
+     * Source of the codes of the accounts, which provides the counters of the time steps, or
+     * {@code null} if the source is stopped.
+     */
+    private OtpSource mOtpSource;
+
+    /**
+     * Clock that drives the countdowns or {@code null} if the source is stopped.
+     */
+    private Clock mClock;
+
+    public CountdownPhaseSource() {
+        mChoreographer = Choreographer.getInstance();
+    }
+
+    /**
+     * Starts animating the registered indicators.
+     *
+     * @param otpSource source of the codes of the accounts, whose TOTP clock and counters the
+     *                  indicators follow.
+     */
+    public void start(OtpSource otpSource) {
+        mOtpSource = otpSource;
+        mClock = otpSource.getTotpClock();
+        if (!mIndicators.isEmpty()) {
+            scheduleFrame(0);
+        }
+    }
+
+    /**
+     * Stops animating the indicators, until {@link #start(OtpSource)} is called again.
+     */
+    public void stop() {
+        mOtpSource = null;
+        mClock = null;
+        mChoreographer.removeFrameCallback(this);
+    }
+
+    /**
+     * Registers an indicator that is attached to a window and counts down a time step.
+     */
+    void add(CountdownIndicator indicator) {
+        mIndicators.add(indicator);
+        update(indicator);
+    }
+
+    /**
+     * Unregisters an indicator, for example because it has been detached from its window.
+     */
+    void remove(CountdownIndicator indicator) {
+        if (mIndicators.remove(indicator) && mIndicators.isEmpty()) {
+            mChoreographer.removeFrameCallback(this);
+        }
+    }
+
+    /**
+     * Updates the phase of a registered indicator right away, for example because it has been
+     * resized, and recomputes when the next frame is needed.
+     */
+    void update(CountdownIndicator indicator) {
+        if (mClock == null || !mIndicators.contains(indicator)) {
+            return;
+        }
+        // Set the phase before the indicator is drawn for the first time
+        updatePhase(indicator, mClock.currentTimeMillis());
+        scheduleFrame(0);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (mClock == null || mIndicators.isEmpty()) {
+            return;
+        }
+        long now = mClock.currentTimeMillis();
+        long timeTillNextFrame = Long.MAX_VALUE;
+        for (CountdownIndicator indicator : mIndicators) {
+            timeTillNextFrame = Math.min(timeTillNextFrame, updatePhase(indicator, now));
+        }
+        scheduleFrame(timeTillNextFrame);
+    }
+
+    private void scheduleFrame(long delayMillis) {
+        mChoreographer.removeFrameCallback(this);
+        mChoreographer.postFrameCallbackDelayed(this, delayMillis);
+    }
+
+    /**
+     * Sets the phase of an indicator, rounded up to the smallest change of its arc that is
+     * visible.
+     *
+     * @param now time instant (milliseconds since epoch).
+     * @return time (milliseconds) until the arc of the indicator shrinks by the next step.
+     */
+    private long updatePhase(CountdownIndicator indicator, long now) {
+        TotpCounter counter = mOtpSource.getTotpCounter(indicator.getPeriod());
+        long timeStep = Utilities.secondsToMillis(counter.getTimeStep());
+        long nextValue = counter.getValueAtTime(Utilities.millisToSeconds(now)) + 1;
+        long millisRemaining = Math.min(timeStep,
+                Utilities.secondsToMillis(counter.getValueStartTime(nextValue)) - now);
+
+        // The phase is in (0, 1], so the arc only disappears once the counter changes its value
+        int steps = indicator.getArcSteps();
+        long step = (millisRemaining * steps + timeStep - 1) / timeStep;
+        indicator.setPhase((double) step / steps);
+
+        // Rounded down, so that the step has surely changed by the time the frame is drawn
+        return Math.max(1, millisRemaining - (step - 1) * timeStep / steps);
+    }
+}
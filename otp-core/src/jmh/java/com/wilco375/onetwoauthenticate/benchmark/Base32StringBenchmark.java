@@ -0,0 +1,66 @@
+package com.wilco375.onetwoauthenticate.benchmark;
+
+import com.wilco375.onetwoauthenticate.util.Base32String;
+import com.wilco375.onetwoauthenticate.util.Base32String.DecodingException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes Base32 secrets of the lengths used by the different HMAC hash functions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Base32StringBenchmark {
+
+    /**
+     * Length of the decoded secret in bytes.
+     */
+    @Param({"10", "20", "32", "64"})
+    public int length;
+
+    private String mEncoded;
+    private String mSpacedLowerCase;
+
+    @Setup
+    public void setUp() {
+        byte[] key = new byte[length];
+        new Random(0).nextBytes(key);
+        mEncoded = Base32String.encode(key);
+        // The way secrets are often shown to users, which requires the most normalization
+        StringBuilder spaced = new StringBuilder();
+        for (int i = 0; i < mEncoded.length(); i++) {
+            if (i > 0 && i % 4 == 0) {
+                spaced.append(' ');
+            }
+            spaced.append(Character.toLowerCase(mEncoded.charAt(i)));
+        }
+        mSpacedLowerCase = spaced.toString();
+    }
+
+    @Benchmark
+    public byte[] decode() throws DecodingException {
+        return Base32String.decode(mEncoded);
+    }
+
+    @Benchmark
+    public byte[] decodeSpacedLowerCase() throws DecodingException {
+        return Base32String.decode(mSpacedLowerCase);
+    }
+}
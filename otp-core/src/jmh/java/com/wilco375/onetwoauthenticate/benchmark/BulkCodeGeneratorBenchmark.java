@@ -0,0 +1,77 @@
+package com.wilco375.onetwoauthenticate.benchmark;
+
+import com.wilco375.onetwoauthenticate.database.Account;
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
+import com.wilco375.onetwoauthenticate.otp.BulkCodeGenerator;
+import com.wilco375.onetwoauthenticate.otp.OtpProvider;
+import com.wilco375.onetwoauthenticate.otp.OtpSourceException;
+import com.wilco375.onetwoauthenticate.util.Base32String;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates the codes of 10000 accounts with a mix of types, algorithms, digits and periods on
+ * various numbers of threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BulkCodeGeneratorBenchmark {
+    private static final int ACCOUNT_COUNT = 10000;
+    private static final long TIME = OtpProvider.DEFAULT_INTERVAL * 1234567890L;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private ExecutorService mExecutor;
+    private BulkCodeGenerator mGenerator;
+    private List<Account> mAccounts;
+
+    @Setup
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(threads);
+        mGenerator = new BulkCodeGenerator(mExecutor, threads);
+
+        Random random = new Random(0);
+        mAccounts = new ArrayList<>(ACCOUNT_COUNT);
+        for (int i = 0; i < ACCOUNT_COUNT; i++) {
+            byte[] key = new byte[10];
+            random.nextBytes(key);
+            mAccounts.add(new Account(String.valueOf(i), Base32String.encode(key),
+                    (i % 5 == 0) ? OtpType.HOTP : OtpType.TOTP, i, null,
+                    Algorithm.values()[i % Algorithm.values().length], 6 + i % 3, 30 + 30 * (i % 2)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public String[] generateCodes() throws InterruptedException, OtpSourceException {
+        return mGenerator.generateCodes(mAccounts, TIME);
+    }
+}
@@ -0,0 +1,71 @@
+package com.wilco375.onetwoauthenticate.benchmark;
+
+import com.wilco375.onetwoauthenticate.otp.OtpSourceException;
+import com.wilco375.onetwoauthenticate.otp.OtpVerifier;
+import com.wilco375.onetwoauthenticate.util.Base32String;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies codes of 1000 accounts against one {@link OtpVerifier} from four threads. The codes
+ * are wrong, so that every verification checks the whole window and none of them is used up.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class OtpVerifierBenchmark {
+    private static final int ACCOUNT_COUNT = 1000;
+    private static final long INTERVAL = 50000000L;
+    private static final String WRONG_CODE = "000000";
+
+    private final OtpVerifier mVerifier = new OtpVerifier(ACCOUNT_COUNT);
+    private final String[] mNames = new String[ACCOUNT_COUNT];
+    private final String[] mSecrets = new String[ACCOUNT_COUNT];
+
+    /**
+     * Account each thread verifies next.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int mAccount;
+
+        int next() {
+            mAccount = (mAccount + 1) % ACCOUNT_COUNT;
+            return mAccount;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        for (int i = 0; i < ACCOUNT_COUNT; i++) {
+            byte[] key = new byte[10];
+            random.nextBytes(key);
+            mNames[i] = String.valueOf(i);
+            mSecrets[i] = Base32String.encode(key);
+        }
+    }
+
+    @Benchmark
+    public boolean verifyTotp(Cursor cursor) throws OtpSourceException {
+        int account = cursor.next();
+        return mVerifier.verifyTotp(mNames[account], mSecrets[account], INTERVAL, WRONG_CODE);
+    }
+}
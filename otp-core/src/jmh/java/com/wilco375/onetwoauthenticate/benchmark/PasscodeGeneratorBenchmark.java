@@ -0,0 +1,67 @@
+package com.wilco375.onetwoauthenticate.benchmark;
+
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.otp.HmacSigner;
+import com.wilco375.onetwoauthenticate.otp.MacSigner;
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator;
+import com.wilco375.onetwoauthenticate.util.Base32String;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates codes with the {@link javax.crypto.Mac} backed signer and with {@link HmacSigner}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PasscodeGeneratorBenchmark {
+    private static final String SECRET = "7777777777777777"; // 16 sevens
+
+    @Param({"SHA1", "SHA256", "SHA512"})
+    public Algorithm algorithm;
+
+    private PasscodeGenerator mMacGenerator;
+    private PasscodeGenerator mHmacGenerator;
+    private char[] mCode;
+    private long mState;
+
+    @Setup
+    public void setUp() throws Exception {
+        mMacGenerator = new PasscodeGenerator(MacSigner.getInstance(SECRET, algorithm));
+        mHmacGenerator = new PasscodeGenerator(
+                HmacSigner.getInstance(algorithm.macAlgorithm, Base32String.decode(SECRET)));
+        mCode = new char[mHmacGenerator.getCodeLength()];
+    }
+
+    @Benchmark
+    public String generateWithMac() throws GeneralSecurityException {
+        return mMacGenerator.generateResponseCode(mState++);
+    }
+
+    @Benchmark
+    public String generateWithHmacSigner() throws GeneralSecurityException {
+        return mHmacGenerator.generateResponseCode(mState++);
+    }
+
+    @Benchmark
+    public char[] writeWithHmacSigner() throws GeneralSecurityException {
+        mHmacGenerator.writeResponseCode(mState++, mCode, 0);
+        return mCode;
+    }
+}
@@ -0,0 +1,72 @@
+package com.wilco375.onetwoauthenticate.benchmark;
+
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.otp.MacSigner;
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator;
+import com.wilco375.onetwoauthenticate.otp.SignerCache;
+import com.wilco375.onetwoauthenticate.util.Base32String;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates a code for one of 1000 accounts, once creating a new signer for every code and once
+ * getting the signer from a warmed up {@link SignerCache}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SignerCacheBenchmark {
+    private static final int ACCOUNT_COUNT = 1000;
+
+    private final SignerCache mSignerCache = new SignerCache();
+    private final String[] mNames = new String[ACCOUNT_COUNT];
+    private final String[] mSecrets = new String[ACCOUNT_COUNT];
+    private int mAccount;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(0);
+        for (int i = 0; i < ACCOUNT_COUNT; i++) {
+            byte[] key = new byte[10];
+            random.nextBytes(key);
+            mNames[i] = String.valueOf(i);
+            mSecrets[i] = Base32String.encode(key);
+            mSignerCache.get(mNames[i], mSecrets[i]);
+        }
+    }
+
+    @Benchmark
+    public String uncached() throws Exception {
+        int account = nextAccount();
+        return new PasscodeGenerator(MacSigner.getInstance(mSecrets[account], Algorithm.SHA1))
+                .generateResponseCode(account);
+    }
+
+    @Benchmark
+    public String cached() throws GeneralSecurityException {
+        int account = nextAccount();
+        return new PasscodeGenerator(mSignerCache.get(mNames[account], mSecrets[account]))
+                .generateResponseCode(account);
+    }
+
+    private int nextAccount() {
+        mAccount = (mAccount + 1) % ACCOUNT_COUNT;
+        return mAccount;
+    }
+}
@@ -0,0 +1,66 @@
+package com.wilco375.onetwoauthenticate.benchmark;
+
+import com.wilco375.onetwoauthenticate.otp.ChallengeEncoder;
+import com.wilco375.onetwoauthenticate.otp.HmacSigner;
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates the response code of a long challenge, streamed into the signer by a
+ * {@link ChallengeEncoder} and concatenated with the state in a new buffer like before challenges
+ * were streamed. Run with {@code -prof gc} to compare the memory allocated per code.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StreamedChallengeBenchmark {
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    private final ChallengeEncoder mEncoder = new ChallengeEncoder();
+    private PasscodeGenerator mGenerator;
+    private String mChallenge;
+    private long mState;
+
+    @Setup
+    public void setUp() throws Exception {
+        mGenerator = new PasscodeGenerator(HmacSigner.getInstance("HmacSHA1", KEY), 9);
+        StringBuilder challenge = new StringBuilder();
+        for (int i = 0; challenge.length() < 1536; i++) {
+            challenge.append("Transfer \u20ac").append(i).append(" to \u00e9t\u00e9 \ud83d\ude00; ");
+        }
+        mChallenge = challenge.toString();
+    }
+
+    @Benchmark
+    public String streamed() throws GeneralSecurityException {
+        return mGenerator.generateResponseCode(mState++, mChallenge, mEncoder);
+    }
+
+    @Benchmark
+    public String concatenated() throws GeneralSecurityException {
+        byte[] challengeBytes = mChallenge.getBytes(StandardCharsets.UTF_8);
+        byte[] value = ByteBuffer.allocate(8 + challengeBytes.length)
+                .putLong(mState++)
+                .put(challengeBytes)
+                .array();
+        return mGenerator.generateResponseCode(value);
+    }
+}
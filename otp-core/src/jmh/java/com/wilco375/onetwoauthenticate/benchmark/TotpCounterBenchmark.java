@@ -0,0 +1,46 @@
+package com.wilco375.onetwoauthenticate.benchmark;
+
+import com.wilco375.onetwoauthenticate.otp.totp.TotpCounter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts between time and TOTP counter values, which is done for every account on every
+ * refresh of the codes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TotpCounterBenchmark {
+    private final TotpCounter mCounter = new TotpCounter(30);
+    private final TotpCounter mOffsetCounter = new TotpCounter(60, 15);
+    private long mTime = 1234567890L;
+
+    @Benchmark
+    public long valueAtTime() {
+        return mCounter.getValueAtTime(mTime++);
+    }
+
+    @Benchmark
+    public long valueAtTimeWithStartTime() {
+        return mOffsetCounter.getValueAtTime(mTime++);
+    }
+
+    @Benchmark
+    public long valueStartTime() {
+        return mCounter.getValueStartTime(mCounter.getValueAtTime(mTime++) + 1);
+    }
+}
@@ -0,0 +1,107 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
+
+/**
+ * Immutable snapshot of an account stored in the {@link AccountStore}.
+ */
+public final class Account {
+    private final String mName;
+    private final String mSecret;
+    private final OtpType mType;
+    private final int mCounter;
+    private final Integer mColor;
+    private final Algorithm mAlgorithm;
+    private final int mDigits;
+    private final int mPeriod;
+    private final boolean mGoogleAccount;
+
+    /**
+     * Creates an account, which is usually read from the {@link AccountStore} but may also describe
+     * an account that is not stored, like a service account whose codes are generated in bulk.
+     */
+    public Account(String name, String secret, OtpType type, int counter, Integer color,
+                   Algorithm algorithm, int digits, int period) {
+        this(name, secret, type, counter, color, algorithm, digits, period, false);
+    }
+
+    /**
+     * Creates an account.
+     *
+     * @param googleAccount whether the account was marked as a Google account when it was added.
+     */
+    public Account(String name, String secret, OtpType type, int counter, Integer color,
+                   Algorithm algorithm, int digits, int period, boolean googleAccount) {
+        mName = name;
+        mSecret = secret;
+        mType = type;
+        mCounter = counter;
+        mColor = color;
+        mAlgorithm = algorithm;
+        mDigits = digits;
+        mPeriod = period;
+        mGoogleAccount = googleAccount;
+    }
+
+    /**
+     * Gets the name (usually the email address) identifying the account.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Gets the Base32 encoded secret key.
+     */
+    public String getSecret() {
+        return mSecret;
+    }
+
+    public OtpType getType() {
+        return mType;
+    }
+
+    /**
+     * Gets the HOTP counter. Only meaningful for {@link OtpType#HOTP} accounts.
+     */
+    public int getCounter() {
+        return mCounter;
+    }
+
+    /**
+     * Gets the color chosen for the account or {@code null} if the default color is used.
+     */
+    public Integer getColor() {
+        return mColor;
+    }
+
+    /**
+     * Gets the hash function of the HMAC used to compute the codes.
+     */
+    public Algorithm getAlgorithm() {
+        return mAlgorithm;
+    }
+
+    /**
+     * Gets the number of digits of the codes.
+     */
+    public int getDigits() {
+        return mDigits;
+    }
+
+    /**
+     * Gets the time step (seconds). Only meaningful for {@link OtpType#TOTP} accounts.
+     */
+    public int getPeriod() {
+        return mPeriod;
+    }
+
+    /**
+     * Gets whether the account was marked as a Google account when it was added. Accounts added
+     * by scanning a QR code or by entering a key are not marked, even if they belong to Google.
+     */
+    public boolean isGoogleAccount() {
+        return mGoogleAccount;
+    }
+}
@@ -0,0 +1,134 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Storage of the accounts whose codes are generated by
+ * {@link com.wilco375.onetwoauthenticate.otp.OtpProvider}. On Android the accounts are stored in
+ * the {@code AccountDb}, elsewhere, like on a server, they may be stored anywhere.
+ */
+public interface AccountStore {
+
+    /**
+     * Listener notified when an account is added, modified or removed.
+     */
+    interface AccountChangeListener {
+
+        /**
+         * Invoked after an account has been written to or removed from the store.
+         *
+         * @param email name of the account that changed or {@code null} if any account may have
+         *              changed.
+         */
+        void onAccountChanged(String email);
+    }
+
+    /**
+     * Types of secret keys.
+     */
+    enum OtpType {  // must be the same as in res/values/strings.xml:type
+        TOTP(0),  // time based
+        HOTP(1);  // counter based
+
+        public final Integer value;  // value as stored in SQLite database
+
+        OtpType(Integer value) {
+            this.value = value;
+        }
+
+        public static OtpType getEnum(Integer i) {
+            for (OtpType type : OtpType.values()) {
+                if (type.value.equals(i)) {
+                    return type;
+                }
+            }
+
+            return null;
+        }
+
+    }
+
+    /**
+     * Hash functions of the HMAC used to compute the codes, as specified by RFC 6238.
+     */
+    enum Algorithm {
+        SHA1(0, "HmacSHA1"),
+        SHA256(1, "HmacSHA256"),
+        SHA512(2, "HmacSHA512");
+
+        public final Integer value;  // value as stored in SQLite database
+        public final String macAlgorithm;  // name of the javax.crypto.Mac algorithm
+
+        Algorithm(Integer value, String macAlgorithm) {
+            this.value = value;
+            this.macAlgorithm = macAlgorithm;
+        }
+
+        public static Algorithm getEnum(Integer i) {
+            for (Algorithm algorithm : Algorithm.values()) {
+                if (algorithm.value.equals(i)) {
+                    return algorithm;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Gets the algorithm with the specified name, as used by the {@code algorithm} parameter of
+         * {@code otpauth} URIs.
+         *
+         * @return the algorithm or {@code null} if the name is unknown.
+         */
+        public static Algorithm fromName(String name) {
+            for (Algorithm algorithm : Algorithm.values()) {
+                if (algorithm.name().equalsIgnoreCase(name)) {
+                    return algorithm;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Registers a listener notified about changes to the accounts in this store.
+     */
+    void addAccountChangeListener(AccountChangeListener listener);
+
+    /**
+     * Unregisters a listener previously registered with
+     * {@link #addAccountChangeListener(AccountChangeListener)}.
+     */
+    void removeAccountChangeListener(AccountChangeListener listener);
+
+    /**
+     * Get list of all account names.
+     *
+     * @param result Collection of strings-- account names are appended, without
+     *               clearing this collection on entry.
+     * @return Number of accounts added to the output parameter.
+     */
+    int getNames(Collection<String> result);
+
+    /**
+     * Gets all accounts in display order.
+     */
+    List<Account> getAllAccounts();
+
+    /**
+     * Gets all attributes of the account at once.
+     *
+     * @return the account or {@code null} if it doesn't exist.
+     */
+    Account getAccount(String email);
+
+    /**
+     * Atomically increments the HOTP counter of the account, so that concurrent callers never get
+     * the same value.
+     *
+     * @return the new value of the counter or {@code null} if the account doesn't exist.
+     */
+    Integer incrementCounter(String email);
+}
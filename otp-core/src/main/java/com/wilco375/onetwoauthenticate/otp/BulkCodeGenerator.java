@@ -0,0 +1,172 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import com.wilco375.onetwoauthenticate.database.Account;
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
+import com.wilco375.onetwoauthenticate.otp.totp.TotpCounter;
+import com.wilco375.onetwoauthenticate.util.Base32String;
+import com.wilco375.onetwoauthenticate.util.Base32String.DecodingException;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Generates the codes of large numbers of accounts, like fleets of machine and service accounts,
+ * on several threads.
+ * <p>
+ * The accounts are split into contiguous chunks that are handed to the threads of an
+ * {@link ExecutorService}. Every chunk has its own {@link Mac} per algorithm, which is initialized
+ * with the key of each account in turn, so nothing is shared between the threads and the codes
+ * are written to the positions of their accounts in the result. There are a few chunks per thread
+ * so that a thread that finishes early picks up the remaining work.
+ * <p>
+ * This class is thread-safe as long as the executor is.
+ */
+public class BulkCodeGenerator {
+
+    /**
+     * Number of chunks per thread.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Minimum number of accounts in a chunk, below which the overhead of a task isn't worth it.
+     */
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    private final ExecutorService mExecutor;
+    private final int mParallelism;
+
+    /**
+     * @param executor    executor running the chunks.
+     * @param parallelism number of threads of the executor that may be used.
+     */
+    public BulkCodeGenerator(ExecutorService executor, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        mExecutor = executor;
+        mParallelism = parallelism;
+    }
+
+    /**
+     * Generates the codes of the accounts.
+     * <p>
+     * TOTP codes are generated for the specified time. HOTP codes are generated for the counter
+     * value following the one of the account, which is the value {@link OtpSource#getNextCode}
+     * would use, but the counter is not advanced.
+     *
+     * @param accounts the accounts, for example from
+     *                 {@link com.wilco375.onetwoauthenticate.database.AccountStore#getAllAccounts()}.
+     * @param time     time (seconds since epoch) for the TOTP codes.
+     * @return the codes in the order of the accounts. The code of an account whose secret is not a
+     * valid key is {@code null}.
+     * @throws InterruptedException if the thread was interrupted while waiting for the codes.
+     * @throws OtpSourceException   if the algorithm of an account is not supported.
+     */
+    public String[] generateCodes(List<Account> accounts, long time)
+            throws InterruptedException, OtpSourceException {
+        int count = accounts.size();
+        String[] codes = new String[count];
+        int chunkSize = Math.max(MIN_CHUNK_SIZE,
+                (count + mParallelism * CHUNKS_PER_THREAD - 1) / (mParallelism * CHUNKS_PER_THREAD));
+
+        List<Callable<Void>> chunks = new ArrayList<>();
+        for (int from = 0; from < count; from += chunkSize) {
+            chunks.add(new Chunk(accounts, from, Math.min(from + chunkSize, count), time, codes));
+        }
+
+        if (chunks.size() == 1) {
+            // Not worth a thread switch
+            try {
+                chunks.get(0).call();
+            } catch (Exception e) {
+                throw new OtpSourceException("Crypto failure", e);
+            }
+            return codes;
+        }
+        for (Future<Void> result : mExecutor.invokeAll(chunks)) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                throw new OtpSourceException("Crypto failure", e.getCause());
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * Generates the codes of the accounts in {@code [from, to)}.
+     */
+    private static class Chunk implements Callable<Void> {
+        private final List<Account> accounts;
+        private final int from;
+        private final int to;
+        private final long time;
+        private final String[] codes;
+
+        private final Map<Algorithm, Mac> macs = new EnumMap<>(Algorithm.class);
+        private final Map<Integer, TotpCounter> totpCounters = new HashMap<>();
+
+        private Chunk(List<Account> accounts, int from, int to, long time, String[] codes) {
+            this.accounts = accounts;
+            this.from = from;
+            this.to = to;
+            this.time = time;
+            this.codes = codes;
+        }
+
+        @Override
+        public Void call() throws GeneralSecurityException {
+            for (int i = from; i < to; i++) {
+                codes[i] = generateCode(accounts.get(i));
+            }
+            return null;
+        }
+
+        private String generateCode(Account account) throws GeneralSecurityException {
+            byte[] key;
+            try {
+                key = Base32String.decode(account.getSecret());
+            } catch (DecodingException e) {
+                return null;
+            }
+            if (key.length == 0) {
+                return null;
+            }
+
+            Mac mac = macs.get(account.getAlgorithm());
+            if (mac == null) {
+                mac = Mac.getInstance(account.getAlgorithm().macAlgorithm);
+                macs.put(account.getAlgorithm(), mac);
+            }
+            mac.init(new SecretKeySpec(key, ""));
+
+            long state = (account.getType() == OtpType.HOTP)
+                    ? account.getCounter() + 1
+                    : getTotpCounter(account.getPeriod()).getValueAtTime(time);
+            return new PasscodeGenerator(new MacSigner(mac), account.getDigits())
+                    .generateResponseCode(state);
+        }
+
+        private TotpCounter getTotpCounter(int period) {
+            TotpCounter counter = totpCounters.get(period);
+            if (counter == null) {
+                counter = new TotpCounter(period);
+                totpCounters.put(period, counter);
+            }
+            return counter;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.StreamingSigner;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.security.GeneralSecurityException;
+
+/**
+ * Encodes challenges as UTF-8 straight into a {@link StreamingSigner}, a buffer at a time, so that
+ * neither the encoded challenge nor the challenge appended to the OTP state is ever allocated.
+ * The characters are copied in chunks into a char array first, which the encoder processes much
+ * faster than a {@link CharBuffer} wrapping a {@link String}.
+ * <p>
+ * Characters that can't be encoded are replaced by {@code '?'}, like {@link String#getBytes}
+ * does. Instances are not thread-safe, they are meant to be pooled and reused for every challenge.
+ */
+public class ChallengeEncoder {
+
+    /**
+     * Size (bytes) of the buffer that the challenge is encoded into, and (chars) of the buffer
+     * holding the chunk of the challenge being encoded.
+     */
+    // @VisibleForTesting
+    static final int BUFFER_SIZE = 512;
+
+    private final CharsetEncoder mEncoder = Charset.forName("UTF-8").newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer mChars = CharBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Feeds the UTF-8 encoding of the challenge to the signer.
+     */
+    public void update(StreamingSigner signer, CharSequence challenge)
+            throws GeneralSecurityException {
+        mEncoder.reset();
+        mChars.clear();
+        mBuffer.clear();
+
+        int length = challenge.length();
+        int copied = 0;
+        boolean endOfInput;
+        do {
+            // Append the next chunk after a high surrogate left over from the previous one
+            int count = Math.min(length - copied, mChars.remaining());
+            copyChars(challenge, copied, count);
+            copied += count;
+            endOfInput = copied == length;
+
+            mChars.flip();
+            CoderResult result;
+            do {
+                result = mEncoder.encode(mChars, mBuffer, endOfInput);
+                if (result.isOverflow()) {
+                    drain(signer);
+                }
+            } while (result.isOverflow());
+            mChars.compact();
+        } while (!endOfInput);
+
+        while (mEncoder.flush(mBuffer).isOverflow()) {
+            drain(signer);
+        }
+        drain(signer);
+    }
+
+    /**
+     * Appends {@code count} chars of the challenge starting at {@code start} to {@link #mChars}.
+     */
+    private void copyChars(CharSequence challenge, int start, int count) {
+        char[] chars = mChars.array();
+        int position = mChars.position();
+        if (challenge instanceof String) {
+            ((String) challenge).getChars(start, start + count, chars, position);
+        } else {
+            for (int i = 0; i < count; i++) {
+                chars[position + i] = challenge.charAt(start + i);
+            }
+        }
+        mChars.position(position + count);
+    }
+
+    private void drain(StreamingSigner signer) throws GeneralSecurityException {
+        if (mBuffer.position() > 0) {
+            signer.update(mBuffer.array(), 0, mBuffer.position());
+            mBuffer.clear();
+        }
+    }
+}
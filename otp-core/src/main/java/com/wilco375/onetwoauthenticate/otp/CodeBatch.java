@@ -0,0 +1,80 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
+
+/**
+ * Names, types, colors and codes of all accounts of an {@link OtpSource}, computed in one pass by
+ * {@link OtpSource#computeCodes(long)}. Accounts are in display order.
+ * <p>
+ * Codes are only computed for {@link OtpType#TOTP} accounts because computing a HOTP code
+ * advances the counter of the account. The code of a HOTP account, or of an account whose code
+ * could not be computed, is {@code null}.
+ * <p>
+ * Accounts may use different time steps. The codes stay valid until the counter of any of the
+ * time steps changes its value, see {@link #isValidAt(long)}.
+ */
+public final class CodeBatch {
+    private final long mValidFrom;
+    private final long mValidUntil;
+    private final String[] mNames;
+    private final OtpType[] mTypes;
+    private final Integer[] mColors;
+    private final int[] mPeriods;
+    private final String[] mCodes;
+
+    CodeBatch(long validFrom, long validUntil, String[] names, OtpType[] types, Integer[] colors,
+              int[] periods, String[] codes) {
+        mValidFrom = validFrom;
+        mValidUntil = validUntil;
+        mNames = names;
+        mTypes = types;
+        mColors = colors;
+        mPeriods = periods;
+        mCodes = codes;
+    }
+
+    /**
+     * Checks whether the codes are the current codes at the specified time.
+     *
+     * @param time time (seconds since epoch).
+     */
+    public boolean isValidAt(long time) {
+        return time >= mValidFrom && time < mValidUntil;
+    }
+
+    /**
+     * Gets the number of accounts in this batch.
+     */
+    public int size() {
+        return mNames.length;
+    }
+
+    public String getName(int position) {
+        return mNames[position];
+    }
+
+    public OtpType getType(int position) {
+        return mTypes[position];
+    }
+
+    /**
+     * Gets the color of the account or {@code null} if the account uses the default color.
+     */
+    public Integer getColor(int position) {
+        return mColors[position];
+    }
+
+    /**
+     * Gets the time step (seconds) of the account.
+     */
+    public int getPeriod(int position) {
+        return mPeriods[position];
+    }
+
+    /**
+     * Gets the code of the account or {@code null} if no code was computed for it.
+     */
+    public String getCode(int position) {
+        return mCodes[position];
+    }
+}
@@ -0,0 +1,616 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.StreamingSigner;
+
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * HMAC (RFC 2104) implementation for SHA-1, SHA-256 and SHA-512 that keeps the hash states of the
+ * inner and outer padded keys.
+ * <p>
+ * {@link javax.crypto.Mac} hashes both padded key blocks again for every message. The OTP messages
+ * are tiny (an 8-byte counter), so with the midstates of the padded keys computed once per key a
+ * code costs exactly two calls of the compression function. Signing into a caller provided buffer
+ * with {@link #sign(byte[], byte[])} doesn't allocate any memory.
+ * <p>
+ * Long messages, like challenges, can be fed in parts with {@link #update(byte[], int, int)}.
+ * Only the last partial block is buffered.
+ * <p>
+ * Instances are not thread-safe because they hash in buffers owned by the signer.
+ */
+public abstract class HmacSigner implements StreamingSigner {
+
+    private static final byte IPAD = 0x36;
+    private static final byte OPAD = 0x5c;
+
+    private final int mBlockSize;
+    private final int mDigestLength;
+    private final int mLengthFieldSize;
+
+    /**
+     * Block being hashed when the message doesn't fill a whole block.
+     */
+    private final byte[] mBlock;
+
+    /**
+     * Inner hash of the message being signed.
+     */
+    private final byte[] mInnerDigest;
+
+    /**
+     * Whether a message is being fed with {@link #update(byte[], int, int)}.
+     */
+    private boolean mUpdating;
+
+    /**
+     * Number of bytes of the message fed so far, and how many of them are buffered in
+     * {@link #mBlock}.
+     */
+    private long mMessageLength;
+    private int mBlockLength;
+
+    /**
+     * Creates a signer for the specified algorithm and key.
+     *
+     * @param algorithm {@code HmacSHA1}, {@code HmacSHA256} or {@code HmacSHA512}, case-insensitive
+     *                  like the algorithm names of {@link javax.crypto.Mac}.
+     * @param key       the key.
+     * @throws NoSuchAlgorithmException if the algorithm is not supported.
+     */
+    public static HmacSigner getInstance(String algorithm, byte[] key)
+            throws NoSuchAlgorithmException {
+        HmacSigner signer;
+        if ("HmacSHA1".equalsIgnoreCase(algorithm)) {
+            signer = new Sha1();
+        } else if ("HmacSHA256".equalsIgnoreCase(algorithm)) {
+            signer = new Sha256();
+        } else if ("HmacSHA512".equalsIgnoreCase(algorithm)) {
+            signer = new Sha512();
+        } else {
+            throw new NoSuchAlgorithmException("Unsupported HMAC algorithm: " + algorithm);
+        }
+        signer.init(key);
+        return signer;
+    }
+
+    private HmacSigner(int blockSize, int digestLength, int lengthFieldSize) {
+        mBlockSize = blockSize;
+        mDigestLength = digestLength;
+        mLengthFieldSize = lengthFieldSize;
+        mBlock = new byte[blockSize];
+        mInnerDigest = new byte[digestLength];
+    }
+
+    private void init(byte[] key) {
+        if (key.length > mBlockSize) {
+            // Keys longer than a block are hashed first
+            resetToInitialState();
+            hashFinal(key, key.length, 0);
+            byte[] hashedKey = new byte[mDigestLength];
+            writeDigest(hashedKey);
+            key = hashedKey;
+        }
+
+        byte[] paddedKey = new byte[mBlockSize];
+        for (int i = 0; i < mBlockSize; i++) {
+            paddedKey[i] = (byte) (((i < key.length) ? key[i] : 0) ^ IPAD);
+        }
+        resetToInitialState();
+        compress(paddedKey, 0);
+        saveInnerState();
+
+        for (int i = 0; i < mBlockSize; i++) {
+            paddedKey[i] = (byte) (((i < key.length) ? key[i] : 0) ^ OPAD);
+        }
+        resetToInitialState();
+        compress(paddedKey, 0);
+        saveOuterState();
+    }
+
+    @Override
+    public int getMacLength() {
+        return mDigestLength;
+    }
+
+    @Override
+    public byte[] sign(byte[] data) {
+        byte[] mac = new byte[mDigestLength];
+        sign(data, mac);
+        return mac;
+    }
+
+    @Override
+    public int sign(byte[] data, byte[] out) {
+        if (out.length < mDigestLength) {
+            throw new IndexOutOfBoundsException(
+                    "Output buffer of " + out.length + " bytes too small for " + mDigestLength);
+        }
+
+        // H((K ^ ipad) || data), starting after the padded key block
+        mUpdating = false;
+        restoreInnerState();
+        hashFinal(data, data.length, mBlockSize);
+        return signInnerDigest(out);
+    }
+
+    @Override
+    public void update(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException(
+                    "Range [" + offset + ", " + offset + " + " + length + ") out of bounds for "
+                            + data.length + " bytes");
+        }
+        startUpdating();
+        mMessageLength += length;
+
+        if (mBlockLength > 0) {
+            // Complete the buffered block first
+            int copied = Math.min(length, mBlockSize - mBlockLength);
+            System.arraycopy(data, offset, mBlock, mBlockLength, copied);
+            mBlockLength += copied;
+            offset += copied;
+            length -= copied;
+            if (mBlockLength < mBlockSize) {
+                return;
+            }
+            compress(mBlock, 0);
+            mBlockLength = 0;
+        }
+
+        for (; length >= mBlockSize; offset += mBlockSize, length -= mBlockSize) {
+            compress(data, offset);
+        }
+        System.arraycopy(data, offset, mBlock, 0, length);
+        mBlockLength = length;
+    }
+
+    @Override
+    public int doFinal(byte[] out) {
+        if (out.length < mDigestLength) {
+            throw new IndexOutOfBoundsException(
+                    "Output buffer of " + out.length + " bytes too small for " + mDigestLength);
+        }
+
+        // An empty message if nothing was fed
+        startUpdating();
+        mUpdating = false;
+        hashPadding(mBlockLength, mBlockSize + mMessageLength);
+        return signInnerDigest(out);
+    }
+
+    /**
+     * Starts a message fed with {@link #update(byte[], int, int)}, unless one was already started.
+     */
+    private void startUpdating() {
+        if (!mUpdating) {
+            restoreInnerState();
+            mMessageLength = 0;
+            mBlockLength = 0;
+            mUpdating = true;
+        }
+    }
+
+    /**
+     * Computes H((K ^ opad) || inner hash) from the completed inner hash state.
+     */
+    private int signInnerDigest(byte[] out) {
+        writeDigest(mInnerDigest);
+        restoreOuterState();
+        hashFinal(mInnerDigest, mDigestLength, mBlockSize);
+        writeDigest(out);
+        return mDigestLength;
+    }
+
+    /**
+     * Hashes the remaining {@code length} bytes of a message, including the padding.
+     *
+     * @param processed number of bytes that have already been hashed before {@code data}.
+     */
+    private void hashFinal(byte[] data, int length, long processed) {
+        int offset = 0;
+        for (; length - offset >= mBlockSize; offset += mBlockSize) {
+            compress(data, offset);
+        }
+
+        int remaining = length - offset;
+        System.arraycopy(data, offset, mBlock, 0, remaining);
+        hashPadding(remaining, processed + length);
+    }
+
+    /**
+     * Pads the last {@code remaining} bytes of a message, which are at the start of
+     * {@link #mBlock}, and hashes them.
+     *
+     * @param totalLength length of the whole message (bytes), including the padded key block.
+     */
+    private void hashPadding(int remaining, long totalLength) {
+        mBlock[remaining] = (byte) 0x80;
+        if (remaining + 1 > mBlockSize - mLengthFieldSize) {
+            fill(mBlock, remaining + 1, mBlockSize);
+            compress(mBlock, 0);
+            fill(mBlock, 0, mBlockSize - 8);
+        } else {
+            fill(mBlock, remaining + 1, mBlockSize - 8);
+        }
+
+        // Message lengths are far below 2^64 bits, so the upper half of the SHA-512 length is zero
+        long bitLength = totalLength << 3;
+        for (int i = mBlockSize - 1; i >= mBlockSize - 8; i--) {
+            mBlock[i] = (byte) bitLength;
+            bitLength >>>= 8;
+        }
+        compress(mBlock, 0);
+    }
+
+    private static void fill(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            bytes[i] = 0;
+        }
+    }
+
+    abstract void resetToInitialState();
+
+    abstract void saveInnerState();
+
+    abstract void saveOuterState();
+
+    abstract void restoreInnerState();
+
+    abstract void restoreOuterState();
+
+    /**
+     * Runs the compression function on the block starting at {@code offset}.
+     */
+    abstract void compress(byte[] block, int offset);
+
+    /**
+     * Writes the big-endian digest of the current hash state.
+     */
+    abstract void writeDigest(byte[] out);
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24)
+                | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8)
+                | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static void writeInts(int[] values, byte[] out) {
+        for (int i = 0, j = 0; i < values.length; i++, j += 4) {
+            int value = values[i];
+            out[j] = (byte) (value >>> 24);
+            out[j + 1] = (byte) (value >>> 16);
+            out[j + 2] = (byte) (value >>> 8);
+            out[j + 3] = (byte) value;
+        }
+    }
+
+    /**
+     * SHA-1 as specified by FIPS 180-4.
+     */
+    private static final class Sha1 extends HmacSigner {
+        private static final int[] INITIAL_STATE =
+                {0x67452301, 0xEFCDAB89, 0x98BADCFE, 0x10325476, 0xC3D2E1F0};
+
+        private final int[] mState = new int[5];
+        private final int[] mInnerState = new int[5];
+        private final int[] mOuterState = new int[5];
+        private final int[] mW = new int[80];
+
+        private Sha1() {
+            super(64, 20, 8);
+        }
+
+        @Override
+        void resetToInitialState() {
+            System.arraycopy(INITIAL_STATE, 0, mState, 0, 5);
+        }
+
+        @Override
+        void saveInnerState() {
+            System.arraycopy(mState, 0, mInnerState, 0, 5);
+        }
+
+        @Override
+        void saveOuterState() {
+            System.arraycopy(mState, 0, mOuterState, 0, 5);
+        }
+
+        @Override
+        void restoreInnerState() {
+            System.arraycopy(mInnerState, 0, mState, 0, 5);
+        }
+
+        @Override
+        void restoreOuterState() {
+            System.arraycopy(mOuterState, 0, mState, 0, 5);
+        }
+
+        @Override
+        void compress(byte[] block, int offset) {
+            int[] w = mW;
+            for (int t = 0; t < 16; t++) {
+                w[t] = readInt(block, offset + 4 * t);
+            }
+            for (int t = 16; t < 80; t++) {
+                w[t] = Integer.rotateLeft(w[t - 3] ^ w[t - 8] ^ w[t - 14] ^ w[t - 16], 1);
+            }
+
+            int a = mState[0];
+            int b = mState[1];
+            int c = mState[2];
+            int d = mState[3];
+            int e = mState[4];
+            for (int t = 0; t < 80; t++) {
+                int f;
+                int k;
+                if (t < 20) {
+                    f = (b & c) | (~b & d);
+                    k = 0x5A827999;
+                } else if (t < 40) {
+                    f = b ^ c ^ d;
+                    k = 0x6ED9EBA1;
+                } else if (t < 60) {
+                    f = (b & c) | (b & d) | (c & d);
+                    k = 0x8F1BBCDC;
+                } else {
+                    f = b ^ c ^ d;
+                    k = 0xCA62C1D6;
+                }
+                int temp = Integer.rotateLeft(a, 5) + f + e + k + w[t];
+                e = d;
+                d = c;
+                c = Integer.rotateLeft(b, 30);
+                b = a;
+                a = temp;
+            }
+            mState[0] += a;
+            mState[1] += b;
+            mState[2] += c;
+            mState[3] += d;
+            mState[4] += e;
+        }
+
+        @Override
+        void writeDigest(byte[] out) {
+            writeInts(mState, out);
+        }
+    }
+
+    /**
+     * SHA-256 as specified by FIPS 180-4.
+     */
+    private static final class Sha256 extends HmacSigner {
+        private static final int[] INITIAL_STATE = {
+                0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a,
+                0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19};
+
+        private static final int[] K = {
+                0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4,
+                0xab1c5ed5, 0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe,
+                0x9bdc06a7, 0xc19bf174, 0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f,
+                0x4a7484aa, 0x5cb0a9dc, 0x76f988da, 0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7,
+                0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967, 0x27b70a85, 0x2e1b2138, 0x4d2c6dfc,
+                0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85, 0xa2bfe8a1, 0xa81a664b,
+                0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070, 0x19a4c116,
+                0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+                0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7,
+                0xc67178f2};
+
+        private final int[] mState = new int[8];
+        private final int[] mInnerState = new int[8];
+        private final int[] mOuterState = new int[8];
+        private final int[] mW = new int[64];
+
+        private Sha256() {
+            super(64, 32, 8);
+        }
+
+        @Override
+        void resetToInitialState() {
+            System.arraycopy(INITIAL_STATE, 0, mState, 0, 8);
+        }
+
+        @Override
+        void saveInnerState() {
+            System.arraycopy(mState, 0, mInnerState, 0, 8);
+        }
+
+        @Override
+        void saveOuterState() {
+            System.arraycopy(mState, 0, mOuterState, 0, 8);
+        }
+
+        @Override
+        void restoreInnerState() {
+            System.arraycopy(mInnerState, 0, mState, 0, 8);
+        }
+
+        @Override
+        void restoreOuterState() {
+            System.arraycopy(mOuterState, 0, mState, 0, 8);
+        }
+
+        @Override
+        void compress(byte[] block, int offset) {
+            int[] w = mW;
+            for (int t = 0; t < 16; t++) {
+                w[t] = readInt(block, offset + 4 * t);
+            }
+            for (int t = 16; t < 64; t++) {
+                int s0 = Integer.rotateRight(w[t - 15], 7) ^ Integer.rotateRight(w[t - 15], 18)
+                        ^ (w[t - 15] >>> 3);
+                int s1 = Integer.rotateRight(w[t - 2], 17) ^ Integer.rotateRight(w[t - 2], 19)
+                        ^ (w[t - 2] >>> 10);
+                w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+            }
+
+            int a = mState[0];
+            int b = mState[1];
+            int c = mState[2];
+            int d = mState[3];
+            int e = mState[4];
+            int f = mState[5];
+            int g = mState[6];
+            int h = mState[7];
+            for (int t = 0; t < 64; t++) {
+                int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11)
+                        ^ Integer.rotateRight(e, 25);
+                int ch = (e & f) ^ (~e & g);
+                int temp1 = h + s1 + ch + K[t] + w[t];
+                int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13)
+                        ^ Integer.rotateRight(a, 22);
+                int maj = (a & b) ^ (a & c) ^ (b & c);
+                int temp2 = s0 + maj;
+                h = g;
+                g = f;
+                f = e;
+                e = d + temp1;
+                d = c;
+                c = b;
+                b = a;
+                a = temp1 + temp2;
+            }
+            mState[0] += a;
+            mState[1] += b;
+            mState[2] += c;
+            mState[3] += d;
+            mState[4] += e;
+            mState[5] += f;
+            mState[6] += g;
+            mState[7] += h;
+        }
+
+        @Override
+        void writeDigest(byte[] out) {
+            writeInts(mState, out);
+        }
+    }
+
+    /**
+     * SHA-512 as specified by FIPS 180-4.
+     */
+    private static final class Sha512 extends HmacSigner {
+        private static final long[] INITIAL_STATE = {
+                0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+                0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L};
+
+        private static final long[] K = {
+                0x428a2f98d728ae22L, 0x7137449123ef65cdL, 0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL,
+                0x3956c25bf348b538L, 0x59f111f1b605d019L, 0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L,
+                0xd807aa98a3030242L, 0x12835b0145706fbeL, 0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L,
+                0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L, 0x9bdc06a725c71235L, 0xc19bf174cf692694L,
+                0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L, 0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L,
+                0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L, 0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L,
+                0x983e5152ee66dfabL, 0xa831c66d2db43210L, 0xb00327c898fb213fL, 0xbf597fc7beef0ee4L,
+                0xc6e00bf33da88fc2L, 0xd5a79147930aa725L, 0x06ca6351e003826fL, 0x142929670a0e6e70L,
+                0x27b70a8546d22ffcL, 0x2e1b21385c26c926L, 0x4d2c6dfc5ac42aedL, 0x53380d139d95b3dfL,
+                0x650a73548baf63deL, 0x766a0abb3c77b2a8L, 0x81c2c92e47edaee6L, 0x92722c851482353bL,
+                0xa2bfe8a14cf10364L, 0xa81a664bbc423001L, 0xc24b8b70d0f89791L, 0xc76c51a30654be30L,
+                0xd192e819d6ef5218L, 0xd69906245565a910L, 0xf40e35855771202aL, 0x106aa07032bbd1b8L,
+                0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L, 0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L,
+                0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL, 0x5b9cca4f7763e373L, 0x682e6ff3d6b2b8a3L,
+                0x748f82ee5defb2fcL, 0x78a5636f43172f60L, 0x84c87814a1f0ab72L, 0x8cc702081a6439ecL,
+                0x90befffa23631e28L, 0xa4506cebde82bde9L, 0xbef9a3f7b2c67915L, 0xc67178f2e372532bL,
+                0xca273eceea26619cL, 0xd186b8c721c0c207L, 0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L,
+                0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L, 0x113f9804bef90daeL, 0x1b710b35131c471bL,
+                0x28db77f523047d84L, 0x32caab7b40c72493L, 0x3c9ebe0a15c9bebcL, 0x431d67c49c100d4cL,
+                0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL, 0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L};
+
+        private final long[] mState = new long[8];
+        private final long[] mInnerState = new long[8];
+        private final long[] mOuterState = new long[8];
+        private final long[] mW = new long[80];
+
+        private Sha512() {
+            super(128, 64, 16);
+        }
+
+        @Override
+        void resetToInitialState() {
+            System.arraycopy(INITIAL_STATE, 0, mState, 0, 8);
+        }
+
+        @Override
+        void saveInnerState() {
+            System.arraycopy(mState, 0, mInnerState, 0, 8);
+        }
+
+        @Override
+        void saveOuterState() {
+            System.arraycopy(mState, 0, mOuterState, 0, 8);
+        }
+
+        @Override
+        void restoreInnerState() {
+            System.arraycopy(mInnerState, 0, mState, 0, 8);
+        }
+
+        @Override
+        void restoreOuterState() {
+            System.arraycopy(mOuterState, 0, mState, 0, 8);
+        }
+
+        @Override
+        void compress(byte[] block, int offset) {
+            long[] w = mW;
+            for (int t = 0; t < 16; t++) {
+                int i = offset + 8 * t;
+                w[t] = ((long) readInt(block, i) << 32) | (readInt(block, i + 4) & 0xFFFFFFFFL);
+            }
+            for (int t = 16; t < 80; t++) {
+                long s0 = Long.rotateRight(w[t - 15], 1) ^ Long.rotateRight(w[t - 15], 8)
+                        ^ (w[t - 15] >>> 7);
+                long s1 = Long.rotateRight(w[t - 2], 19) ^ Long.rotateRight(w[t - 2], 61)
+                        ^ (w[t - 2] >>> 6);
+                w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+            }
+
+            long a = mState[0];
+            long b = mState[1];
+            long c = mState[2];
+            long d = mState[3];
+            long e = mState[4];
+            long f = mState[5];
+            long g = mState[6];
+            long h = mState[7];
+            for (int t = 0; t < 80; t++) {
+                long s1 = Long.rotateRight(e, 14) ^ Long.rotateRight(e, 18)
+                        ^ Long.rotateRight(e, 41);
+                long ch = (e & f) ^ (~e & g);
+                long temp1 = h + s1 + ch + K[t] + w[t];
+                long s0 = Long.rotateRight(a, 28) ^ Long.rotateRight(a, 34)
+                        ^ Long.rotateRight(a, 39);
+                long maj = (a & b) ^ (a & c) ^ (b & c);
+                long temp2 = s0 + maj;
+                h = g;
+                g = f;
+                f = e;
+                e = d + temp1;
+                d = c;
+                c = b;
+                b = a;
+                a = temp1 + temp2;
+            }
+            mState[0] += a;
+            mState[1] += b;
+            mState[2] += c;
+            mState[3] += d;
+            mState[4] += e;
+            mState[5] += f;
+            mState[6] += g;
+            mState[7] += h;
+        }
+
+        @Override
+        void writeDigest(byte[] out) {
+            for (int i = 0, j = 0; i < 8; i++, j += 8) {
+                long value = mState[i];
+                for (int k = 7; k >= 0; k--) {
+                    out[j + k] = (byte) value;
+                    value >>>= 8;
+                }
+            }
+        }
+    }
+}
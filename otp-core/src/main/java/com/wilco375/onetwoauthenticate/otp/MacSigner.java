@@ -0,0 +1,78 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.StreamingSigner;
+import com.wilco375.onetwoauthenticate.util.Base32String;
+import com.wilco375.onetwoauthenticate.util.Base32String.DecodingException;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * {@link StreamingSigner} backed by an initialized {@link Mac}.
+ * <p>
+ * Instances are not thread-safe because {@link Mac} is not.
+ */
+public class MacSigner implements StreamingSigner {
+    private final Mac mMac;
+
+    public MacSigner(Mac mac) {
+        mMac = mac;
+    }
+
+    /**
+     * Creates a signer for the specified Base32 encoded secret.
+     *
+     * @param secret    Base32 encoded key.
+     * @param algorithm hash function of the HMAC.
+     */
+    public static MacSigner getInstance(String secret, Algorithm algorithm)
+            throws DecodingException, NoSuchAlgorithmException, InvalidKeyException {
+        byte[] keyBytes = Base32String.decode(secret);
+        Mac mac = Mac.getInstance(algorithm.macAlgorithm);
+        mac.init(new SecretKeySpec(keyBytes, ""));
+        return new MacSigner(mac);
+    }
+
+    @Override
+    public int getMacLength() {
+        return mMac.getMacLength();
+    }
+
+    @Override
+    public byte[] sign(byte[] data) {
+        return mMac.doFinal(data);
+    }
+
+    @Override
+    public int sign(byte[] data, byte[] out) throws GeneralSecurityException {
+        // Check before updating, so that a failure doesn't leave the data in the Mac
+        checkOutputLength(out);
+        mMac.update(data);
+        return doFinal(out);
+    }
+
+    @Override
+    public void update(byte[] data, int offset, int length) {
+        mMac.update(data, offset, length);
+    }
+
+    @Override
+    public int doFinal(byte[] out) throws GeneralSecurityException {
+        checkOutputLength(out);
+        mMac.doFinal(out, 0);
+        return mMac.getMacLength();
+    }
+
+    private void checkOutputLength(byte[] out) throws ShortBufferException {
+        if (out.length < mMac.getMacLength()) {
+            throw new ShortBufferException("Output buffer of " + out.length
+                    + " bytes too small for " + mMac.getMacLength());
+        }
+    }
+}
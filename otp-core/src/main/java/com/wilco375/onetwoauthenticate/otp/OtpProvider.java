@@ -0,0 +1,297 @@
+/*
+ * Copyright 2010 Google Inc. All Rights Reserved.
+ * Modified Copyright 2018 Wilco van Beijnum.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wilco375.onetwoauthenticate.otp;
+
+import com.wilco375.onetwoauthenticate.database.Account;
+import com.wilco375.onetwoauthenticate.database.AccountStore;
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.Signer;
+import com.wilco375.onetwoauthenticate.otp.totp.Clock;
+import com.wilco375.onetwoauthenticate.otp.totp.TotpCounter;
+
+import java.security.GeneralSecurityException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Class containing implementation of HOTP/TOTP.
+ * Generates OTP codes for one or more accounts.
+ *
+ * @author Steve Weis (sweis@google.com)
+ * @author Cem Paya (cemp@google.com)
+ */
+public class OtpProvider implements OtpSource {
+
+    private static final int REFLECTIVE_PIN_LENGTH = 9; // ROTP
+
+    @Override
+    public int enumerateAccounts(Collection<String> result) {
+        return mAccountStore.getNames(result);
+    }
+
+    @Override
+    public String getNextCode(String accountName) throws OtpSourceException {
+        return getCurrentCode(accountName, null);
+    }
+
+    // This variant is used when an additional challenge, such as URL or
+    // transaction details, are included in the OTP request.
+    // The additional string is appended to standard HOTP/TOTP state before
+    // applying the MAC function.
+    @Override
+    public String respondToChallenge(String accountName, String challenge) throws OtpSourceException {
+        // The challenge is encoded as UTF-8 while it's being signed
+        return getCurrentCode(accountName, challenge);
+    }
+
+    @Override
+    public CodeBatch computeCodes(long time) {
+        PrecomputedCodes precomputed = mPrecomputedCodes.get();
+        if (precomputed != null
+                && precomputed.accountsVersion == mAccountsVersion.get()
+                && precomputed.codes.isValidAt(time)) {
+            return precomputed.codes;
+        }
+        return computeCodesFromStore(time);
+    }
+
+    @Override
+    public void precomputeCodes(long time) {
+        // Read the version before the accounts, so that a change made while the codes are being
+        // computed leaves the result stale rather than silently wrong.
+        int accountsVersion = mAccountsVersion.get();
+        mPrecomputedCodes.set(new PrecomputedCodes(accountsVersion, computeCodesFromStore(time)));
+    }
+
+    private CodeBatch computeCodesFromStore(long time) {
+        List<Account> accounts = mAccountStore.getAllAccounts();
+        int count = accounts.size();
+        String[] names = new String[count];
+        OtpType[] types = new OtpType[count];
+        Integer[] colors = new Integer[count];
+        int[] periods = new int[count];
+        String[] codes = new String[count];
+        // Codes are valid as long as the counters of all time steps keep their values
+        long validFrom = Long.MIN_VALUE;
+        long validUntil = Long.MAX_VALUE;
+
+        for (int i = 0; i < count; i++) {
+            Account account = accounts.get(i);
+            names[i] = account.getName();
+            types[i] = account.getType();
+            colors[i] = account.getColor();
+            periods[i] = account.getPeriod();
+            if (account.getType() == OtpType.TOTP) {
+                TotpCounter counter = getTotpCounter(account.getPeriod());
+                long counterValue = counter.getValueAtTime(time);
+                validFrom = Math.max(validFrom, counter.getValueStartTime(counterValue));
+                validUntil = Math.min(validUntil, counter.getValueStartTime(counterValue + 1));
+                try {
+                    codes[i] = computePin(account.getName(), account.getSecret(),
+                            account.getAlgorithm(), account.getDigits(), counterValue, null);
+                } catch (OtpSourceException e) {
+                    // Leave the code empty, the account is still listed
+                }
+            }
+        }
+
+        return new CodeBatch(validFrom, validUntil, names, types, colors, periods, codes);
+    }
+
+    @Override
+    public TotpCounter getTotpCounter() {
+        return mTotpCounter;
+    }
+
+    @Override
+    public TotpCounter getTotpCounter(int period) {
+        TotpCounter counter = mTotpCounters.get(period);
+        if (counter == null) {
+            TotpCounter newCounter = new TotpCounter(period);
+            counter = mTotpCounters.putIfAbsent(period, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    @Override
+    public Clock getTotpClock() {
+        return mTotpClock;
+    }
+
+    private String getCurrentCode(String username, CharSequence challenge)
+            throws OtpSourceException {
+        // Account name is required.
+        if (username == null) {
+            throw new OtpSourceException("No account name");
+        }
+
+        // Read all attributes of the account at once
+        Account account = mAccountStore.getAccount(username);
+        if (account == null) {
+            throw new OtpSourceException("Unknown account");
+        }
+
+        long otp_state = 0;
+
+        if (account.getType() == OtpType.TOTP) {
+            // For time-based OTP, the state is derived from clock.
+            otp_state = getTotpCounter(account.getPeriod())
+                    .getValueAtTime(TimeUnit.MILLISECONDS.toSeconds(mTotpClock.currentTimeMillis()));
+        } else if (account.getType() == OtpType.HOTP) {
+            // For counter-based OTP, the state is obtained by incrementing stored counter.
+            Integer counter = mAccountStore.incrementCounter(username);
+            if (counter == null) {
+                // The account was deleted meanwhile
+                throw new OtpSourceException("Unknown account");
+            }
+            otp_state = counter;
+        }
+
+        return computePin(username, account.getSecret(), account.getAlgorithm(),
+                account.getDigits(), otp_state, challenge);
+    }
+
+    public OtpProvider(AccountStore accountStore, Clock totpClock) {
+        this(DEFAULT_INTERVAL, accountStore, totpClock);
+    }
+
+    public OtpProvider(int interval, AccountStore accountStore, Clock totpClock) {
+        this(interval, accountStore, totpClock, new SignerCache());
+    }
+
+    // @VisibleForTesting
+    OtpProvider(int interval, AccountStore accountStore, Clock totpClock, SignerCache signerCache) {
+        mAccountStore = accountStore;
+        mTotpCounter = getTotpCounter(interval);
+        mTotpClock = totpClock;
+        mSignerCache = signerCache;
+        mAccountStore.addAccountChangeListener(mSignerCache);
+        mAccountStore.addAccountChangeListener(email -> mAccountsVersion.incrementAndGet());
+    }
+
+    /**
+     * Computes the one-time PIN given the secret key.
+     *
+     * @param username  the account the secret key belongs to
+     * @param secret    the secret key
+     * @param algorithm hash function of the HMAC
+     * @param digits    number of digits of the PIN, unless a challenge is included
+     * @param otp_state current token state (counter or time-interval)
+     * @param challenge optional challenge to include when computing passcode.
+     * @return the PIN
+     */
+    private String computePin(String username, String secret, Algorithm algorithm, int digits,
+                              long otp_state, CharSequence challenge) throws OtpSourceException {
+        if (secret == null || secret.length() == 0) {
+            throw new OtpSourceException("Null or empty secret");
+        }
+
+        try {
+            Signer signer = mSignerCache.get(username, secret, algorithm);
+            if (signer == null) {
+                throw new OtpSourceException("Invalid secret");
+            }
+            PasscodeGenerator pcg = new PasscodeGenerator(signer,
+                    (challenge == null) ? digits : REFLECTIVE_PIN_LENGTH);
+
+            if (challenge == null) {
+                return pcg.generateResponseCode(otp_state);
+            }
+
+            // Reuse the encoder of a previous challenge, unless another thread is using it
+            ChallengeEncoder encoder = mIdleChallengeEncoder.getAndSet(null);
+            if (encoder == null) {
+                encoder = new ChallengeEncoder();
+            }
+            try {
+                return pcg.generateResponseCode(otp_state, challenge, encoder);
+            } finally {
+                mIdleChallengeEncoder.set(encoder);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new OtpSourceException("Crypto failure", e);
+        }
+    }
+
+    /**
+     * Default passcode timeout period (in seconds)
+     */
+    public static final int DEFAULT_INTERVAL = 30;
+
+    private final AccountStore mAccountStore;
+
+    /**
+     * Initialized signers of the accounts, so that the key schedule isn't redone for every code.
+     */
+    private final SignerCache mSignerCache;
+
+    /**
+     * Incremented whenever an account is added, changed or removed, which makes any precomputed
+     * codes stale.
+     */
+    private final AtomicInteger mAccountsVersion = new AtomicInteger();
+
+    /**
+     * Codes computed ahead of time by {@link #precomputeCodes(long)} or {@code null}.
+     */
+    private final AtomicReference<PrecomputedCodes> mPrecomputedCodes = new AtomicReference<>();
+
+    /**
+     * Encoder of challenges that is not in use, or {@code null}.
+     */
+    private final AtomicReference<ChallengeEncoder> mIdleChallengeEncoder =
+            new AtomicReference<>();
+
+    /**
+     * Counters for time-based OTPs (TOTP) by time step, shared by all accounts with the same time
+     * step.
+     */
+    private final ConcurrentHashMap<Integer, TotpCounter> mTotpCounters = new ConcurrentHashMap<>();
+
+    /**
+     * Counter for time-based OTPs (TOTP) with the default time step.
+     */
+    private final TotpCounter mTotpCounter;
+
+    /**
+     * Clock input for time-based OTPs (TOTP).
+     */
+    private final Clock mTotpClock;
+
+    /**
+     * Codes computed ahead of time together with the version of the accounts they were computed
+     * from.
+     */
+    private static class PrecomputedCodes {
+        private final int accountsVersion;
+        private final CodeBatch codes;
+
+        private PrecomputedCodes(int accountsVersion, CodeBatch codes) {
+            this.accountsVersion = accountsVersion;
+            this.codes = codes;
+        }
+    }
+}
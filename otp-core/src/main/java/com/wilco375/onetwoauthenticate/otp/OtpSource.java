@@ -17,7 +17,7 @@
 
 package com.wilco375.onetwoauthenticate.otp;
 
-import com.wilco375.onetwoauthenticate.otp.totp.TotpClock;
+import com.wilco375.onetwoauthenticate.otp.totp.Clock;
 import com.wilco375.onetwoauthenticate.otp.totp.TotpCounter;
 
 import java.util.Collection;
@@ -61,12 +61,40 @@ public interface OtpSource {
     String respondToChallenge(String accountName, String challenge) throws OtpSourceException;
 
     /**
-     * Gets the counter for generating or verifying TOTP codes.
+     * Computes the TOTP codes of all accounts for the specified time in a single pass. Unlike
+     * {@link #getNextCode(String)}, this never changes the state of HOTP accounts.
+     *
+     * @param time time (seconds since epoch) according to the {@link #getTotpClock() TOTP clock}.
+     * @return names, types, colors and codes of all accounts in display order.
+     */
+    CodeBatch computeCodes(long time);
+
+    /**
+     * Computes the TOTP codes of all accounts for the specified time ahead of time, so that a
+     * later call to {@link #computeCodes(long)} for a time at which the codes are still valid
+     * returns them without any further work, unless the accounts have changed in the meantime.
+     * May be invoked on a background thread.
+     *
+     * @param time upcoming time (seconds since epoch), typically the time at which the next
+     *             counter value starts.
+     */
+    void precomputeCodes(long time);
+
+    /**
+     * Gets the counter for generating or verifying TOTP codes with the default time step.
      */
     TotpCounter getTotpCounter();
 
+    /**
+     * Gets the counter for generating or verifying TOTP codes with the specified time step. The
+     * same instance is returned for all accounts with the same time step.
+     *
+     * @param period time step (seconds).
+     */
+    TotpCounter getTotpCounter(int period);
+
     /**
      * Gets the clock for generating or verifying TOTP codes.
      */
-    TotpClock getTotpClock();
+    Clock getTotpClock();
 }
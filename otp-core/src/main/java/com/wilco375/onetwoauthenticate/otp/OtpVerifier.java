@@ -0,0 +1,190 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import com.wilco375.onetwoauthenticate.database.Account;
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.Signer;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Verifies TOTP and HOTP codes entered by users, for example on a server that accepts codes
+ * from this app.
+ * <p>
+ * Codes are compared as integers in constant time and every counter value of the window is
+ * checked, so the time taken doesn't reveal whether or where a code matched. Accepted TOTP
+ * codes are recorded in a {@link ReplayCache}, so that every code can only be used once.
+ * <p>
+ * The signers of the accounts are cached, and every thread signs with its own copy of them, so
+ * threads verifying codes for the same account don't block each other. The cache should hold
+ * the signers of all accounts that verify codes, see {@link #OtpVerifier(int)}.
+ * <p>
+ * This class is thread-safe and meant to be shared by all threads verifying codes.
+ */
+public class OtpVerifier {
+
+    /**
+     * Default number of digits of the codes of accounts that are verified by name and secret.
+     */
+    public static final int DEFAULT_CODE_LENGTH = 6;
+
+    /**
+     * Default number of counter values before and after the current one that are accepted.
+     */
+    public static final int DEFAULT_WINDOW = 1;
+
+    /**
+     * Counter value returned when a code doesn't match.
+     */
+    public static final long NO_MATCH = -1;
+
+    private final SignerCache mSignerCache;
+    private final ReplayCache mReplayCache;
+    private final int mCodeLength;
+    private final int mPastIntervals;
+    private final int mFutureIntervals;
+
+    public OtpVerifier() {
+        this(SignerCache.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param accountCount number of accounts whose codes are verified, so that the signers of all
+     *                     of them stay cached.
+     */
+    public OtpVerifier(int accountCount) {
+        this(new SignerCache(accountCount), new ReplayCache(), DEFAULT_CODE_LENGTH, DEFAULT_WINDOW,
+                DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param signerCache     cache of the signers of the accounts.
+     * @param replayCache     cache of the used TOTP counter values of the accounts.
+     * @param codeLength      number of digits of the codes of accounts that are verified by name
+     *                        and secret.
+     * @param pastIntervals   number of counter values before the current one that are accepted.
+     * @param futureIntervals number of counter values after the current one that are accepted.
+     */
+    public OtpVerifier(SignerCache signerCache, ReplayCache replayCache, int codeLength,
+                       int pastIntervals, int futureIntervals) {
+        if (pastIntervals < 0 || futureIntervals < 0) {
+            throw new IllegalArgumentException("Window must not be negative: -" + pastIntervals
+                    + ", +" + futureIntervals);
+        }
+        mSignerCache = signerCache;
+        mReplayCache = replayCache;
+        mCodeLength = codeLength;
+        mPastIntervals = pastIntervals;
+        mFutureIntervals = futureIntervals;
+    }
+
+    /**
+     * Verifies an HMAC-SHA1 TOTP code of the verifier's code length and marks it as used.
+     *
+     * @param accountName     name of the account.
+     * @param secret          Base32 encoded secret of the account.
+     * @param currentInterval current value of the TOTP counter.
+     * @param code            code entered by the user.
+     * @return {@code true} if the code is valid within the window and has not been used before.
+     */
+    public boolean verifyTotp(String accountName, String secret, long currentInterval, String code)
+            throws OtpSourceException {
+        return verifyTotp(accountName, secret, Algorithm.SHA1, mCodeLength, currentInterval, code);
+    }
+
+    /**
+     * Verifies a TOTP code with the algorithm and number of digits of the account and marks it as
+     * used.
+     *
+     * @param account         account the code was generated for.
+     * @param currentInterval current value of the TOTP counter, for the period of the account.
+     * @param code            code entered by the user.
+     * @return {@code true} if the code is valid within the window and has not been used before.
+     */
+    public boolean verifyTotp(Account account, long currentInterval, String code)
+            throws OtpSourceException {
+        return verifyTotp(account.getName(), account.getSecret(), account.getAlgorithm(),
+                account.getDigits(), currentInterval, code);
+    }
+
+    private boolean verifyTotp(String accountName, String secret, Algorithm algorithm, int digits,
+                               long currentInterval, String code) throws OtpSourceException {
+        long counter = findCounter(accountName, secret, algorithm, digits,
+                currentInterval - mPastIntervals, currentInterval + mFutureIntervals, code);
+        return counter != NO_MATCH && mReplayCache.markUsed(accountName, counter);
+    }
+
+    /**
+     * Verifies an HMAC-SHA1 HOTP code of the verifier's code length. The caller is responsible for
+     * storing the counter value following the returned one as the new counter of the account,
+     * which also prevents replays.
+     *
+     * @param accountName name of the account.
+     * @param secret      Base32 encoded secret of the account.
+     * @param counter     next counter value expected for the account.
+     * @param code        code entered by the user.
+     * @return the counter value of the code, which is at most {@code futureIntervals} ahead of
+     * {@code counter}, or {@link #NO_MATCH} if the code is invalid.
+     */
+    public long verifyHotp(String accountName, String secret, long counter, String code)
+            throws OtpSourceException {
+        return findCounter(accountName, secret, Algorithm.SHA1, mCodeLength, counter,
+                counter + mFutureIntervals, code);
+    }
+
+    /**
+     * Verifies a HOTP code with the algorithm and number of digits of the account, see
+     * {@link #verifyHotp(String, String, long, String)}.
+     *
+     * @param account account the code was generated for.
+     * @param counter next counter value expected for the account.
+     * @param code    code entered by the user.
+     * @return the counter value of the code or {@link #NO_MATCH} if the code is invalid.
+     */
+    public long verifyHotp(Account account, long counter, String code)
+            throws OtpSourceException {
+        return findCounter(account.getName(), account.getSecret(), account.getAlgorithm(),
+                account.getDigits(), counter, counter + mFutureIntervals, code);
+    }
+
+    /**
+     * Finds the first non-negative counter value in {@code [first, last]} whose code equals the
+     * specified code.
+     *
+     * @return the counter value or {@link #NO_MATCH}
+     */
+    private long findCounter(String accountName, String secret, Algorithm algorithm, int digits,
+                             long first, long last, String code) throws OtpSourceException {
+        if (secret == null || secret.length() == 0) {
+            throw new OtpSourceException("Null or empty secret");
+        }
+
+        Signer signer = mSignerCache.get(accountName, secret, algorithm);
+        if (signer == null) {
+            throw new OtpSourceException("Invalid secret");
+        }
+
+        // One generator per call, so that its state buffer is reused for the whole window without
+        // being shared between threads
+        PasscodeGenerator generator = new PasscodeGenerator(signer, digits);
+        int value = generator.parseCode(code);
+        if (value < 0) {
+            return NO_MATCH;
+        }
+
+        try {
+            long match = NO_MATCH;
+            int found = 0;
+            for (long counter = Math.max(first, 0); counter <= last; counter++) {
+                int equal = PasscodeGenerator.codesEqual(generator.generateResponseCodeInt(counter),
+                        value);
+                // All ones if this is the first match, without branching on the result
+                long mask = -(long) (equal & ~found);
+                match = (match & ~mask) | (counter & mask);
+                found |= equal;
+            }
+            return match;
+        } catch (GeneralSecurityException e) {
+            throw new OtpSourceException("Crypto failure", e);
+        }
+    }
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright 2009 Google Inc. All Rights Reserved.
+ * Modified Copyright 2018 Wilco van Beijnum.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wilco375.onetwoauthenticate.otp;
+
+import com.wilco375.onetwoauthenticate.otp.OtpProvider;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+
+/**
+ * An implementation of the HOTP generator specified by RFC 4226. Generates
+ * short passcodes that may be used in challenge-response protocols or as
+ * timeout passcodes that are only valid for a short period.
+ * <p>
+ * The default passcode is a 6-digit decimal code. The maximum passcode length is 9 digits.
+ * <p>
+ * Instances are not thread-safe: the 8-byte OTP state is encoded into a buffer owned by the
+ * generator so that {@link #generateResponseCodeInt(long)} and
+ * {@link #writeResponseCode(long, char[], int)} do not allocate.
+ * <p>
+ * With a {@link StreamingSigner} the OTP state and the challenge of a challenge-response code are
+ * fed to the signer one after the other instead of being concatenated into a new buffer.
+ *
+ * @author sweis@google.com (Steve Weis)
+ */
+public class PasscodeGenerator {
+    private static final int MAX_PASSCODE_LENGTH = 9;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Default time interval
+     */
+    public static final int INTERVAL = OtpProvider.DEFAULT_INTERVAL;
+
+    /**
+     * Default decimal passcode length
+     */
+    private static final int PASS_CODE_LENGTH = 6;
+
+    /**
+     * The number of previous and future intervals to check
+     */
+    private static final int ADJACENT_INTERVALS = 1;
+
+    /**
+     * Powers of 10 used to shorten the pin to the desired number of digits
+     */
+    private static final int[] DIGITS_POWER
+            // 0 1  2   3    4     5      6       7        8         9
+            = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000};
+
+    private final Signer signer;
+    private final int codeLength;
+
+    /**
+     * Reusable buffer holding the big-endian encoding of the OTP state being signed.
+     */
+    private final byte[] stateBytes = new byte[8];
+
+    /**
+     * Reusable buffer receiving the signature of the OTP state, or {@code null} if the signer
+     * can't sign into a buffer.
+     */
+    private final byte[] hashBytes;
+
+    /**
+     * Using an interface to allow us to inject different signature
+     * implementations.
+     */
+    public interface Signer {
+        /**
+         * @param data Preimage to sign, represented as sequence of arbitrary bytes
+         * @return Signature as sequence of bytes.
+         * @throws GeneralSecurityException
+         */
+        byte[] sign(byte[] data) throws GeneralSecurityException;
+    }
+
+    /**
+     * {@link Signer} that can also sign into a caller provided buffer, so that generating a code
+     * doesn't allocate any memory.
+     */
+    public interface BufferedSigner extends Signer {
+        /**
+         * Gets the length (bytes) of the signatures.
+         */
+        int getMacLength();
+
+        /**
+         * @param data Preimage to sign, represented as sequence of arbitrary bytes
+         * @param out  Buffer of at least {@link #getMacLength()} bytes receiving the signature
+         * @return Length of the signature
+         * @throws GeneralSecurityException
+         */
+        int sign(byte[] data, byte[] out) throws GeneralSecurityException;
+    }
+
+    /**
+     * {@link BufferedSigner} that can also sign a message fed in parts.
+     * <p>
+     * A signer shared between threads must be locked by synchronizing on it from the first
+     * {@link #update(byte[], int, int)} of a message until its {@link #doFinal(byte[])}.
+     * {@link PasscodeGenerator} does so.
+     */
+    public interface StreamingSigner extends BufferedSigner {
+        /**
+         * Appends bytes to the message being signed.
+         *
+         * @param data   array containing the bytes
+         * @param offset offset of the first byte in {@code data}
+         * @param length number of bytes
+         * @throws GeneralSecurityException
+         */
+        void update(byte[] data, int offset, int length) throws GeneralSecurityException;
+
+        /**
+         * Signs the bytes appended since the previous signature and starts a new message.
+         *
+         * @param out Buffer of at least {@link #getMacLength()} bytes receiving the signature
+         * @return Length of the signature
+         * @throws GeneralSecurityException
+         */
+        int doFinal(byte[] out) throws GeneralSecurityException;
+    }
+
+    /**
+     * @param mac A {@link Mac} used to generate passcodes
+     */
+    public PasscodeGenerator(Mac mac) {
+        this(mac, PASS_CODE_LENGTH);
+    }
+
+    public PasscodeGenerator(Signer signer) {
+        this(signer, PASS_CODE_LENGTH);
+    }
+
+    /**
+     * @param mac            A {@link Mac} used to generate passcodes
+     * @param passCodeLength The length of the decimal passcode
+     */
+    public PasscodeGenerator(final Mac mac, int passCodeLength) {
+        this(new MacSigner(mac), passCodeLength);
+    }
+
+    public PasscodeGenerator(Signer signer, int passCodeLength) {
+        if ((passCodeLength < 1) || (passCodeLength > MAX_PASSCODE_LENGTH)) {
+            throw new IllegalArgumentException(
+                    "PassCodeLength must be between 1 and " + MAX_PASSCODE_LENGTH
+                            + " digits.");
+        }
+        this.signer = signer;
+        this.codeLength = passCodeLength;
+        this.hashBytes = (signer instanceof BufferedSigner)
+                ? new byte[((BufferedSigner) signer).getMacLength()]
+                : null;
+    }
+
+    /**
+     * Gets the number of decimal digits in the passcodes generated by this generator.
+     */
+    public int getCodeLength() {
+        return codeLength;
+    }
+
+    private String padOutput(int value) {
+        char[] digits = new char[codeLength];
+        formatCode(value, digits, 0);
+        return new String(digits);
+    }
+
+    /**
+     * Writes the zero-padded decimal representation of the code into the provided array.
+     */
+    private void formatCode(int value, char[] out, int off) {
+        for (int i = off + codeLength - 1; i >= off; i--) {
+            out[i] = (char) ('0' + (value % 10));
+            value /= 10;
+        }
+    }
+
+    /**
+     * @param state 8-byte integer value representing internal OTP state.
+     * @return A decimal response code
+     * @throws GeneralSecurityException If a JCE exception occur
+     */
+    public String generateResponseCode(long state)
+            throws GeneralSecurityException {
+        return padOutput(generateResponseCodeInt(state));
+    }
+
+    /**
+     * Generates the response code as an integer without allocating any memory besides what the
+     * {@link Signer} allocates, which is nothing for a {@link BufferedSigner}. The code is in
+     * {@code [0, 10^codeLength)} and has to be zero-padded to {@link #getCodeLength()} digits
+     * before it is displayed.
+     *
+     * @param state 8-byte integer value representing internal OTP state.
+     * @return the response code
+     * @throws GeneralSecurityException If a JCE exception occur
+     */
+    public int generateResponseCodeInt(long state) throws GeneralSecurityException {
+        encodeState(state);
+        if (hashBytes != null) {
+            return truncate(hashBytes, ((BufferedSigner) signer).sign(stateBytes, hashBytes));
+        }
+        byte[] hash = signer.sign(stateBytes);
+        return truncate(hash, hash.length);
+    }
+
+    /**
+     * Writes the big-endian encoding of the OTP state into {@link #stateBytes}.
+     */
+    private void encodeState(long state) {
+        for (int i = 7; i >= 0; i--) {
+            stateBytes[i] = (byte) state;
+            state >>>= 8;
+        }
+    }
+
+    /**
+     * Writes the zero-padded decimal response code into the provided array without allocating any
+     * memory besides what the {@link Signer} allocates.
+     *
+     * @param state 8-byte integer value representing internal OTP state.
+     * @param out   array to write the {@link #getCodeLength()} digits of the code to.
+     * @param off   offset in {@code out} at which to write the first digit.
+     * @throws GeneralSecurityException If a JCE exception occur
+     */
+    public void writeResponseCode(long state, char[] out, int off)
+            throws GeneralSecurityException {
+        if (off < 0 || off + codeLength > out.length) {
+            throw new IndexOutOfBoundsException(
+                    "Cannot write " + codeLength + " digits at offset " + off);
+        }
+        formatCode(generateResponseCodeInt(state), out, off);
+    }
+
+
+    /**
+     * @param state     8-byte integer value representing internal OTP state.
+     * @param challenge Optional challenge as array of bytes.
+     * @return A decimal response code
+     * @throws GeneralSecurityException If a JCE exception occur
+     */
+    public String generateResponseCode(long state, byte[] challenge)
+            throws GeneralSecurityException {
+        if (challenge == null) {
+            return generateResponseCode(state);
+        } else if (signer instanceof StreamingSigner) {
+            StreamingSigner streamingSigner = (StreamingSigner) signer;
+            synchronized (streamingSigner) {
+                encodeState(state);
+                streamingSigner.update(stateBytes, 0, stateBytes.length);
+                streamingSigner.update(challenge, 0, challenge.length);
+                return padOutput(truncate(hashBytes, streamingSigner.doFinal(hashBytes)));
+            }
+        } else {
+            // Allocate space for combination and store.
+            byte value[] = ByteBuffer.allocate(8 + challenge.length)
+                    .putLong(state)  // Write out OTP state
+                    .put(challenge, 0, challenge.length) // Concatenate with challenge.
+                    .array();
+            return generateResponseCode(value);
+        }
+    }
+
+    /**
+     * Generates the response code for a challenge string, which is signed as its UTF-8 encoding
+     * appended to the OTP state.
+     *
+     * @param state     8-byte integer value representing internal OTP state.
+     * @param challenge Optional challenge string.
+     * @param encoder   Encoder used to feed the challenge to a {@link StreamingSigner}.
+     * @return A decimal response code
+     * @throws GeneralSecurityException If a JCE exception occur
+     */
+    public String generateResponseCode(long state, CharSequence challenge,
+                                       ChallengeEncoder encoder)
+            throws GeneralSecurityException {
+        if (challenge == null) {
+            return generateResponseCode(state);
+        } else if (signer instanceof StreamingSigner) {
+            StreamingSigner streamingSigner = (StreamingSigner) signer;
+            synchronized (streamingSigner) {
+                encodeState(state);
+                streamingSigner.update(stateBytes, 0, stateBytes.length);
+                encoder.update(streamingSigner, challenge);
+                return padOutput(truncate(hashBytes, streamingSigner.doFinal(hashBytes)));
+            }
+        } else {
+            return generateResponseCode(state, challenge.toString().getBytes(UTF_8));
+        }
+    }
+
+    /**
+     * @param challenge An arbitrary byte array used as a challenge
+     * @return A decimal response code
+     * @throws GeneralSecurityException If a JCE exception occur
+     */
+    public String generateResponseCode(byte[] challenge)
+            throws GeneralSecurityException {
+        byte[] hash = signer.sign(challenge);
+        return padOutput(truncate(hash, hash.length));
+    }
+
+    /**
+     * Dynamically truncates the first {@code length} bytes of the hash to a code of
+     * {@link #codeLength} digits.
+     */
+    private int truncate(byte[] hash, int length) {
+        // OffsetBits are the low order bits of the last byte of the hash
+        int offset = hash[length - 1] & 0xF;
+        // Grab a positive integer value starting at the given offset.
+        int truncatedHash = hashToInt(hash, offset) & 0x7FFFFFFF;
+        return truncatedHash % DIGITS_POWER[codeLength];
+    }
+
+    /**
+     * Grabs a positive integer value from the input array starting at
+     * the given offset.
+     *
+     * @param bytes the array of bytes
+     * @param start the index into the array to start grabbing bytes
+     * @return the integer constructed from the four bytes in the array
+     */
+    private static int hashToInt(byte[] bytes, int start) {
+        return ((bytes[start] & 0xFF) << 24)
+                | ((bytes[start + 1] & 0xFF) << 16)
+                | ((bytes[start + 2] & 0xFF) << 8)
+                | (bytes[start + 3] & 0xFF);
+    }
+
+    /**
+     * Parses a code of {@link #getCodeLength()} decimal digits, as generated by this generator.
+     *
+     * @param code the code
+     * @return the value of the code or {@code -1} if the code is not a number of the right length
+     */
+    public int parseCode(String code) {
+        if (code == null || code.length() != codeLength) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < codeLength; i++) {
+            char c = code.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Compares two codes in time independent of where they differ.
+     *
+     * @return {@code 1} if the codes are equal, {@code 0} otherwise
+     */
+    public static int codesEqual(int a, int b) {
+        int diff = a ^ b;
+        // (diff | -diff) has its sign bit set for every non-zero diff
+        return ((diff | -diff) >>> 31) ^ 1;
+    }
+
+    /**
+     * @param challenge A challenge to check a response against
+     * @param response  A response to verify
+     * @return True if the response is valid
+     */
+    public boolean verifyResponseCode(long challenge, String response)
+            throws GeneralSecurityException {
+        int value = parseCode(response);
+        if (value < 0) {
+            return false;
+        }
+        return codesEqual(generateResponseCodeInt(challenge), value) == 1;
+    }
+
+    /**
+     * Verify a timeout code. The timeout code will be valid for a time
+     * determined by the interval period and the number of adjacent intervals
+     * checked.
+     *
+     * @param timeoutCode The timeout code
+     * @return True if the timeout code is valid
+     */
+    public boolean verifyTimeoutCode(long currentInterval, String timeoutCode)
+            throws GeneralSecurityException {
+        return verifyTimeoutCode(timeoutCode, currentInterval,
+                ADJACENT_INTERVALS, ADJACENT_INTERVALS);
+    }
+
+    /**
+     * Verify a timeout code. The timeout code will be valid for a time
+     * determined by the interval period and the number of adjacent intervals
+     * checked.
+     *
+     * @param timeoutCode     The timeout code
+     * @param pastIntervals   The number of past intervals to check
+     * @param futureIntervals The number of future intervals to check
+     * @return True if the timeout code is valid
+     */
+    public boolean verifyTimeoutCode(String timeoutCode,
+                                     long currentInterval,
+                                     int pastIntervals,
+                                     int futureIntervals) throws GeneralSecurityException {
+        // Ensure that look-ahead and look-back counts are not negative.
+        pastIntervals = Math.max(pastIntervals, 0);
+        futureIntervals = Math.max(futureIntervals, 0);
+
+        int value = parseCode(timeoutCode);
+        if (value < 0) {
+            return false;
+        }
+
+        // Try upto "pastIntervals" before current time, and upto "futureIntervals" after. All
+        // intervals are checked so that the time taken doesn't reveal which one matched.
+        int matches = 0;
+        for (int i = -pastIntervals; i <= futureIntervals; ++i) {
+            matches |= codesEqual(generateResponseCodeInt(currentInterval - i), value);
+        }
+
+        return matches == 1;
+    }
+}
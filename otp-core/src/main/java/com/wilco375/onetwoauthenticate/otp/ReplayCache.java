@@ -0,0 +1,99 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers which counter values have been used per account, so that a one-time code is only
+ * accepted once.
+ * <p>
+ * For every account only the highest counter value that was used is kept: codes for that or any
+ * earlier counter value are rejected, because accepting a code implies that all earlier ones are
+ * spent. An entry whose counter value is older than the verification window can no longer reject
+ * anything, and is overwritten by the next code accepted for its account, so verifying a code
+ * never scans the cache. There is at most one entry per account. {@link #purgeExpired(long)}
+ * removes the entries of accounts that stopped using codes, and is meant to run on a scheduled
+ * task rather than while verifying.
+ * <p>
+ * This class is thread-safe and doesn't lock: entries are kept in a {@link ConcurrentHashMap}
+ * striped over {@code concurrencyLevel} segments and updated with compare-and-set.
+ */
+public class ReplayCache {
+
+    /**
+     * Counter value of an entry that has been purged and must not be updated anymore.
+     */
+    private static final long EXPIRED = Long.MIN_VALUE;
+
+    private final ConcurrentHashMap<String, AtomicLong> mLastUsedCounters;
+
+    public ReplayCache() {
+        this(16);
+    }
+
+    /**
+     * @param concurrencyLevel estimated number of threads using the cache at the same time.
+     */
+    public ReplayCache(int concurrencyLevel) {
+        mLastUsedCounters = new ConcurrentHashMap<>(16, 0.75f, concurrencyLevel);
+    }
+
+    /**
+     * Marks the counter value of an account as used.
+     *
+     * @param accountName name of the account.
+     * @param counter     counter value of the code that is being accepted. Must be greater than
+     *                    {@link Long#MIN_VALUE}.
+     * @return {@code true} if the counter value is newer than any value used before, or
+     * {@code false} if the code has to be rejected as a replay.
+     */
+    public boolean markUsed(String accountName, long counter) {
+        while (true) {
+            AtomicLong lastUsed = mLastUsedCounters.get(accountName);
+            if (lastUsed == null) {
+                lastUsed = mLastUsedCounters.putIfAbsent(accountName, new AtomicLong(counter));
+                if (lastUsed == null) {
+                    return true;
+                }
+            }
+
+            long last = lastUsed.get();
+            if (last == EXPIRED) {
+                // Purged concurrently, replace it with a fresh entry
+                mLastUsedCounters.remove(accountName, lastUsed);
+                continue;
+            }
+            if (counter <= last) {
+                return false;
+            }
+            if (lastUsed.compareAndSet(last, counter)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes the entries of all accounts whose last used counter value is older than the specified
+     * value.
+     *
+     * @param oldestValidCounter oldest counter value that is still accepted by the verifier.
+     */
+    public void purgeExpired(long oldestValidCounter) {
+        for (Map.Entry<String, AtomicLong> entry : mLastUsedCounters.entrySet()) {
+            AtomicLong lastUsed = entry.getValue();
+            long last = lastUsed.get();
+            // Mark the entry first, so that a concurrent markUsed() can't be lost with it
+            if (last != EXPIRED && last < oldestValidCounter && lastUsed.compareAndSet(last, EXPIRED)) {
+                mLastUsedCounters.remove(entry.getKey(), lastUsed);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of accounts in the cache.
+     */
+    public int size() {
+        return mLastUsedCounters.size();
+    }
+}
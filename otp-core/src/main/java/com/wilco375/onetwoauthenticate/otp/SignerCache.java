@@ -0,0 +1,185 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import com.wilco375.onetwoauthenticate.database.AccountStore;
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.Signer;
+import com.wilco375.onetwoauthenticate.util.Base32String;
+import com.wilco375.onetwoauthenticate.util.Base32String.DecodingException;
+
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Bounded, least-recently-used cache of {@link Signer} instances keyed by account name.
+ * <p>
+ * Creating a signer decodes the Base32 secret, looks up the HMAC implementation and runs the
+ * HMAC key schedule. Caching the initialized signer means that computing a code only costs the
+ * HMAC itself. Each entry remembers the secret and algorithm it was created from, so an entry is
+ * rebuilt as soon as either changes for the account, even if {@link #invalidate(String)} was not
+ * called.
+ * <p>
+ * {@link Mac} is not thread-safe, so every thread gets its own signer for an account. It's a copy
+ * of the {@link Mac} initialized by the cache, which doesn't repeat the key schedule. Threads
+ * computing codes for the same account therefore never block each other. A signer must only be
+ * used by the thread that got it.
+ */
+public class SignerCache implements AccountStore.AccountChangeListener {
+
+    /**
+     * Default maximum number of signers kept by the cache.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int mCapacity;
+
+    /**
+     * Cached signers in access order, least recently used first.
+     *
+     * @GuardedBy {@code this}
+     */
+    private final LinkedHashMap<String, CachedSigner> mEntries;
+
+    public SignerCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity maximum number of signers kept by the cache.
+     */
+    public SignerCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mCapacity = capacity;
+        mEntries = new LinkedHashMap<String, CachedSigner>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedSigner> eldest) {
+                return size() > mCapacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the HMAC-SHA1 signer for the specified account, creating it if it's not cached or if it
+     * was created from a different secret.
+     *
+     * @param accountName name of the account.
+     * @param secret      Base32 encoded secret currently stored for the account.
+     * @return the signer of the calling thread or {@code null} if the secret is not a valid key.
+     */
+    public Signer get(String accountName, String secret) {
+        return get(accountName, secret, Algorithm.SHA1);
+    }
+
+    /**
+     * Gets the signer for the specified account, creating it if it's not cached or if it was
+     * created from a different secret or algorithm.
+     *
+     * @param accountName name of the account.
+     * @param secret      Base32 encoded secret currently stored for the account.
+     * @param algorithm   hash function of the HMAC currently stored for the account.
+     * @return the signer of the calling thread or {@code null} if the secret is not a valid key.
+     */
+    public Signer get(String accountName, String secret, Algorithm algorithm) {
+        CachedSigner entry;
+        synchronized (this) {
+            entry = mEntries.get(accountName);
+        }
+        try {
+            if (entry == null || !entry.secret.equals(secret) || entry.algorithm != algorithm) {
+                // Run the key schedule outside the lock, it's the expensive part.
+                entry = new CachedSigner(secret, algorithm);
+                synchronized (this) {
+                    mEntries.put(accountName, entry);
+                }
+            }
+            return entry.getSigner();
+        } catch (GeneralSecurityException | DecodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Removes the signer of the specified account from the cache.
+     */
+    public synchronized void invalidate(String accountName) {
+        mEntries.remove(accountName);
+    }
+
+    /**
+     * Removes all signers from the cache.
+     */
+    public synchronized void invalidateAll() {
+        mEntries.clear();
+    }
+
+    /**
+     * Gets the number of cached signers.
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    @Override
+    public void onAccountChanged(String email) {
+        if (email == null) {
+            invalidateAll();
+        } else {
+            invalidate(email);
+        }
+    }
+
+    /**
+     * Initialized {@link Mac} of an account together with the secret and algorithm it was created
+     * from, and the copies of it used by each thread.
+     */
+    private static class CachedSigner {
+        private final String secret;
+        private final Algorithm algorithm;
+        private final SecretKeySpec key;
+
+        /**
+         * Initialized {@link Mac} that is only ever copied, never used to sign.
+         */
+        private final Mac mac;
+
+        private final ThreadLocal<MacSigner> threadSigners = new ThreadLocal<>();
+
+        private CachedSigner(String secret, Algorithm algorithm)
+                throws GeneralSecurityException, DecodingException {
+            this.secret = secret;
+            this.algorithm = algorithm;
+            key = new SecretKeySpec(Base32String.decode(secret), "");
+            mac = Mac.getInstance(algorithm.macAlgorithm);
+            mac.init(key);
+        }
+
+        /**
+         * Gets the signer of the calling thread, copying the initialized {@link Mac} for it on
+         * first use.
+         */
+        private MacSigner getSigner() throws GeneralSecurityException {
+            MacSigner signer = threadSigners.get();
+            if (signer == null) {
+                signer = new MacSigner(copyMac());
+                threadSigners.set(signer);
+            }
+            return signer;
+        }
+
+        private Mac copyMac() throws GeneralSecurityException {
+            try {
+                return (Mac) mac.clone();
+            } catch (CloneNotSupportedException e) {
+                // Not every provider can copy a Mac, run the key schedule again
+                Mac copy = Mac.getInstance(algorithm.macAlgorithm);
+                copy.init(key);
+                return copy;
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.wilco375.onetwoauthenticate.otp.totp;
+
+/**
+ * Source of the current time for the time-based OTPs (TOTP).
+ */
+public interface Clock {
+
+    /**
+     * Gets the number of milliseconds since epoch.
+     */
+    long currentTimeMillis();
+}
@@ -0,0 +1,108 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import com.wilco375.onetwoauthenticate.database.Account;
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
+import com.wilco375.onetwoauthenticate.util.Base32String;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Unit tests for {@link BulkCodeGenerator}.
+ */
+public class BulkCodeGeneratorTest extends TestCase {
+    private static final String SECRET = "7777777777777777"; // 16 sevens
+    private static final String SECRET2 = "2222222222222222"; // 16 twos
+    private static final int DIGITS = 6;
+    private static final long TIME = OtpProvider.DEFAULT_INTERVAL * 1234567890L;
+
+    private ExecutorService executor;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    private static Account totp(String name, String secret) {
+        return new Account(name, secret, OtpType.TOTP, 0, null, Algorithm.SHA1,
+                DIGITS, OtpProvider.DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Creates accounts with random secrets and a mix of types, algorithms, digits and periods.
+     */
+    private static List<Account> randomAccounts(int count) {
+        Random random = new Random(0);
+        List<Account> accounts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] key = new byte[10];
+            random.nextBytes(key);
+            accounts.add(new Account(String.valueOf(i), Base32String.encode(key),
+                    (i % 5 == 0) ? OtpType.HOTP : OtpType.TOTP, i, null,
+                    Algorithm.values()[i % Algorithm.values().length], 6 + i % 3, 30 + 30 * (i % 2)));
+        }
+        return accounts;
+    }
+
+    /**
+     * Generates the code of the account one at a time, like {@link OtpProvider} does.
+     */
+    private static String sequentialCode(Account account, long time) throws Exception {
+        long state = (account.getType() == OtpType.HOTP)
+                ? account.getCounter() + 1
+                : time / account.getPeriod();
+        return new PasscodeGenerator(
+                MacSigner.getInstance(account.getSecret(), account.getAlgorithm()),
+                account.getDigits()).generateResponseCode(state);
+    }
+
+    public void testGenerateCodes() throws Exception {
+        List<Account> accounts = Arrays.asList(
+                totp("johndoe@gmail.com", SECRET),
+                totp("amywinehouse@aol.com", SECRET2),
+                new Account("maryweiss@yahoo.com", SECRET, OtpType.HOTP, 0, null, Algorithm.SHA1,
+                        DIGITS, OtpProvider.DEFAULT_INTERVAL));
+        String[] codes = new BulkCodeGenerator(executor, 4).generateCodes(accounts, TIME);
+        assertEquals(3, codes.length);
+        assertEquals(sequentialCode(accounts.get(0), TIME), codes[0]);
+        assertEquals("817746", codes[1]);
+        // The code of counter value 1, which getNextCode would return
+        assertEquals("683298", codes[2]);
+    }
+
+    public void testGenerateCodesInAccountOrder() throws Exception {
+        List<Account> accounts = randomAccounts(5000);
+        String[] codes = new BulkCodeGenerator(executor, 4).generateCodes(accounts, TIME);
+        assertEquals(accounts.size(), codes.length);
+        for (int i = 0; i < accounts.size(); i++) {
+            assertEquals(accounts.get(i).getName(), sequentialCode(accounts.get(i), TIME), codes[i]);
+        }
+    }
+
+    public void testGenerateCodesInvalidSecret() throws Exception {
+        List<Account> accounts = Arrays.asList(totp("1", "1"), totp("2", ""), totp("3", SECRET2));
+        String[] codes = new BulkCodeGenerator(executor, 4).generateCodes(accounts, TIME);
+        assertNull(codes[0]);
+        assertNull(codes[1]);
+        assertEquals("817746", codes[2]);
+    }
+
+    public void testGenerateCodesNoAccounts() throws Exception {
+        assertEquals(0, new BulkCodeGenerator(executor, 4)
+                .generateCodes(new ArrayList<Account>(), TIME).length);
+    }
+}
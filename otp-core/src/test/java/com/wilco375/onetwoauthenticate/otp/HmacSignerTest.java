@@ -0,0 +1,172 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import junit.framework.TestCase;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Unit tests for {@link HmacSigner}.
+ */
+public class HmacSignerTest extends TestCase {
+    private static final String[] ALGORITHMS = {"HmacSHA1", "HmacSHA256", "HmacSHA512"};
+
+    private static final byte[] RFC_4226_SECRET = "12345678901234567890".getBytes();
+
+    /**
+     * HOTP values for counter values 0 to 9, from RFC 4226 appendix D.
+     */
+    private static final String[] RFC_4226_CODES = {
+            "755224", "287082", "359152", "969429", "338314",
+            "254676", "287922", "162583", "399871", "520489"};
+
+    /**
+     * TOTP test vectors of RFC 6238 appendix B: time (seconds) and the SHA1, SHA256 and SHA512
+     * codes.
+     */
+    private static final Object[][] RFC_6238_VECTORS = {
+            {59L, "94287082", "46119246", "90693936"},
+            {1111111109L, "07081804", "68084774", "25091201"},
+            {1111111111L, "14050471", "67062674", "99943326"},
+            {1234567890L, "89005924", "91819424", "93441116"},
+            {2000000000L, "69279037", "90698825", "38618901"},
+            {20000000000L, "65353130", "77737706", "47863826"}};
+
+    private static final byte[][] RFC_6238_SECRETS = {
+            "12345678901234567890".getBytes(),
+            "12345678901234567890123456789012".getBytes(),
+            "1234567890123456789012345678901234567890123456789012345678901234".getBytes()};
+
+    private static Mac newMac(String algorithm, byte[] key) throws Exception {
+        Mac mac = Mac.getInstance(algorithm);
+        mac.init(new SecretKeySpec(key, ""));
+        return mac;
+    }
+
+    public void testRfc4226() throws Exception {
+        PasscodeGenerator generator = new PasscodeGenerator(
+                HmacSigner.getInstance("HmacSHA1", RFC_4226_SECRET));
+        for (int counter = 0; counter < RFC_4226_CODES.length; counter++) {
+            assertEquals(RFC_4226_CODES[counter], generator.generateResponseCode(counter));
+        }
+    }
+
+    public void testRfc6238() throws Exception {
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            PasscodeGenerator generator = new PasscodeGenerator(
+                    HmacSigner.getInstance(ALGORITHMS[i], RFC_6238_SECRETS[i]), 8);
+            for (Object[] vector : RFC_6238_VECTORS) {
+                long counter = (Long) vector[0] / 30;
+                assertEquals(ALGORITHMS[i] + " at " + vector[0],
+                        vector[i + 1], generator.generateResponseCode(counter));
+            }
+        }
+    }
+
+    public void testMatchesMac() throws Exception {
+        Random random = new Random(0);
+        for (String algorithm : ALGORITHMS) {
+            // Key and message lengths around the block sizes and the padding boundaries
+            for (int keyLength : new int[]{1, 10, 20, 63, 64, 65, 127, 128, 129, 300}) {
+                byte[] key = new byte[keyLength];
+                random.nextBytes(key);
+                Mac mac = newMac(algorithm, key);
+                HmacSigner signer = HmacSigner.getInstance(algorithm, key);
+                assertEquals(mac.getMacLength(), signer.getMacLength());
+
+                for (int messageLength = 0; messageLength < 300; messageLength++) {
+                    byte[] message = new byte[messageLength];
+                    random.nextBytes(message);
+                    assertTrue(algorithm + " key " + keyLength + " message " + messageLength,
+                            Arrays.equals(mac.doFinal(message), signer.sign(message)));
+                }
+            }
+        }
+    }
+
+    public void testUpdateMatchesMac() throws Exception {
+        Random random = new Random(0);
+        byte[] out = new byte[64];
+        for (String algorithm : ALGORITHMS) {
+            byte[] key = new byte[20];
+            random.nextBytes(key);
+            Mac mac = newMac(algorithm, key);
+            HmacSigner signer = HmacSigner.getInstance(algorithm, key);
+
+            for (int messageLength = 0; messageLength < 400; messageLength += 7) {
+                byte[] message = new byte[messageLength];
+                random.nextBytes(message);
+                // Feed the message in parts of random lengths, including empty ones
+                for (int offset = 0; offset < messageLength; ) {
+                    int length = Math.min(random.nextInt(150), messageLength - offset);
+                    signer.update(message, offset, length);
+                    offset += length;
+                }
+                int length = signer.doFinal(out);
+                assertTrue(algorithm + " message " + messageLength,
+                        Arrays.equals(mac.doFinal(message), Arrays.copyOf(out, length)));
+            }
+
+            // A message fed in parts doesn't affect the next one
+            signer.update(new byte[3], 0, 3);
+            signer.doFinal(out);
+            assertTrue(Arrays.equals(mac.doFinal(new byte[5]), signer.sign(new byte[5])));
+        }
+    }
+
+    public void testSignIntoBuffer() throws Exception {
+        HmacSigner signer = HmacSigner.getInstance("HmacSHA1", RFC_4226_SECRET);
+        byte[] message = new byte[8];
+        byte[] out = new byte[32];
+        assertEquals(20, signer.sign(message, out));
+        assertTrue(Arrays.equals(signer.sign(message), Arrays.copyOf(out, 20)));
+
+        try {
+            signer.sign(message, new byte[19]);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    public void testUnsupportedAlgorithm() {
+        try {
+            HmacSigner.getInstance("HmacMD5", RFC_4226_SECRET);
+            fail();
+        } catch (NoSuchAlgorithmException expected) {
+        }
+    }
+
+    /**
+     * Checks that, after warm-up, generating a code with a {@link HmacSigner} allocates nothing.
+     */
+    public void testGenerateResponseCodeAllocatesNothing() throws Exception {
+        if (!ThreadAllocation.isSupported()) {
+            return;
+        }
+        int iterations = 10000;
+        for (String algorithm : ALGORITHMS) {
+            byte[] key = new byte[20];
+            new Random(0).nextBytes(key);
+            PasscodeGenerator macGenerator = new PasscodeGenerator(newMac(algorithm, key)::doFinal);
+            PasscodeGenerator hmacGenerator =
+                    new PasscodeGenerator(HmacSigner.getInstance(algorithm, key));
+
+            // Warm up
+            for (int i = 0; i < iterations; i++) {
+                assertEquals(macGenerator.generateResponseCodeInt(i),
+                        hmacGenerator.generateResponseCodeInt(i));
+            }
+
+            long allocated = ThreadAllocation.count(() -> {
+                for (int i = 0; i < iterations; i++) {
+                    hmacGenerator.generateResponseCodeInt(i);
+                }
+            });
+            assertEquals(algorithm, 0, allocated);
+        }
+    }
+}
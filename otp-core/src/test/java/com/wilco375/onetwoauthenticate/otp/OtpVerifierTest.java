@@ -0,0 +1,198 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import com.wilco375.onetwoauthenticate.database.Account;
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.database.AccountStore.OtpType;
+import com.wilco375.onetwoauthenticate.util.Base32String;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Unit tests for {@link OtpVerifier} and {@link ReplayCache}.
+ */
+public class OtpVerifierTest extends TestCase {
+    private static final String SECRET = "7777777777777777"; // 16 sevens
+    private static final String ACCOUNT = "johndoe@gmail.com";
+
+    private OtpVerifier verifier;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        verifier = new OtpVerifier();
+    }
+
+    private static String code(String secret, long counter) throws Exception {
+        return new PasscodeGenerator(MacSigner.getInstance(secret, Algorithm.SHA1))
+                .generateResponseCode(counter);
+    }
+
+    public void testVerifyTotp() throws Exception {
+        assertEquals("683298", code(SECRET, 1));
+        assertTrue(verifier.verifyTotp(ACCOUNT, SECRET, 1, "683298"));
+    }
+
+    public void testVerifyTotpWindow() throws Exception {
+        assertTrue(verifier.verifyTotp(ACCOUNT, SECRET, 1000, code(SECRET, 999)));
+        assertTrue(verifier.verifyTotp("2", SECRET, 1000, code(SECRET, 1000)));
+        assertTrue(verifier.verifyTotp("3", SECRET, 1000, code(SECRET, 1001)));
+        assertFalse(verifier.verifyTotp("4", SECRET, 1000, code(SECRET, 998)));
+        assertFalse(verifier.verifyTotp("5", SECRET, 1000, code(SECRET, 1002)));
+    }
+
+    public void testVerifyTotpRejectsMalformedCodes() throws Exception {
+        assertFalse(verifier.verifyTotp(ACCOUNT, SECRET, 1, null));
+        assertFalse(verifier.verifyTotp(ACCOUNT, SECRET, 1, ""));
+        assertFalse(verifier.verifyTotp(ACCOUNT, SECRET, 1, "68329"));
+        assertFalse(verifier.verifyTotp(ACCOUNT, SECRET, 1, "0683298"));
+        assertFalse(verifier.verifyTotp(ACCOUNT, SECRET, 1, "68329a"));
+        assertFalse(verifier.verifyTotp(ACCOUNT, SECRET, 1, "-83298"));
+    }
+
+    public void testVerifyTotpInvalidSecret() {
+        try {
+            verifier.verifyTotp(ACCOUNT, "1", 1, "683298");
+            fail();
+        } catch (OtpSourceException expected) {
+        }
+    }
+
+    public void testVerifyTotpRejectsReplay() throws Exception {
+        String code = code(SECRET, 1000);
+        assertTrue(verifier.verifyTotp(ACCOUNT, SECRET, 1000, code));
+        assertFalse(verifier.verifyTotp(ACCOUNT, SECRET, 1000, code));
+        assertFalse(verifier.verifyTotp(ACCOUNT, SECRET, 1001, code));
+
+        // Codes older than an accepted one are spent as well
+        assertFalse(verifier.verifyTotp(ACCOUNT, SECRET, 1000, code(SECRET, 999)));
+        assertTrue(verifier.verifyTotp(ACCOUNT, SECRET, 1000, code(SECRET, 1001)));
+
+        // Other accounts are not affected
+        assertTrue(verifier.verifyTotp("amywinehouse@aol.com", SECRET, 1000, code));
+    }
+
+    public void testExpiredReplayCacheEntriesAreOverwritten() throws Exception {
+        ReplayCache replayCache = new ReplayCache();
+        verifier = new OtpVerifier(new SignerCache(), replayCache, 6, 1, 1);
+        assertTrue(verifier.verifyTotp(ACCOUNT, SECRET, 1000, code(SECRET, 1000)));
+        assertEquals(1, replayCache.size());
+
+        // Verifying doesn't scan the cache for expired entries
+        verifier.verifyTotp("2", SECRET, 1005, "");
+        assertEquals(1, replayCache.size());
+
+        assertTrue(verifier.verifyTotp(ACCOUNT, SECRET, 1005, code(SECRET, 1005)));
+        assertEquals(1, replayCache.size());
+
+        replayCache.purgeExpired(1007);
+        assertEquals(0, replayCache.size());
+    }
+
+    public void testReplayCacheMarkUsed() {
+        ReplayCache replayCache = new ReplayCache();
+        assertTrue(replayCache.markUsed(ACCOUNT, 5));
+        assertFalse(replayCache.markUsed(ACCOUNT, 5));
+        assertFalse(replayCache.markUsed(ACCOUNT, 4));
+        assertTrue(replayCache.markUsed(ACCOUNT, 6));
+
+        replayCache.purgeExpired(7);
+        assertEquals(0, replayCache.size());
+        assertTrue(replayCache.markUsed(ACCOUNT, 7));
+    }
+
+    public void testVerifyHotp() throws Exception {
+        verifier = new OtpVerifier(new SignerCache(), new ReplayCache(), 6, 0, 3);
+        assertEquals(1, verifier.verifyHotp(ACCOUNT, SECRET, 1, "683298"));
+        assertEquals(2, verifier.verifyHotp(ACCOUNT, SECRET, 0, "891123"));
+        assertEquals(OtpVerifier.NO_MATCH, verifier.verifyHotp(ACCOUNT, SECRET, 2, "683298"));
+        assertEquals(OtpVerifier.NO_MATCH, verifier.verifyHotp(ACCOUNT, SECRET, 1, "000000"));
+    }
+
+    public void testVerifyTotpWithAccountAlgorithmAndDigits() throws Exception {
+        for (Algorithm algorithm : Algorithm.values()) {
+            String name = "johndoe" + algorithm + "@gmail.com";
+            Account account = new Account(name, SECRET, OtpType.TOTP, 0, null, algorithm, 8,
+                    OtpProvider.DEFAULT_INTERVAL);
+            String code = new PasscodeGenerator(MacSigner.getInstance(SECRET, algorithm), 8)
+                    .generateResponseCode(1000);
+            assertTrue(algorithm.toString(), verifier.verifyTotp(account, 1000, code));
+            assertFalse(algorithm.toString(), verifier.verifyTotp(account, 1000, code));
+        }
+        // Accounts verified by name and secret use HMAC-SHA1 and the verifier's code length
+        assertFalse(verifier.verifyTotp("2", SECRET, 1000, new PasscodeGenerator(
+                MacSigner.getInstance(SECRET, Algorithm.SHA256)).generateResponseCode(1000)));
+    }
+
+    public void testVerifyHotpWithAccountAlgorithmAndDigits() throws Exception {
+        verifier = new OtpVerifier(new SignerCache(), new ReplayCache(), 6, 0, 3);
+        Account account = new Account(ACCOUNT, SECRET, OtpType.HOTP, 0, null, Algorithm.SHA512,
+                7, OtpProvider.DEFAULT_INTERVAL);
+        String code = new PasscodeGenerator(MacSigner.getInstance(SECRET, Algorithm.SHA512), 7)
+                .generateResponseCode(3);
+        assertEquals(3, verifier.verifyHotp(account, 1, code));
+        assertEquals(OtpVerifier.NO_MATCH, verifier.verifyHotp(account, 4, code));
+    }
+
+    public void testCodesEqual() {
+        assertEquals(1, PasscodeGenerator.codesEqual(0, 0));
+        assertEquals(1, PasscodeGenerator.codesEqual(683298, 683298));
+        assertEquals(0, PasscodeGenerator.codesEqual(683298, 683299));
+        assertEquals(0, PasscodeGenerator.codesEqual(0, Integer.MIN_VALUE));
+        assertEquals(0, PasscodeGenerator.codesEqual(-1, 1));
+    }
+
+    /**
+     * Verifies the codes of many accounts from several threads at once, each of which submits
+     * every code. Each code must be accepted exactly once.
+     */
+    public void testConcurrentVerificationAcceptsEachCodeOnce() throws Exception {
+        final int accountCount = 200;
+        final int threadCount = 4;
+        final long interval = 50000000L;
+        Random random = new Random(0);
+        final String[] secrets = new String[accountCount];
+        final String[] codes = new String[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            byte[] key = new byte[10];
+            random.nextBytes(key);
+            secrets[i] = Base32String.encode(key);
+            codes[i] = code(secrets[i], interval);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                final int thread = t;
+                tasks.add(() -> {
+                    int accepted = 0;
+                    // Every thread submits every code, only the first submission may be accepted
+                    for (int i = 0; i < accountCount; i++) {
+                        int account = (i + thread * accountCount / threadCount) % accountCount;
+                        if (verifier.verifyTotp(String.valueOf(account), secrets[account],
+                                interval, codes[account])) {
+                            accepted++;
+                        }
+                    }
+                    return accepted;
+                });
+            }
+
+            int accepted = 0;
+            for (Future<Integer> result : executor.invokeAll(tasks)) {
+                accepted += result.get();
+            }
+            assertEquals(accountCount, accepted);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
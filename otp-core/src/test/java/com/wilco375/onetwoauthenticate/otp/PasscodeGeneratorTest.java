@@ -17,13 +17,15 @@
 
 package com.wilco375.onetwoauthenticate.otp;
 
-import com.wilco375.onetwoauthenticate.database.AccountDb;
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
 import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator;
 import com.wilco375.onetwoauthenticate.util.Base32String;
 import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.Signer;
 
 import junit.framework.TestCase;
 
+import java.nio.ByteBuffer;
+
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -33,7 +35,6 @@ import javax.crypto.spec.SecretKeySpec;
  * @author sarvar@google.com (Sarvar )
  */
 public class PasscodeGeneratorTest extends TestCase {
-
     private byte[] KEYBYTES1;
     private byte[] KEYBYTES2;
     private Mac mac1;
@@ -52,7 +53,7 @@ public class PasscodeGeneratorTest extends TestCase {
         mac2.init(new SecretKeySpec(KEYBYTES2, ""));
         passcodeGenerator1 = new PasscodeGenerator(mac1);
         passcodeGenerator2 = new PasscodeGenerator(mac2);
-        signer = AccountDb.getSigningOracle("7777777777777777");
+        signer = MacSigner.getInstance("7777777777777777", Algorithm.SHA1);
     }
 
     public void testGenerateResponseCodeLong() throws Exception {
@@ -135,4 +136,114 @@ public class PasscodeGeneratorTest extends TestCase {
         String codeFromSigning2 = new PasscodeGenerator(signer, 6).generateResponseCode(1L);
         assertFalse(codeFromSigning.equals(codeFromSigning2));
     }
+
+    public void testGenerateResponseCodeInt() throws Exception {
+        assertEquals(724477, passcodeGenerator1.generateResponseCodeInt(0L));
+        assertEquals(815107, passcodeGenerator1.generateResponseCodeInt(123456789123456789L));
+        // Leading zeros are not part of the integer code
+        assertEquals(83501, passcodeGenerator1.generateResponseCodeInt(1233));
+        assertEquals("083501", passcodeGenerator1.generateResponseCode(1233));
+        for (long state = 1220; state < 1240; state++) {
+            assertEquals(Integer.parseInt(passcodeGenerator2.generateResponseCode(state)),
+                    passcodeGenerator2.generateResponseCodeInt(state));
+        }
+    }
+
+    public void testWriteResponseCode() throws Exception {
+        char[] out = "[      ]".toCharArray();
+        passcodeGenerator1.writeResponseCode(1233, out, 1);
+        assertEquals("[083501]", new String(out));
+        passcodeGenerator1.writeResponseCode(1234, out, 1);
+        assertEquals("[607007]", new String(out));
+
+        char[] nineDigits = new char[9];
+        new PasscodeGenerator(mac1, 9).writeResponseCode(0L, nineDigits, 0);
+        assertEquals(new PasscodeGenerator(mac1, 9).generateResponseCode(0L), new String(nineDigits));
+    }
+
+    /**
+     * Challenge that spans several encoder buffers and blocks of the hash, with multi-byte
+     * characters and an unpaired surrogate.
+     */
+    private static String longChallenge() {
+        StringBuilder challenge = new StringBuilder();
+        for (int i = 0; challenge.length() < 3 * ChallengeEncoder.BUFFER_SIZE; i++) {
+            challenge.append("Transfer \u20ac").append(i).append(" to \u00e9t\u00e9 \ud83d\ude00; ");
+        }
+        return challenge.append('\ud83d').toString();
+    }
+
+    /**
+     * Signs the challenge the way it was signed before challenges were streamed: the UTF-8 bytes
+     * appended to the state in a new buffer.
+     */
+    private static String concatenatedResponseCode(Signer signer, long state, String challenge)
+            throws Exception {
+        byte[] challengeBytes = challenge.getBytes("UTF-8");
+        byte[] value = ByteBuffer.allocate(8 + challengeBytes.length)
+                .putLong(state)
+                .put(challengeBytes)
+                .array();
+        return new PasscodeGenerator(signer, 9).generateResponseCode(value);
+    }
+
+    public void testGenerateResponseCodeWithStreamedChallenge() throws Exception {
+        ChallengeEncoder encoder = new ChallengeEncoder();
+        Signer[] signers = {
+                signer,
+                HmacSigner.getInstance("HmacSHA1", KEYBYTES1),
+                data -> mac1.doFinal(data)};  // Not a StreamingSigner
+        for (String challenge : new String[]{"", "this is my challenge", longChallenge()}) {
+            String expected = concatenatedResponseCode(mac1::doFinal, 123456789L, challenge);
+            for (Signer challengeSigner : signers) {
+                PasscodeGenerator generator = new PasscodeGenerator(challengeSigner, 9);
+                assertEquals(expected, generator.generateResponseCode(123456789L, challenge, encoder));
+                assertEquals(expected,
+                        generator.generateResponseCode(123456789L, challenge.getBytes("UTF-8")));
+            }
+        }
+
+        // Streaming leaves the signer ready for the next code
+        assertEquals(passcodeGenerator1.generateResponseCode(0L),
+                new PasscodeGenerator(signer).generateResponseCode(0L));
+    }
+
+    public void testWriteResponseCodeOutOfBounds() throws Exception {
+        try {
+            passcodeGenerator1.writeResponseCode(0L, new char[8], 3);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        try {
+            passcodeGenerator1.writeResponseCode(0L, new char[8], -1);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    /**
+     * Checks that, after warm-up, {@link PasscodeGenerator#writeResponseCode(long, char[], int)}
+     * with a signer that doesn't allocate allocates nothing.
+     */
+    public void testWriteResponseCodeAllocatesNothing() throws Exception {
+        if (!ThreadAllocation.isSupported()) {
+            return;
+        }
+        final byte[] hash = mac1.doFinal(new byte[8]);
+        PasscodeGenerator generator = new PasscodeGenerator(data -> hash, 6);
+        char[] out = new char[6];
+        int iterations = 10000;
+
+        // Warm-up
+        for (int i = 0; i < iterations; i++) {
+            generator.writeResponseCode(i, out, 0);
+        }
+
+        long allocatedBytes = ThreadAllocation.count(() -> {
+            for (int i = 0; i < iterations; i++) {
+                generator.writeResponseCode(i, out, 0);
+            }
+        });
+        assertEquals(0, allocatedBytes);
+    }
 }
@@ -0,0 +1,124 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import com.wilco375.onetwoauthenticate.database.AccountStore.Algorithm;
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.Signer;
+import com.wilco375.onetwoauthenticate.util.Base32String;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Unit tests for {@link SignerCache}.
+ */
+public class SignerCacheTest extends TestCase {
+    private static final String SECRET = "7777777777777777"; // 16 sevens
+    private static final String SECRET2 = "2222222222222222"; // 16 twos
+    private static final byte[] MESSAGE = "hello".getBytes();
+
+    private SignerCache signerCache;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        signerCache = new SignerCache();
+    }
+
+    public void testGetReturnsCachedSigner() {
+        Signer signer = signerCache.get("johndoe@gmail.com", SECRET);
+        assertNotNull(signer);
+        assertSame(signer, signerCache.get("johndoe@gmail.com", SECRET));
+        assertEquals(1, signerCache.size());
+    }
+
+    public void testThreadsGetTheirOwnSigner() throws Exception {
+        Signer signer = signerCache.get("johndoe@gmail.com", SECRET);
+        final Signer[] otherSigner = new Signer[1];
+        Thread thread = new Thread(
+                () -> otherSigner[0] = signerCache.get("johndoe@gmail.com", SECRET));
+        thread.start();
+        thread.join();
+
+        assertNotNull(otherSigner[0]);
+        assertNotSame(signer, otherSigner[0]);
+        assertEquals(1, signerCache.size());
+        assertEquals(Base32String.encode(signer.sign(MESSAGE)),
+                Base32String.encode(otherSigner[0].sign(MESSAGE)));
+    }
+
+    public void testGetRebuildsSignerWhenSecretChanges() throws Exception {
+        Signer signer = signerCache.get("johndoe@gmail.com", SECRET);
+        Signer newSigner = signerCache.get("johndoe@gmail.com", SECRET2);
+        assertNotSame(signer, newSigner);
+        assertEquals(
+                Base32String.encode(MacSigner.getInstance(SECRET2, Algorithm.SHA1).sign(MESSAGE)),
+                Base32String.encode(newSigner.sign(MESSAGE)));
+        assertEquals(1, signerCache.size());
+    }
+
+    public void testGetRebuildsSignerWhenAlgorithmChanges() throws Exception {
+        Signer signer = signerCache.get("johndoe@gmail.com", SECRET);
+        Signer newSigner = signerCache.get("johndoe@gmail.com", SECRET, Algorithm.SHA256);
+        assertNotSame(signer, newSigner);
+        assertEquals(
+                Base32String.encode(
+                        MacSigner.getInstance(SECRET, Algorithm.SHA256).sign(MESSAGE)),
+                Base32String.encode(newSigner.sign(MESSAGE)));
+        assertEquals(1, signerCache.size());
+    }
+
+    public void testInvalidSecret() {
+        assertNull(signerCache.get("johndoe@gmail.com", "1"));
+        assertEquals(0, signerCache.size());
+    }
+
+    public void testInvalidate() {
+        Signer signer = signerCache.get("johndoe@gmail.com", SECRET);
+        signerCache.get("amywinehouse@aol.com", SECRET2);
+
+        signerCache.onAccountChanged("johndoe@gmail.com");
+        assertEquals(1, signerCache.size());
+        assertNotSame(signer, signerCache.get("johndoe@gmail.com", SECRET));
+
+        signerCache.onAccountChanged(null);
+        assertEquals(0, signerCache.size());
+    }
+
+    public void testCapacityIsBounded() {
+        signerCache = new SignerCache(2);
+        Signer signer1 = signerCache.get("1", SECRET);
+        Signer signer2 = signerCache.get("2", SECRET);
+        // Touch the first signer so that the second one is the least recently used
+        assertSame(signer1, signerCache.get("1", SECRET));
+        signerCache.get("3", SECRET);
+
+        assertEquals(2, signerCache.size());
+        assertSame(signer1, signerCache.get("1", SECRET));
+        assertNotSame(signer2, signerCache.get("2", SECRET));
+    }
+
+    public void testCachedSignerMatchesSigningOracle() throws Exception {
+        assertEquals(
+                Base32String.encode(MacSigner.getInstance(SECRET, Algorithm.SHA1).sign(MESSAGE)),
+                Base32String.encode(signerCache.get("johndoe@gmail.com", SECRET).sign(MESSAGE)));
+    }
+
+    public void testCachedSignersMatchNewSigners() throws Exception {
+        int accountCount = 100;
+        Random random = new Random(0);
+        for (int i = 0; i < accountCount; i++) {
+            byte[] key = new byte[10];
+            random.nextBytes(key);
+            String secret = Base32String.encode(key);
+            // Filled in the first pass, read from the cache in the second
+            for (int pass = 0; pass < 2; pass++) {
+                assertEquals(
+                        new PasscodeGenerator(MacSigner.getInstance(secret, Algorithm.SHA1))
+                                .generateResponseCode(i),
+                        new PasscodeGenerator(signerCache.get(String.valueOf(i), secret))
+                                .generateResponseCode(i));
+            }
+        }
+        assertEquals(accountCount, signerCache.size());
+    }
+}
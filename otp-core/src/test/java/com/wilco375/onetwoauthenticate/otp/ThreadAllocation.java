@@ -0,0 +1,49 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Counts the bytes allocated by the current thread, like {@code android.os.Debug} does on a
+ * device. Only available on JVMs that implement {@link com.sun.management.ThreadMXBean}.
+ */
+final class ThreadAllocation {
+    private ThreadAllocation() {
+    }
+
+    /**
+     * Returns whether allocations can be counted on this JVM.
+     */
+    static boolean isSupported() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * Code whose allocations are counted.
+     */
+    interface Action {
+        void run() throws Exception;
+    }
+
+    /**
+     * Returns the number of bytes allocated by {@code action}, less the bytes allocated by the
+     * counting itself. Must only be called if {@link #isSupported()}.
+     */
+    static long count(Action action) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        // Warm up the counting, then measure what it allocates by itself
+        for (int i = 0; i < 10; i++) {
+            threads.getThreadAllocatedBytes(id);
+        }
+        long start = threads.getThreadAllocatedBytes(id);
+        long overhead = threads.getThreadAllocatedBytes(id) - start;
+
+        start = threads.getThreadAllocatedBytes(id);
+        action.run();
+        return threads.getThreadAllocatedBytes(id) - start - overhead;
+    }
+}
@@ -17,14 +17,13 @@
 
 package com.wilco375.onetwoauthenticate.util;
 
-import android.test.MoreAsserts;
-
 import com.wilco375.onetwoauthenticate.util.Base32String;
 import com.wilco375.onetwoauthenticate.util.Base32String.DecodingException;
 
 import junit.framework.TestCase;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 
 /**
  * Unit test for {@link Base32String}
@@ -66,10 +65,10 @@ public class Base32StringTest extends TestCase {
         assertEquals(OUTPUT4, Base32String.encode(INPUT4));
 
         // check decoding
-        MoreAsserts.assertEquals(INPUT1, Base32String.decode(OUTPUT1));
-        MoreAsserts.assertEquals(INPUT2, Base32String.decode(OUTPUT2));
-        MoreAsserts.assertEquals(INPUT3, Base32String.decode(OUTPUT3));
-        MoreAsserts.assertEquals(INPUT4, Base32String.decode(OUTPUT4));
+        assertTrue(Arrays.equals(INPUT1, Base32String.decode(OUTPUT1)));
+        assertTrue(Arrays.equals(INPUT2, Base32String.decode(OUTPUT2)));
+        assertTrue(Arrays.equals(INPUT3, Base32String.decode(OUTPUT3)));
+        assertTrue(Arrays.equals(INPUT4, Base32String.decode(OUTPUT4)));
     }
 
     /**
@@ -82,7 +81,7 @@ public class Base32StringTest extends TestCase {
     public void testAmbiguousDecoding() throws DecodingException {
         byte[] b16 = Base32String.decode("7777777777777777"); // 16 7s.
         byte[] b17 = Base32String.decode("77777777777777777"); // 17 7s.
-        MoreAsserts.assertEquals(b16, b17);
+        assertTrue(Arrays.equals(b16, b17));
     }
 
     // returns true if decoded, else false.
@@ -110,8 +109,8 @@ public class Base32StringTest extends TestCase {
         // acceptable separators " " and "-" which should be ignored
         assertEquals(2, checkDecoding("AA-AA").length);
         assertEquals(2, checkDecoding("AA-AA").length);
-        MoreAsserts.assertEquals(checkDecoding("AA-AA"), checkDecoding("AA AA"));
-        MoreAsserts.assertEquals(checkDecoding("AAAA"), checkDecoding("AA AA"));
+        assertTrue(Arrays.equals(checkDecoding("AA-AA"), checkDecoding("AA AA")));
+        assertTrue(Arrays.equals(checkDecoding("AAAA"), checkDecoding("AA AA")));
 
         // 1, 8, 9, 0 are not a valid character, decoding should fail
         assertNull(checkDecoding("11"));